@@ -0,0 +1,141 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.util.SessionAttributes;
+import com.era7.lib.communication.xml.Request;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import org.jdom.Element;
+
+/**
+ * Shared set up of the benchmarks: temporary database folder, initialized servlets and sessions
+ */
+public class BenchmarkEnvironment {
+
+    /**
+     * Permissions of the benchmark user (the request methods of {@link BenchmarkServlet})
+     */
+    public static final ArrayList<String> PERMISSIONS = new ArrayList<String>(
+            Arrays.asList(BenchmarkServlet.XML_METHOD, BenchmarkServlet.BINARY_METHOD));
+
+    private final File folder;
+
+    public BenchmarkEnvironment() throws IOException {
+        folder = File.createTempFile("servletlibraryneo4j-benchmark", "");
+        if (!folder.delete() || !folder.mkdirs()) {
+            throw new IOException("Unable to create " + folder);
+        }
+        SessionRegistry.init();
+    }
+
+    /**
+     * @return Folder of the (empty) temporary neo4j database
+     */
+    public String getDatabaseFolder() {
+        return new File(folder, "db").getAbsolutePath();
+    }
+
+    /**
+     * @return A new temporary file of the size provided
+     */
+    public File createFile(int size) throws IOException {
+        File file = File.createTempFile("binary", ".fasta", folder);
+        java.io.FileOutputStream out = new java.io.FileOutputStream(file);
+        try {
+            byte[] line = ">sp|P69905|HBA_HUMAN\nMVLSPADKTNVKAAWGKVGAHAGEYGAEALERMFLSFPTTKTYFPHF\n".getBytes("US-ASCII");
+            for (int written = 0; written < size; written += line.length) {
+                out.write(line, 0, Math.min(line.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Initializes the servlet provided as a container would do
+     */
+    public static void init(HttpServlet servlet, final String name) throws ServletException {
+        servlet.init(new ServletConfig() {
+
+            @Override
+            public String getServletName() {
+                return name;
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return null;
+            }
+
+            @Override
+            public String getInitParameter(String parameter) {
+                return null;
+            }
+
+            @Override
+            public java.util.Enumeration<String> getInitParameterNames() {
+                return Collections.enumeration(Collections.<String>emptyList());
+            }
+        });
+    }
+
+    /**
+     * @return The id of a new session of the benchmark user
+     */
+    public static String createSession() {
+        BasicSession session = SessionRegistry.createNewSession();
+        session.setAttribute(SessionAttributes.SESSION_ID_ATTRIBUTE, session.getSessionId());
+        session.setAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE, PERMISSIONS);
+        return session.getSessionId();
+    }
+
+    /**
+     * @param method Request method
+     * @param sessionId Session id
+     * @param parameters Number of parameters of the request
+     * @return The xml of the request
+     */
+    public static String buildRequest(String method, String sessionId, int parameters) {
+        Request request = new Request();
+        request.setMethod(method);
+        request.setSessionID(sessionId);
+        request.setId("1");
+        Element parametersElement = request.getParameters();
+        if (parametersElement == null) {
+            parametersElement = new Element("parameters");
+            request.getRoot().addContent(parametersElement);
+        }
+        for (int i = 0; i < parameters; i++) {
+            parametersElement.addContent(new Element("accession").setText("P" + (10000 + i)));
+        }
+        return request.toString();
+    }
+
+    /**
+     * Closes the database and removes the temporary files
+     */
+    public void close() {
+        Bio4jManagerRegistry.closeAll();
+        delete(folder);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
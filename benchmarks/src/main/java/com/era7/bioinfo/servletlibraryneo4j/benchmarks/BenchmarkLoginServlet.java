@@ -0,0 +1,75 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import com.era7.bioinfo.servletlibraryneo4j.servlet.BasicLoginServletNeo4j;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Login servlet accepting every user; the id of the last session created is kept so that
+ * the benchmark can remove it and the number of sessions stays constant.
+ */
+public class BenchmarkLoginServlet extends BasicLoginServletNeo4j {
+
+    private static final long serialVersionUID = 1L;
+
+    private String lastSessionId = null;
+    private final AtomicLong errors = new AtomicLong();
+
+    public String getLastSessionId() {
+        return lastSessionId;
+    }
+
+    /**
+     * @return Number of requests that failed with an exception (they are counted rather than thrown,
+     * since errors are logged off the request threads)
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    protected boolean processLoginRequest(Request request) {
+        return true;
+    }
+
+    @Override
+    protected void storeObjectsInSession(Request request, BasicSession session) {
+        lastSessionId = session.getSessionId();
+        session.setAttribute("user", "benchmark");
+    }
+
+    @Override
+    protected ArrayList<?> defineUserPermissions(Request request) {
+        return BenchmarkEnvironment.PERMISSIONS;
+    }
+
+    @Override
+    protected boolean defineLoggableFlag() {
+        return false;
+    }
+
+    @Override
+    protected boolean defineLoggableErrorsFlag() {
+        return true;
+    }
+
+    @Override
+    public void initServlet() {
+    }
+
+    @Override
+    protected void logSuccessfulOperation(Request request, Response response, BasicSession session) {
+    }
+
+    @Override
+    protected void logErrorResponseOperation(Request request, Response response, BasicSession session) {
+    }
+
+    @Override
+    protected void logErrorExceptionOperation(Request request, Response response, Throwable e) {
+        errors.incrementAndGet();
+    }
+}
@@ -0,0 +1,131 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.response.BinaryResponse;
+import com.era7.bioinfo.servletlibraryneo4j.servlet.BasicServletNeo4j;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.jdom.Element;
+
+/**
+ * Servlet whose logic does not touch the graph, so that only the overhead of the library is measured.
+ * <br>Method "xml" returns a copy of a response with the configured number of elements,
+ * method "binary" returns the configured file.
+ */
+public class BenchmarkServlet extends BasicServletNeo4j {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String XML_METHOD = "xml";
+    public static final String BINARY_METHOD = "binary";
+
+    private final String databaseFolder;
+    private Element template = new Response().getRoot();
+    private File file = null;
+    private final AtomicLong errors = new AtomicLong();
+
+    public BenchmarkServlet(String databaseFolder) {
+        this.databaseFolder = databaseFolder;
+    }
+
+    /**
+     * @param elements Number of elements of the xml responses
+     */
+    public void setElements(int elements) {
+        Response response = new Response();
+        for (int i = 0; i < elements; i++) {
+            Element protein = new Element("protein");
+            protein.setAttribute("accession", "P" + (10000 + i));
+            protein.setText("MKTAYIAKQRQISFVKSHFSRQLEERLGLIEVQAPILSRVGDGTQDNLSGAEKAVQVKVKALPDAQFEVV");
+            response.getRoot().addContent(protein);
+        }
+        template = response.getRoot();
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return Number of requests that failed with an exception (they are counted rather than thrown,
+     * since errors are logged off the request threads)
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    protected Response processRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest) throws Throwable {
+        if (BINARY_METHOD.equals(request.getMethod())) {
+            return new BinaryResponse(file.getName(), file);
+        }
+        Response response = new Response((Element) template.clone());
+        response.setStatus(Response.SUCCESSFUL_RESPONSE);
+        return response;
+    }
+
+    @Override
+    protected void logSuccessfulOperation(Request request, Response response, Bio4jManager manager,
+            BasicSession session) {
+    }
+
+    @Override
+    protected void logErrorResponseOperation(Request request, Response response, Bio4jManager manager,
+            BasicSession session) {
+    }
+
+    @Override
+    protected void logErrorExceptionOperation(Request request, Response response, Throwable e,
+            Bio4jManager manager) {
+        errors.incrementAndGet();
+    }
+
+    @Override
+    protected void noSession(Request request) {
+    }
+
+    @Override
+    protected boolean checkPermissions(ArrayList<?> userPermissions, Request request) {
+        return userPermissions.contains(request.getMethod());
+    }
+
+    @Override
+    protected boolean defineCheckSessionFlag() {
+        return true;
+    }
+
+    @Override
+    protected boolean defineCheckPermissionsFlag() {
+        return true;
+    }
+
+    @Override
+    protected boolean defineLoggableFlag() {
+        return false;
+    }
+
+    @Override
+    protected boolean defineLoggableErrorsFlag() {
+        return true;
+    }
+
+    @Override
+    protected boolean defineUtf8CharacterEncodingRequest() {
+        return false;
+    }
+
+    @Override
+    protected String defineNeo4jDatabaseFolder() {
+        return databaseFolder;
+    }
+
+    @Override
+    protected void initServlet() {
+    }
+}
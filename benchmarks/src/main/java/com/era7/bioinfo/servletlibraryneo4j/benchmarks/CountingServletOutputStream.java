@@ -0,0 +1,29 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import javax.servlet.ServletOutputStream;
+
+/**
+ * Servlet output stream discarding its data (only the number of bytes is kept)
+ */
+public class CountingServletOutputStream extends ServletOutputStream {
+
+    private long count = 0;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+}
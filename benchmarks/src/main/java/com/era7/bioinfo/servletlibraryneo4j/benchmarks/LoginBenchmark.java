@@ -0,0 +1,64 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import com.era7.bioinfo.servletlibraryneo4j.servlet.BasicLoginServletNeo4j;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of BasicLoginServletNeo4j (session creation, permissions and response).
+ * <br>The session created by each login is removed afterwards so the number of sessions stays constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+
+    private BenchmarkEnvironment environment;
+    private BenchmarkLoginServlet servlet;
+    private InMemoryServletRequest request;
+    private InMemoryServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        servlet = new BenchmarkLoginServlet();
+        BenchmarkEnvironment.init(servlet, "login");
+        request = new InMemoryServletRequest();
+        request.setParameter(BasicLoginServletNeo4j.PARAMETER_NAME,
+                BenchmarkEnvironment.buildRequest("login", "", 2));
+        response = new InMemoryServletResponse();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        servlet.destroy();
+        environment.close();
+        if (servlet.getErrors() > 0) {
+            throw new IllegalStateException(servlet.getErrors() + " requests failed");
+        }
+    }
+
+    @Benchmark
+    public long login() throws Exception {
+        request.reset();
+        response.reset();
+        servlet.service(request, response);
+        SessionRegistry.removeSession(servlet.getLastSessionId());
+        return response.getBytesWritten();
+    }
+}
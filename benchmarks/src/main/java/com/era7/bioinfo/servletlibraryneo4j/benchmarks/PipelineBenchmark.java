@@ -0,0 +1,88 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the whole BasicServletNeo4j pipeline (doPost) for xml and binary responses
+ * and for small and large requests
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    /**
+     * Number of elements of the xml responses / size in KB of the binary responses
+     */
+    @Param({"10", "10000"})
+    public int size;
+
+    private BenchmarkEnvironment environment;
+    private BenchmarkServlet servlet;
+    private InMemoryServletRequest xmlRequest;
+    private InMemoryServletRequest binaryRequest;
+    private InMemoryServletRequest largeRequest;
+    private InMemoryServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        servlet = new BenchmarkServlet(environment.getDatabaseFolder());
+        BenchmarkEnvironment.init(servlet, "pipeline");
+        servlet.setElements(size);
+        servlet.setFile(environment.createFile(size * 1024));
+
+        String sessionId = BenchmarkEnvironment.createSession();
+        xmlRequest = new InMemoryServletRequest(BenchmarkEnvironment.buildRequest(BenchmarkServlet.XML_METHOD, sessionId, 1));
+        binaryRequest = new InMemoryServletRequest(BenchmarkEnvironment.buildRequest(BenchmarkServlet.BINARY_METHOD, sessionId, 1));
+        largeRequest = new InMemoryServletRequest(BenchmarkEnvironment.buildRequest(BenchmarkServlet.XML_METHOD, sessionId, size));
+        response = new InMemoryServletResponse();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        servlet.destroy();
+        environment.close();
+        if (servlet.getErrors() > 0) {
+            throw new IllegalStateException(servlet.getErrors() + " requests failed");
+        }
+    }
+
+    @Benchmark
+    public long xmlResponse() throws Exception {
+        return post(xmlRequest);
+    }
+
+    @Benchmark
+    public long binaryResponse() throws Exception {
+        return post(binaryRequest);
+    }
+
+    @Benchmark
+    public long largeRequest() throws Exception {
+        return post(largeRequest);
+    }
+
+    private long post(InMemoryServletRequest request) throws Exception {
+        request.reset();
+        response.reset();
+        servlet.service(request, response);
+        return response.getBytesWritten();
+    }
+}
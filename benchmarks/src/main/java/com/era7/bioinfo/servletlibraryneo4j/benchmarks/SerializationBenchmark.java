@@ -0,0 +1,71 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseSerializer;
+import com.era7.bioinfo.servletlibraryneo4j.response.SerializedResponse;
+import com.era7.lib.communication.xml.Response;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.jdom.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of a standard response: Response.toString() plus encoding (as done before
+ * {@link ResponseSerializer}) against the direct UTF-8 serialization into pooled chunks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"10", "10000"})
+    public int elements;
+
+    private Response response;
+    private CountingServletOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        response = new Response();
+        response.setStatus(Response.SUCCESSFUL_RESPONSE);
+        response.setId("1");
+        response.setMethod("get_proteins");
+        for (int i = 0; i < elements; i++) {
+            Element protein = new Element("protein");
+            protein.setAttribute("accession", "P" + i);
+            protein.setText("Protein " + i + " (\u00e9)");
+            response.getRoot().addContent(protein);
+        }
+        out = new CountingServletOutputStream();
+    }
+
+    @Benchmark
+    public long toStringAndEncode() throws IOException {
+        out.write((response.toString() + "\n").getBytes("UTF-8"));
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long serializer() throws IOException {
+        SerializedResponse serialized = ResponseSerializer.serialize(response);
+        try {
+            serialized.writeTo(out);
+        } finally {
+            serialized.release();
+        }
+        return out.getCount();
+    }
+}
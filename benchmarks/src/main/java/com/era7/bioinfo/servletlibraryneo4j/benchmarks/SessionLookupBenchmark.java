@@ -0,0 +1,68 @@
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
+
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import com.era7.lib.communication.model.BasicSession;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Session lookup (as done on every request) with many active sessions, from several threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SessionLookupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int sessions;
+
+    private BenchmarkEnvironment environment;
+    private String[] sessionIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next = 0;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        sessionIds = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            sessionIds[i] = BenchmarkEnvironment.createSession();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (String sessionId : sessionIds) {
+            SessionRegistry.removeSession(sessionId);
+        }
+        environment.close();
+    }
+
+    @Benchmark
+    public BasicSession lookup(Cursor cursor) {
+        //--> Strided walk so that consecutive lookups hit different parts of the registry
+        cursor.next = (cursor.next + 7919) % sessionIds.length;
+        return SessionRegistry.getSession(sessionIds[cursor.next]);
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * JMH benchmarks of the servlet request pipeline
+ */
+package com.era7.bioinfo.servletlibraryneo4j.benchmarks;
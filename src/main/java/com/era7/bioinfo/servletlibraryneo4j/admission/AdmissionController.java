@@ -0,0 +1,131 @@
+package com.era7.bioinfo.servletlibraryneo4j.admission;
+
+import java.util.Map;
+
+/**
+ * Admission control of the requests of one servlet: a limit for the servlet, one for each request method
+ * and (for the servlets sharing it) the application-wide limit.
+ * <br>The servlet and application-wide limits are checked before the request is parsed, the limit of its
+ * method as soon as the method is known. Login servlets do not share the application-wide limit so that
+ * users can still log in when the rest of the application is saturated.
+ */
+public final class AdmissionController {
+
+    private static volatile ConcurrencyLimiter GLOBAL_LIMITER = null;
+
+    private final ConcurrencyLimiter servletLimiter;
+    private final Map<String, ConcurrencyLimiter> methodLimiters;
+    private final boolean global;
+
+    /**
+     * @param servletLimiter Limit of the servlet (null for none)
+     * @param methodLimiters Limit of each request method (null for none)
+     * @param global Whether the application-wide limit applies
+     */
+    public AdmissionController(ConcurrencyLimiter servletLimiter, Map<String, ConcurrencyLimiter> methodLimiters,
+            boolean global) {
+        this.servletLimiter = servletLimiter;
+        this.methodLimiters = methodLimiters;
+        this.global = global;
+    }
+
+    /**
+     * Sets the application-wide limit (see {@link com.era7.bioinfo.servletlibraryneo4j.listeners.ApplicationListener})
+     * @param limiter Limiter (null for none)
+     */
+    public static void setGlobalLimiter(ConcurrencyLimiter limiter) {
+        GLOBAL_LIMITER = limiter;
+    }
+
+    public static ConcurrencyLimiter getGlobalLimiter() {
+        return GLOBAL_LIMITER;
+    }
+
+    /**
+     * Checks the application-wide and servlet limits
+     * @return The permit of the request or null if it must be rejected
+     */
+    public Permit tryAcquire() {
+        ConcurrencyLimiter globalLimiter = global ? GLOBAL_LIMITER : null;
+        if (globalLimiter == null && servletLimiter == null && methodLimiters == null) {
+            return Permit.NONE;
+        }
+        Permit permit = new Permit();
+        if (globalLimiter != null) {
+            if (!globalLimiter.tryAcquire()) {
+                return null;
+            }
+            permit.globalLimiter = globalLimiter;
+        }
+        if (servletLimiter != null) {
+            if (!servletLimiter.tryAcquire()) {
+                permit.release();
+                return null;
+            }
+            permit.servletLimiter = servletLimiter;
+        }
+        return permit;
+    }
+
+    /**
+     * Checks the limit of the request method provided
+     * @param permit Permit of the request
+     * @param method Request method
+     * @return False if the request must be rejected (the permit is released then)
+     */
+    public boolean tryAcquire(Permit permit, String method) {
+        if (methodLimiters == null || permit == Permit.NONE) {
+            return true;
+        }
+        ConcurrencyLimiter limiter = methodLimiters.get(method);
+        if (limiter == null) {
+            return true;
+        }
+        if (!limiter.tryAcquire()) {
+            permit.release();
+            return false;
+        }
+        permit.methodLimiter = limiter;
+        return true;
+    }
+
+    /**
+     * Limits held by a request admitted
+     */
+    public static final class Permit {
+
+        /**
+         * Permit of the requests not subject to any limit
+         */
+        static final Permit NONE = new Permit();
+        private final long start = System.nanoTime();
+        private ConcurrencyLimiter globalLimiter = null;
+        private ConcurrencyLimiter servletLimiter = null;
+        private ConcurrencyLimiter methodLimiter = null;
+
+        private Permit() {
+        }
+
+        /**
+         * Releases the limits held (it must be called once, when the request finishes)
+         */
+        public void release() {
+            if (this == NONE) {
+                return;
+            }
+            long latency = System.nanoTime() - start;
+            if (methodLimiter != null) {
+                methodLimiter.release(latency);
+                methodLimiter = null;
+            }
+            if (servletLimiter != null) {
+                servletLimiter.release(latency);
+                servletLimiter = null;
+            }
+            if (globalLimiter != null) {
+                globalLimiter.release(latency);
+                globalLimiter = null;
+            }
+        }
+    }
+}
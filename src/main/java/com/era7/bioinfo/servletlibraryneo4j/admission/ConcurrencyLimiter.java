@@ -0,0 +1,146 @@
+package com.era7.bioinfo.servletlibraryneo4j.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit of the requests processed at the same time.
+ * <br>The limit is either fixed or adaptive: an adaptive limit follows AIMD (additive increase,
+ * multiplicative decrease) on the latency observed, growing by one every <i>limit</i> fast requests
+ * while it is being used and shrinking by {@link #BACKOFF_RATIO} when requests are slower than
+ * the latency threshold.
+ * <br>The limit decreases at most once per round of <i>limit</i> completed requests: the requests that
+ * were already in flight when it decreased are slow for the same reason, so they do not cut it again.
+ */
+public final class ConcurrencyLimiter {
+
+    /**
+     * Ratio applied to an adaptive limit when a request is slower than its threshold
+     * (at most once per round of <i>limit</i> completed requests)
+     */
+    public static final double BACKOFF_RATIO = 0.9;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    /**
+     * Number of completed requests from which the limit can be decreased again
+     */
+    private final AtomicLong nextDecrease = new AtomicLong();
+    private final AtomicLong limitBits;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThreshold;
+
+    private ConcurrencyLimiter(int initialLimit, boolean adaptive, int minLimit, int maxLimit, long latencyThreshold) {
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(initialLimit));
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    /**
+     * @param limit Maximum number of requests processed at the same time
+     * @return A fixed limiter
+     */
+    public static ConcurrencyLimiter fixed(int limit) {
+        return new ConcurrencyLimiter(Math.max(1, limit), false, limit, limit, 0);
+    }
+
+    /**
+     * @param initialLimit Initial limit
+     * @param minLimit Minimum limit
+     * @param maxLimit Maximum limit
+     * @param latencyThreshold Latency (in milliseconds) over which the limit is decreased
+     * @return An adaptive (AIMD) limiter
+     */
+    public static ConcurrencyLimiter adaptive(int initialLimit, int minLimit, int maxLimit, long latencyThreshold) {
+        minLimit = Math.max(1, minLimit);
+        maxLimit = Math.max(minLimit, maxLimit);
+        return new ConcurrencyLimiter(Math.min(maxLimit, Math.max(minLimit, initialLimit)), true, minLimit, maxLimit,
+                TimeUnit.MILLISECONDS.toNanos(latencyThreshold));
+    }
+
+    /**
+     * @return Whether the request was admitted (if so {@link #release} must be called when it finishes)
+     */
+    public boolean tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latency Time (in nanoseconds) the request took
+     */
+    public void release(long latency) {
+        int current = inFlight.getAndDecrement();
+        if (!adaptive) {
+            return;
+        }
+        long completion = completed.incrementAndGet();
+        if (latency > latencyThreshold) {
+            decrease(completion);
+            return;
+        }
+        while (true) {
+            long bits = limitBits.get();
+            double limit = Double.longBitsToDouble(bits);
+            double updated;
+            if (current * 2 >= limit) {
+                //--> Only grows while at least half of the limit is being used
+                updated = Math.min(maxLimit, limit + 1 / limit);
+            } else {
+                return;
+            }
+            if (updated == limit || limitBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Multiplicative decrease, unless the limit already decreased within the current round
+     */
+    private void decrease(long completion) {
+        long allowed = nextDecrease.get();
+        //--> Only the first slow request of the round decreases the limit
+        if (completion < allowed || !nextDecrease.compareAndSet(allowed, completion + getLimit())) {
+            return;
+        }
+        while (true) {
+            long bits = limitBits.get();
+            double updated = Math.max(minLimit, Double.longBitsToDouble(bits) * BACKOFF_RATIO);
+            if (limitBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Current limit
+     */
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    /**
+     * @return Number of requests admitted and not released yet
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+}
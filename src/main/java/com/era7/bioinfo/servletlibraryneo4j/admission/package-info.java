@@ -0,0 +1,4 @@
+/**
+ * Admission control: concurrency limits shedding the requests over them with a busy response
+ */
+package com.era7.bioinfo.servletlibraryneo4j.admission;
@@ -0,0 +1,104 @@
+package com.era7.bioinfo.servletlibraryneo4j.async;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executor running the logic of the servlets working in asynchronous mode.
+ * <br>It is either a bounded pool of platform threads with a bounded queue, or (when requested and
+ * the JVM provides them) an executor creating one virtual thread per task.
+ * <br>It is initialized and shut down by {@link com.era7.bioinfo.servletlibraryneo4j.listeners.ApplicationListener};
+ * when it was not initialized a default pool is created the first time it is used.
+ */
+public final class GraphWorkerPool {
+
+    /**
+     * Default number of worker threads
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    /**
+     * Default size of the queue of pending tasks
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static ExecutorService EXECUTOR = null;
+
+    private GraphWorkerPool() {
+    }
+
+    /**
+     * Initializes the shared executor
+     * @param threads Number of platform worker threads
+     * @param queueSize Maximum number of pending tasks
+     * @param virtualThreads Whether virtual threads should be used when the JVM supports them
+     */
+    public static synchronized void init(int threads, int queueSize, boolean virtualThreads) {
+        shutdown();
+        ExecutorService executor = null;
+        if (virtualThreads) {
+            executor = newVirtualThreadExecutor();
+        }
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        EXECUTOR = executor;
+    }
+
+    /**
+     * @return The shared executor (tasks exceeding its capacity are rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException})
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (EXECUTOR == null) {
+            init(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, false);
+        }
+        return EXECUTOR;
+    }
+
+    /**
+     * Stops accepting tasks and waits a little for the running ones
+     */
+    public static synchronized void shutdown() {
+        if (EXECUTOR != null) {
+            EXECUTOR.shutdown();
+            try {
+                EXECUTOR.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            EXECUTOR = null;
+        }
+    }
+
+    /**
+     * Looks up <code>Executors.newVirtualThreadPerTaskExecutor()</code> by reflection
+     * so that the library still runs on JVMs without virtual threads.
+     * @return The executor or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "graph-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
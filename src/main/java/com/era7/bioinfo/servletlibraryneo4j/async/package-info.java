@@ -0,0 +1,4 @@
+/**
+ * Worker pools used to run the servlet logic outside of the container threads
+ */
+package com.era7.bioinfo.servletlibraryneo4j.async;
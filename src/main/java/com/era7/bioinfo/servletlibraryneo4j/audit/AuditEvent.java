@@ -0,0 +1,108 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Operation of a servlet to be logged: the request, its response and the context in which it was processed.
+ * <br>The response has already been written to the client when the event is delivered, so neither the
+ * request nor the response must be modified by the sinks.
+ * <br>The request releases its manager once the response is written, so the event holds a lease of its own
+ * (see {@link Bio4jManagerRegistry#retainManager}) from its creation until it has been delivered or dropped.
+ */
+public final class AuditEvent {
+
+    private final AuditSink sink;
+    private final Request request;
+    private final Response response;
+    private final Bio4jManager manager;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final BasicSession session;
+    private final Throwable error;
+    private final long timestamp;
+    final long publishTime;
+
+    /**
+     * @param sink Sink the event must be delivered to
+     * @param request Request
+     * @param response Response of the request
+     * @param manager Manager used to process the request, still held by the request (null for login requests)
+     * @param session Session of the request (it may be null)
+     */
+    public AuditEvent(AuditSink sink, Request request, Response response, Bio4jManager manager,
+            BasicSession session) {
+        this(sink, request, response, manager, session, null);
+    }
+
+    /**
+     * @param sink Sink the event must be delivered to
+     * @param request Request
+     * @param response Error response of the request
+     * @param manager Manager used to process the request, still held by the request (null for login requests)
+     * @param session Session of the request (it may be null)
+     * @param error Exception thrown while processing the request
+     */
+    public AuditEvent(AuditSink sink, Request request, Response response, Bio4jManager manager,
+            BasicSession session, Throwable error) {
+        this.sink = sink;
+        this.request = request;
+        this.response = response;
+        //--> A manager being replaced (or not registered) is not handed to the sinks
+        this.manager = Bio4jManagerRegistry.retainManager(manager) ? manager : null;
+        this.session = session;
+        this.error = error;
+        this.timestamp = System.currentTimeMillis();
+        this.publishTime = System.nanoTime();
+    }
+
+    public AuditSink getSink() {
+        return sink;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * @return Manager used to process the request, valid until the sink returns (null for login requests
+     * and when the manager was being replaced)
+     */
+    public Bio4jManager getManager() {
+        return manager;
+    }
+
+    public BasicSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return Exception thrown while processing the request (null for operations that did not fail)
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return Time (in milliseconds) at which the operation finished
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Releases the lease of the manager once the event has been delivered or dropped
+     */
+    void release() {
+        if (manager != null && released.compareAndSet(false, true)) {
+            Bio4jManagerRegistry.releaseManager(manager);
+        }
+    }
+}
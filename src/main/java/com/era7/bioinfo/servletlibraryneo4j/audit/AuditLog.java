@@ -0,0 +1,386 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.LatencyHistogram;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.ServletMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Shared asynchronous log of the operations of the servlets.
+ * <br>Request threads publish {@link AuditEvent}s into a bounded lock-free ring buffer; a single daemon
+ * thread drains it in batches and hands each batch to the {@link AuditSink} of its events. What happens
+ * when the buffer is full is decided by its {@link OverflowPolicy}.
+ * <br>It is initialized and flushed on shutdown by {@link com.era7.bioinfo.servletlibraryneo4j.listeners.ApplicationListener};
+ * when it was not initialized a default log is created the first time it is used (but never once it has been
+ * shut down: events published then are delivered synchronously). It is exposed through JMX as
+ * <code>com.era7.bioinfo.servletlibraryneo4j:type=AuditLog</code>.
+ */
+public final class AuditLog implements AuditLogMBean {
+
+    /**
+     * Default capacity of the buffer
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+    /**
+     * Default maximum number of events delivered in one batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    /**
+     * Default sample rate of {@link OverflowPolicy#SAMPLE} (one of every 10 events is kept)
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+    /**
+     * Maximum time (in milliseconds) the log waits for its pending events when it is shut down
+     */
+    public static long SHUTDOWN_TIMEOUT = 10000;
+
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BLOCK_PARK = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final Object LOCK = new Object();
+    /**
+     * Read without locking by the request threads
+     */
+    private static volatile AuditLog INSTANCE = null;
+
+    private final AuditRingBuffer<AuditEvent> buffer;
+    private final OverflowPolicy policy;
+    private final int batchSize;
+    private final int sampleRate;
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private volatile boolean consumerWaiting = false;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    /**
+     * Position of the buffer up to which every event has been delivered
+     */
+    private volatile long deliveredPosition = 0;
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private ObjectName objectName = null;
+
+    private AuditLog(int capacity, OverflowPolicy policy, int batchSize, int sampleRate) {
+        this.buffer = new AuditRingBuffer<AuditEvent>(capacity);
+        this.policy = policy;
+        this.batchSize = Math.max(1, batchSize);
+        this.sampleRate = Math.max(1, sampleRate);
+        this.consumer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "audit-log");
+        this.consumer.setDaemon(true);
+    }
+
+    /**
+     * Initializes the shared audit log (the previous one is flushed and shut down)
+     * @param capacity Capacity of the buffer
+     * @param policy Overflow policy
+     * @param batchSize Maximum number of events delivered in one batch
+     * @param sampleRate One of every sampleRate events is kept when sampling (see {@link OverflowPolicy#SAMPLE})
+     */
+    public static void init(int capacity, OverflowPolicy policy, int batchSize, int sampleRate) {
+        synchronized (LOCK) {
+            //--> Request threads never wait for this lock once there is a log (see getInstance)
+            if (INSTANCE != null) {
+                INSTANCE.stop();
+            }
+            AuditLog created = new AuditLog(capacity, policy, batchSize, sampleRate);
+            created.consumer.start();
+            created.registerMBean();
+            INSTANCE = created;
+        }
+    }
+
+    /**
+     * @return The shared audit log (once it has been shut down, the stopped log delivering events synchronously)
+     */
+    public static AuditLog getInstance() {
+        AuditLog log = INSTANCE;
+        if (log == null) {
+            synchronized (LOCK) {
+                if (INSTANCE == null) {
+                    AuditLog created = new AuditLog(DEFAULT_CAPACITY, OverflowPolicy.BLOCK, DEFAULT_BATCH_SIZE,
+                            DEFAULT_SAMPLE_RATE);
+                    created.consumer.start();
+                    created.registerMBean();
+                    INSTANCE = created;
+                }
+                log = INSTANCE;
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @return The shared audit log or null if it has not been created
+     */
+    public static AuditLog getCurrentInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Delivers the pending events (waiting up to {@link #SHUTDOWN_TIMEOUT}) and stops the shared audit log.
+     * <br>The stopped log stays shared, so no consumer thread is started again after the shutdown.
+     */
+    public static void shutdown() {
+        AuditLog log = INSTANCE;
+        if (log != null) {
+            //--> Outside of the lock: request threads keep publishing (synchronously) while the consumer stops
+            log.stop();
+        }
+    }
+
+    /**
+     * Publishes an event. Depending on the overflow policy the calling thread may wait for room in the buffer.
+     * <br>Events published once the log has been stopped are delivered synchronously.
+     * @param event Event
+     */
+    public void publish(AuditEvent event) {
+        publish(event, policy);
+    }
+
+    /**
+     * Publishes an event with an overflow policy other than the one of the log
+     * (error events are published with {@link OverflowPolicy#DROP} so that error storms never block requests)
+     * @param event Event
+     * @param policy Overflow policy
+     */
+    public void publish(AuditEvent event, OverflowPolicy policy) {
+        published.incrementAndGet();
+
+        if (policy == OverflowPolicy.SAMPLE && buffer.size() >= buffer.capacity() / 2
+                && sampleCounter.incrementAndGet() % sampleRate != 0) {
+            dropped.incrementAndGet();
+            event.release();
+            return;
+        }
+
+        while (!buffer.offer(event)) {
+            if (!running) {
+                deliverNow(event);
+                return;
+            }
+            if (policy != OverflowPolicy.BLOCK) {
+                dropped.incrementAndGet();
+                event.release();
+                return;
+            }
+            blocked.incrementAndGet();
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(BLOCK_PARK);
+        }
+
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+        if (!running && consumer.getState() == Thread.State.TERMINATED) {
+            //--> Published while the log was being stopped, the consumer may be gone
+            synchronized (this) {
+                List<AuditEvent> events = new ArrayList<AuditEvent>();
+                buffer.drainTo(events, Integer.MAX_VALUE);
+                deliver(events);
+            }
+        }
+    }
+
+    /**
+     * Waits until every event published before this call has been delivered
+     * @param timeout Maximum time to wait (milliseconds)
+     * @return Whether the events were delivered in time
+     */
+    public boolean flush(long timeout) {
+        long target = buffer.getTail();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (deliveredPosition < target) {
+            if (!consumer.isAlive() || System.nanoTime() - deadline > 0) {
+                return deliveredPosition >= target;
+            }
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(BLOCK_PARK * 10);
+        }
+        return true;
+    }
+
+    private void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumer.getState() == Thread.State.TERMINATED) {
+            //--> Events published while the consumer was finishing
+            synchronized (this) {
+                List<AuditEvent> events = new ArrayList<AuditEvent>();
+                buffer.drainTo(events, Integer.MAX_VALUE);
+                deliver(events);
+            }
+        }
+        unregisterMBean();
+    }
+
+    private void consume() {
+        List<AuditEvent> events = new ArrayList<AuditEvent>(batchSize);
+        while (true) {
+            if (buffer.drainTo(events, batchSize) == 0) {
+                if (!running) {
+                    break;
+                }
+                consumerWaiting = true;
+                if (buffer.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK);
+                }
+                consumerWaiting = false;
+                continue;
+            }
+            deliver(events);
+            events.clear();
+            deliveredPosition = buffer.getHead();
+        }
+        deliveredPosition = buffer.getHead();
+    }
+
+    /**
+     * Hands the events to their sinks, consecutive events of the same sink in one batch
+     */
+    private void deliver(List<AuditEvent> events) {
+        long now = System.nanoTime();
+        int start = 0;
+        for (int i = 1; i <= events.size(); i++) {
+            if (i == events.size() || events.get(i).getSink() != events.get(start).getSink()) {
+                List<AuditEvent> batch = events.subList(start, i);
+                try {
+                    batch.get(0).getSink().write(batch);
+                    delivered.addAndGet(batch.size());
+                } catch (Throwable e) {
+                    ErrorReporter.getInstance().report(e);
+                    failed.addAndGet(batch.size());
+                }
+                start = i;
+            }
+        }
+        for (AuditEvent event : events) {
+            lag.record(now - event.publishTime);
+            event.release();
+        }
+    }
+
+    private void deliverNow(AuditEvent event) {
+        List<AuditEvent> events = new ArrayList<AuditEvent>(1);
+        events.add(event);
+        deliver(events);
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return policy.name();
+    }
+
+    @Override
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public int getPendingEvents() {
+        return buffer.size();
+    }
+
+    @Override
+    public long getPublishedEvents() {
+        return published.get();
+    }
+
+    @Override
+    public long getDeliveredEvents() {
+        return delivered.get();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    @Override
+    public long getFailedEvents() {
+        return failed.get();
+    }
+
+    @Override
+    public long getBlockedPublications() {
+        return blocked.get();
+    }
+
+    @Override
+    public double getLagPercentile(double percentile) {
+        return lag.getPercentile(percentile) / 1000000.0;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder builder = new StringBuilder();
+        appendReport(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Appends one line with the counters and lag (milliseconds) of the audit log
+     * @param builder Builder where the report is appended
+     */
+    public void appendReport(StringBuilder builder) {
+        builder.append("audit_log policy=").append(policy)
+                .append(" capacity=").append(getCapacity())
+                .append(" pending=").append(getPendingEvents())
+                .append(" published=").append(getPublishedEvents())
+                .append(" delivered=").append(getDeliveredEvents())
+                .append(" dropped=").append(getDroppedEvents())
+                .append(" failed=").append(getFailedEvents())
+                .append(" blocked=").append(getBlockedPublications())
+                .append(" lag_p50_ms=").append(lag.getPercentile(50) / 1000000)
+                .append(" lag_p99_ms=").append(lag.getPercentile(99) / 1000000)
+                .append(" lag_max_ms=").append(lag.getMax() / 1000000).append('\n');
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(ServletMetrics.JMX_DOMAIN + ":type=AuditLog");
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            //--> The audit log keeps working without JMX
+            objectName = null;
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                //--> Already unregistered
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+/**
+ * JMX interface of {@link AuditLog}
+ */
+public interface AuditLogMBean {
+
+    /**
+     * @return Overflow policy (see {@link OverflowPolicy})
+     */
+    public String getOverflowPolicy();
+
+    /**
+     * @return Capacity of the buffer
+     */
+    public int getCapacity();
+
+    /**
+     * @return Number of events waiting in the buffer
+     */
+    public int getPendingEvents();
+
+    /**
+     * @return Number of events published
+     */
+    public long getPublishedEvents();
+
+    /**
+     * @return Number of events delivered to their sinks
+     */
+    public long getDeliveredEvents();
+
+    /**
+     * @return Number of events dropped because the buffer was full (or discarded by sampling)
+     */
+    public long getDroppedEvents();
+
+    /**
+     * @return Number of events whose sink failed
+     */
+    public long getFailedEvents();
+
+    /**
+     * @return Number of times a request thread had to wait for room in the buffer
+     */
+    public long getBlockedPublications();
+
+    /**
+     * @param percentile Percentile (0-100)
+     * @return Time (milliseconds) between the publication of the events and their delivery
+     */
+    public double getLagPercentile(double percentile);
+
+    /**
+     * @return Text report with the counters and lag of the audit log
+     */
+    public String getReport();
+}
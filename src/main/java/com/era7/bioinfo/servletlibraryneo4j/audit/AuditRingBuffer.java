@@ -0,0 +1,109 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer with many producers and a single consumer.
+ * <br>Each slot has a sequence number telling whether it is free for the producer claiming that
+ * position or holds an element for the consumer, so producers only compete on one CAS.
+ */
+final class AuditRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity Capacity (rounded up to a power of two)
+     */
+    AuditRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return False when the buffer is full
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    //--> Publishes the element to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to max elements to the list provided (only called by the consumer)
+     * @return Number of elements moved
+     */
+    int drainTo(List<E> list, int max) {
+        long position = head.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            list.add(elements.get(index));
+            elements.set(index, null);
+            //--> Frees the slot for the producers of the next lap
+            sequences.set(index, position + mask + 1);
+            position++;
+            count++;
+        }
+        if (count > 0) {
+            head.lazySet(position);
+        }
+        return count;
+    }
+
+    /**
+     * @return Position of the next element to be published
+     */
+    long getTail() {
+        return tail.get();
+    }
+
+    /**
+     * @return Position of the next element to be consumed
+     */
+    long getHead() {
+        return head.get();
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
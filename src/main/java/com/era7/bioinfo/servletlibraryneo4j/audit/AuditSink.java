@@ -0,0 +1,17 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+import java.util.List;
+
+/**
+ * Destination of the events delivered by {@link AuditLog}
+ */
+public interface AuditSink {
+
+    /**
+     * Writes a batch of events. It is called from the consumer thread of the audit log, one batch at a time.
+     * <br>The managers of the events (see {@link AuditEvent#getManager()}) are released when it returns.
+     * @param events Events in the order they were published
+     * @throws Exception When the events could not be written (they are counted as failed)
+     */
+    public void write(List<AuditEvent> events) throws Exception;
+}
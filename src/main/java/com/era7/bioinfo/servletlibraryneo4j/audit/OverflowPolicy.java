@@ -0,0 +1,21 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+/**
+ * What {@link AuditLog} does with the events published while its buffer is full
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The request thread waits until there is room in the buffer (no event is lost)
+     */
+    BLOCK,
+    /**
+     * The event is dropped (and counted)
+     */
+    DROP,
+    /**
+     * Once the buffer is half full only one of every <i>sample rate</i> events is kept,
+     * the event is dropped when the buffer is full
+     */
+    SAMPLE
+}
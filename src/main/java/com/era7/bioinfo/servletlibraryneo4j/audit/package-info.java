@@ -0,0 +1,4 @@
+/**
+ * Asynchronous logging of the operations of the servlets, off the request threads
+ */
+package com.era7.bioinfo.servletlibraryneo4j.audit;
@@ -0,0 +1,108 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the data of each neo4j database, used to answer conditional requests (ETags).
+ * <br>The version is increased after every request of a mutating method and by admin
+ * operations reloading the data (see {@link #reload()}). It includes the start time of the application,
+ * so versions from a previous run never match.
+ */
+public final class GraphVersion {
+
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    private static final ConcurrentHashMap<String, AtomicLong> VERSIONS = new ConcurrentHashMap<String, AtomicLong>();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private GraphVersion() {
+    }
+
+    /**
+     * @param folder Database folder
+     * @return Current version of the database provided
+     */
+    public static String get(String folder) {
+        return EPOCH + "." + getCounter(folder).get();
+    }
+
+    /**
+     * Increases the version of the database provided (its data has been modified)
+     * @param folder Database folder
+     */
+    public static void increment(String folder) {
+        getCounter(folder).incrementAndGet();
+    }
+
+    /**
+     * Increases the version of every database and invalidates every response cache.
+     * It should be called by the admin operations reloading (importing) data.
+     */
+    public static void reload() {
+        for (AtomicLong counter : VERSIONS.values()) {
+            counter.incrementAndGet();
+        }
+        ResponseCache.invalidateAllCaches();
+    }
+
+    /**
+     * @param version Database version
+     * @param requestKey Request key (see {@link RequestKey})
+     * @return The (quoted) entity tag of the response of the request provided at the version provided
+     */
+    public static String buildETag(String version, String requestKey) {
+        StringBuilder builder = new StringBuilder(version.length() + 36);
+        builder.append('"').append(version).append('-');
+        byte[] digest = digest(requestKey);
+        for (int i = 0; i < 12; i++) {
+            builder.append(HEX[(digest[i] >> 4) & 0xf]).append(HEX[digest[i] & 0xf]);
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * @param ifNoneMatch Value of the <code>If-None-Match</code> header (may be null)
+     * @param etag Entity tag of the current response
+     * @return Whether the header matches the entity tag provided
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static AtomicLong getCounter(String folder) {
+        AtomicLong counter = VERSIONS.get(folder);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = VERSIONS.putIfAbsent(folder, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static byte[] digest(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import com.era7.lib.communication.xml.Request;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.jdom.Attribute;
+import org.jdom.Element;
+
+/**
+ * Builds normalized keys identifying requests by their method and parameters.
+ * <br>Attributes are sorted and text is trimmed so that requests differing only in formatting
+ * share the same key; the id and session id of the request are not part of the key.
+ */
+public final class RequestKey {
+
+    private static final Comparator<Attribute> ATTRIBUTE_COMPARATOR = new Comparator<Attribute>() {
+
+        @Override
+        public int compare(Attribute a1, Attribute a2) {
+            return a1.getQualifiedName().compareTo(a2.getQualifiedName());
+        }
+    };
+
+    private RequestKey() {
+    }
+
+    /**
+     * @param request Request
+     * @param scope Additional scope of the key (for example the permission profile), may be null
+     * @return The normalized key of the request
+     */
+    public static String build(Request request, String scope) {
+        StringBuilder builder = new StringBuilder(128);
+        builder.append(request.getMethod()).append('|');
+        if (scope != null) {
+            builder.append(scope);
+        }
+        builder.append('|');
+        Element parameters = request.getParameters();
+        if (parameters != null) {
+            appendElement(builder, parameters);
+        }
+        return builder.toString();
+    }
+
+    private static void appendElement(StringBuilder builder, Element element) {
+        builder.append('<').append(element.getQualifiedName());
+        List<?> attributes = element.getAttributes();
+        if (!attributes.isEmpty()) {
+            List<Attribute> sorted = new ArrayList<Attribute>(attributes.size());
+            for (Object attribute : attributes) {
+                sorted.add((Attribute) attribute);
+            }
+            Collections.sort(sorted, ATTRIBUTE_COMPARATOR);
+            for (Attribute attribute : sorted) {
+                builder.append(' ').append(attribute.getQualifiedName()).append("=\"");
+                escape(builder, attribute.getValue());
+                builder.append('"');
+            }
+        }
+        builder.append('>');
+        escape(builder, element.getTextTrim());
+        for (Object child : element.getChildren()) {
+            appendElement(builder, (Element) child);
+        }
+        builder.append("</").append(element.getQualifiedName()).append('>');
+    }
+
+    private static void escape(StringBuilder builder, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '<' || c == '>' || c == '"' || c == '|' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import com.era7.lib.communication.xml.Response;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jdom.Element;
+
+/**
+ * Size and TTL bounded (LRU) cache of the responses of read-only request methods.
+ * <br>Responses are stored as detached copies of their root element and a fresh copy is returned on
+ * every hit, so cached responses can be completed (id, method...) and written concurrently.
+ * <br>Every response is stored with the graph version it was computed at (see {@link GraphVersion}) and it
+ * is only returned while that version is current, so a write to the database invalidates the cached responses
+ * of every servlet using it.
+ * <br>Every cache is registered under its name so that write servlets or admin operations can
+ * invalidate it (see {@link #invalidateAllCaches()}).
+ */
+public class ResponseCache {
+
+    private static final ConcurrentHashMap<String, ResponseCache> CACHES = new ConcurrentHashMap<String, ResponseCache>();
+
+    private final String name;
+    private final int maxSize;
+    private final long ttl;
+    private final LinkedHashMap<String, CachedResponse> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param name Name of the cache (normally the servlet name)
+     * @param maxSize Maximum number of responses stored
+     * @param ttl Time (in milliseconds) a response is valid
+     */
+    public ResponseCache(String name, int maxSize, long ttl) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                boolean evict = size() > ResponseCache.this.maxSize;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+        CACHES.put(name, this);
+    }
+
+    /**
+     * @param name Name of the cache
+     * @return The cache registered under the name provided or null
+     */
+    public static ResponseCache getCache(String name) {
+        return CACHES.get(name);
+    }
+
+    /**
+     * @return Every registered cache
+     */
+    public static Iterable<ResponseCache> getCaches() {
+        return CACHES.values();
+    }
+
+    /**
+     * Invalidates every registered cache
+     */
+    public static void invalidateAllCaches() {
+        for (ResponseCache cache : CACHES.values()) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @param key Request key (see {@link RequestKey})
+     * @param version Current graph version (see {@link GraphVersion#get(String)})
+     * @return A copy of the cached response or null if it is not cached, has expired or was computed at
+     * another graph version
+     */
+    public Response get(String key, String version) {
+        CachedResponse cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+            if (cached != null && (cached.expiration < System.currentTimeMillis() || !cached.version.equals(version))) {
+                entries.remove(key);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new Response((Element) cached.root.clone());
+    }
+
+    /**
+     * Stores a copy of the response provided
+     * @param key Request key (see {@link RequestKey})
+     * @param response Response
+     * @param version Graph version read before the response was computed (so that a write happening
+     * meanwhile invalidates it)
+     */
+    public void put(String key, Response response, String version) {
+        CachedResponse cached = new CachedResponse((Element) response.getRoot().clone(),
+                System.currentTimeMillis() + ttl, version);
+        synchronized (entries) {
+            entries.put(key, cached);
+        }
+    }
+
+    /**
+     * Removes every cached response
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Removes the cached responses of the request method provided
+     * @param method Request method
+     */
+    public void invalidateMethod(String method) {
+        String prefix = method + "|";
+        synchronized (entries) {
+            for (Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext();) {
+                if (iterator.next().startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters the cache (it is emptied as well)
+     */
+    public void close() {
+        CACHES.remove(name, this);
+        invalidateAll();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static final class CachedResponse {
+
+        final Element root;
+        final long expiration;
+        final String version;
+
+        CachedResponse(Element root, long expiration, String version) {
+            this.root = root;
+            this.expiration = expiration;
+            this.version = version;
+        }
+    }
+}
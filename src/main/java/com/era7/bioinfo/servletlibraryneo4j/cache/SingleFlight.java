@@ -0,0 +1,166 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.lib.communication.xml.Response;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jdom.Element;
+
+/**
+ * Deduplicates identical concurrent requests: while the response of a request key is being computed,
+ * the requests arriving with the same key wait for that computation and get a copy of its response
+ * instead of running the servlet logic again.
+ * <br>If the computation fails, every waiting request fails with the same exception. Binary responses
+ * cannot be shared, so the waiting requests compute their own in that case.
+ * <br>Waiting requests never outlive their own deadline (see {@link CancellationToken}).
+ * <br>Every instance is registered under its name (see {@link #getSingleFlight(String)}).
+ */
+public class SingleFlight {
+
+    private static final ConcurrentHashMap<String, SingleFlight> INSTANCES = new ConcurrentHashMap<String, SingleFlight>();
+
+    private final String name;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Computation of a response
+     */
+    public interface Computation {
+
+        public Response run() throws Throwable;
+    }
+
+    /**
+     * @param name Name of the instance (normally the servlet name)
+     */
+    public SingleFlight(String name) {
+        this.name = name;
+        INSTANCES.put(name, this);
+    }
+
+    /**
+     * @param name Name of the instance
+     * @return The instance registered under the name provided or null
+     */
+    public static SingleFlight getSingleFlight(String name) {
+        return INSTANCES.get(name);
+    }
+
+    /**
+     * Gets the response of the key provided, running the computation unless an identical one is in flight
+     * @param key Request key (see {@link RequestKey})
+     * @param computation Computation of the response
+     * @return The response (a copy when it was computed for another request)
+     */
+    public Response execute(String key, Computation computation) throws Throwable {
+        return execute(key, null, computation);
+    }
+
+    /**
+     * Gets the response of the key provided, running the computation unless an identical one is in flight
+     * @param key Request key (see {@link RequestKey})
+     * @param token Cancellation token of the request (null if it has none): the wait for an identical
+     * computation stops with a {@link com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException}
+     * once the request is cancelled
+     * @param computation Computation of the response
+     * @return The response (a copy when it was computed for another request)
+     */
+    public Response execute(String key, CancellationToken token, Computation computation) throws Throwable {
+
+        Flight flight = new Flight();
+        Flight current = flights.putIfAbsent(key, flight);
+
+        if (current != null) {
+            Element root = current.await(token);
+            if (root == null) {
+                executed.incrementAndGet();
+                return computation.run();
+            }
+            coalesced.incrementAndGet();
+            return new Response((Element) root.clone());
+        }
+
+        executed.incrementAndGet();
+        try {
+            Response response = computation.run();
+            //--> The response returned is completed afterwards, the waiting requests get their own copies
+            flight.complete(response.isBinary() ? null : (Element) response.getRoot().clone(), null);
+            return response;
+        } catch (Throwable e) {
+            flight.complete(null, e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Unregisters the instance
+     */
+    public void close() {
+        INSTANCES.remove(name, this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Number of computations run
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * @return Number of requests answered with the response of another request
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return Fraction of the requests answered with the response of another request
+     */
+    public double getCoalescingRatio() {
+        long shared = coalesced.get();
+        long total = shared + executed.get();
+        return total == 0 ? 0 : (double) shared / total;
+    }
+
+    private static final class Flight {
+
+        /**
+         * Maximum time (in milliseconds) between two checks of the cancellation token of a waiting request
+         */
+        private static final long CHECK_INTERVAL = 1000;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Element root;
+        private Throwable error;
+
+        void complete(Element root, Throwable error) {
+            this.root = root;
+            this.error = error;
+            done.countDown();
+        }
+
+        Element await(CancellationToken token) throws Throwable {
+            if (token == null) {
+                done.await();
+            } else {
+                while (!done.await(Math.min(token.getRemainingMillis(), CHECK_INTERVAL), TimeUnit.MILLISECONDS)) {
+                    token.check();
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return root;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Caches placed in front of the servlet logic for read-only request methods
+ */
+package com.era7.bioinfo.servletlibraryneo4j.cache;
@@ -0,0 +1,127 @@
+package com.era7.bioinfo.servletlibraryneo4j.deadline;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.ServletRequest;
+
+/**
+ * Cancellation token of one request. It travels with the request as an attribute
+ * (see {@link #get(ServletRequest)}) so that the servlet logic can poll it while traversing the graph:
+ * {@link #isCancelled()} and {@link #check()} only read a volatile field and the clock.
+ * <br>The token is cancelled when its deadline passes or when the framework detects the client is gone.
+ * It also decides which single response is written for the request (see {@link #claimResponse()}).
+ */
+public final class CancellationToken {
+
+    /**
+     * Attribute of the servlet request holding its token
+     */
+    public static final String REQUEST_ATTRIBUTE = CancellationToken.class.getName();
+
+    /**
+     * Reason of a cancellation
+     */
+    public enum Reason {
+
+        DEADLINE, DISCONNECTED
+    }
+
+    private final long deadline;
+    private final boolean hasDeadline;
+    private volatile Reason reason = null;
+    private final AtomicBoolean responseClaimed = new AtomicBoolean();
+    private final AtomicBoolean cancellationReported = new AtomicBoolean();
+
+    /**
+     * @param timeout Time (in milliseconds) the request may run, 0 or negative for no deadline
+     */
+    public CancellationToken(long timeout) {
+        this.hasDeadline = timeout > 0;
+        this.deadline = hasDeadline ? System.nanoTime() + timeout * 1000000L : 0;
+    }
+
+    /**
+     * @param request Servlet request
+     * @return The token of the request or null if it has none
+     */
+    public static CancellationToken get(ServletRequest request) {
+        return request == null ? null : (CancellationToken) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Throws a {@link RequestCancelledException} if the token of the request provided has been cancelled
+     * @param request Servlet request
+     */
+    public static void check(ServletRequest request) {
+        CancellationToken token = get(request);
+        if (token != null) {
+            token.check();
+        }
+    }
+
+    /**
+     * @return Whether the request has been cancelled (or its deadline has passed)
+     */
+    public boolean isCancelled() {
+        if (reason != null) {
+            return true;
+        }
+        if (hasDeadline && System.nanoTime() - deadline >= 0) {
+            cancel(Reason.DEADLINE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Throws a {@link RequestCancelledException} if the request has been cancelled
+     */
+    public void check() {
+        if (isCancelled()) {
+            throw new RequestCancelledException(reason);
+        }
+    }
+
+    /**
+     * Cancels the request (only the first reason is kept)
+     * @param reason Reason of the cancellation
+     */
+    public synchronized void cancel(Reason reason) {
+        if (this.reason == null) {
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * @return Reason of the cancellation or null if the request has not been cancelled
+     */
+    public Reason getReason() {
+        isCancelled();
+        return reason;
+    }
+
+    /**
+     * @return Time (in milliseconds) left until the deadline, Long.MAX_VALUE when there is no deadline
+     */
+    public long getRemainingMillis() {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadline - System.nanoTime()) / 1000000L);
+    }
+
+    /**
+     * Claims the right to write the response of the request: only the first call returns true, so
+     * the servlet logic and the timeout handling never both write a response.
+     * @return Whether the caller must write the response
+     */
+    public boolean claimResponse() {
+        return responseClaimed.compareAndSet(false, true);
+    }
+
+    /**
+     * @return Whether the caller is the first one reporting (counting) the cancellation of the request
+     */
+    public boolean reportCancellation() {
+        return cancellationReported.compareAndSet(false, true);
+    }
+}
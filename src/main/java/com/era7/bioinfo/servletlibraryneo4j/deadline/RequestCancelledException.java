@@ -0,0 +1,21 @@
+package com.era7.bioinfo.servletlibraryneo4j.deadline;
+
+/**
+ * Thrown by {@link CancellationToken#check()} when the request has been cancelled, so that the
+ * servlet logic (and the graph transaction it runs in) stops as soon as possible.
+ */
+public class RequestCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CancellationToken.Reason reason;
+
+    public RequestCancelledException(CancellationToken.Reason reason) {
+        super(reason == CancellationToken.Reason.DEADLINE ? "Request timed out" : "Client disconnected");
+        this.reason = reason;
+    }
+
+    public CancellationToken.Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Request deadlines and cooperative cancellation of the servlet logic
+ */
+package com.era7.bioinfo.servletlibraryneo4j.deadline;
@@ -0,0 +1,334 @@
+package com.era7.bioinfo.servletlibraryneo4j.errors;
+
+import com.era7.bioinfo.servletlibraryneo4j.metrics.ServletMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Reports the exceptions thrown while processing requests (and by the background tasks of the library)
+ * without flooding the log during an incident.
+ * <br>Exceptions are deduplicated by signature (see {@link ErrorSignature}) and counted. Stack traces are
+ * printed for the first occurrence of each signature and then sampled: at most one per signature every
+ * stack trace interval and never more than a maximum per second overall (see {@link #configure}). Every
+ * printed stack trace tells how many occurrences were suppressed since the previous one.
+ * <br>Stack traces are printed by a background thread, so reporting never waits for the log; when too
+ * many are waiting to be printed the new ones are suppressed.
+ * <br>The shared instance is exposed through JMX as <code>com.era7.bioinfo.servletlibraryneo4j:type=ErrorReporter</code>.
+ */
+public final class ErrorReporter implements ErrorReporterMBean {
+
+    /**
+     * Default minimum time (in milliseconds) between two stack traces of the same signature
+     */
+    public static final long DEFAULT_STACK_TRACE_INTERVAL = 60000;
+    /**
+     * Default maximum number of stack traces printed per second
+     */
+    public static final int DEFAULT_MAX_STACK_TRACES_PER_SECOND = 10;
+    /**
+     * Default maximum number of different signatures counted (the rest are counted together)
+     */
+    public static final int DEFAULT_MAX_SIGNATURES = 1000;
+    /**
+     * Number of stack frames kept with the signatures
+     */
+    private static final int TOP_FRAMES = 3;
+    /**
+     * Maximum number of stack traces waiting to be printed
+     */
+    private static final int PRINT_QUEUE_SIZE = 100;
+
+    private static final ErrorReporter INSTANCE = new ErrorReporter();
+    private static final String OTHER_SIGNATURE = "other";
+
+    private final ConcurrentHashMap<String, ErrorSignature> signatures = new ConcurrentHashMap<String, ErrorSignature>();
+    private final AtomicLong reported = new AtomicLong();
+    private final AtomicLong printed = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private volatile long stackTraceInterval = DEFAULT_STACK_TRACE_INTERVAL;
+    private volatile int maxStackTracesPerSecond = DEFAULT_MAX_STACK_TRACES_PER_SECOND;
+    private volatile int maxSignatures = DEFAULT_MAX_SIGNATURES;
+    private long windowStart = 0;
+    private int windowPrinted = 0;
+    private ThreadPoolExecutor printer = null;
+    private boolean stopped = false;
+
+    private ErrorReporter() {
+        registerMBean();
+    }
+
+    /**
+     * @return The shared reporter
+     */
+    public static ErrorReporter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Configures the limits of the reporter (see {@link com.era7.bioinfo.servletlibraryneo4j.listeners.ApplicationListener})
+     * @param stackTraceInterval Minimum time (in milliseconds) between two stack traces of the same signature
+     * @param maxStackTracesPerSecond Maximum number of stack traces printed per second
+     * @param maxSignatures Maximum number of different signatures counted
+     */
+    public void configure(long stackTraceInterval, int maxStackTracesPerSecond, int maxSignatures) {
+        this.stackTraceInterval = stackTraceInterval;
+        this.maxStackTracesPerSecond = maxStackTracesPerSecond;
+        this.maxSignatures = maxSignatures;
+    }
+
+    /**
+     * Stops the thread printing the stack traces (the ones waiting are printed first).
+     * Stack traces sampled afterwards are printed by the reporting thread.
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if (printer != null) {
+            printer.shutdown();
+            printer = null;
+        }
+    }
+
+    /**
+     * Counts the exception provided and prints its stack trace unless the rate limits suppress it
+     * @param e Exception
+     * @return The signature of the exception
+     */
+    public ErrorSignature report(Throwable e) {
+        reported.incrementAndGet();
+        long now = System.currentTimeMillis();
+
+        ErrorSignature signature = getSignature(e);
+        signature.occurred(e, now);
+
+        long last = signature.lastPrinted.get();
+        if (now - last >= stackTraceInterval && signature.lastPrinted.compareAndSet(last, now)) {
+            if (acquirePrint(now) && schedulePrint(signature, e)) {
+                return signature;
+            }
+            //--> Globally rate limited, the signature may print again as soon as there is room
+            signature.lastPrinted.compareAndSet(now, last);
+        }
+        signature.suppressed();
+        suppressed.incrementAndGet();
+        return signature;
+    }
+
+    private ErrorSignature getSignature(Throwable e) {
+        String key = buildSignature(e);
+        ErrorSignature signature = signatures.get(key);
+        if (signature == null) {
+            if (signatures.size() >= maxSignatures) {
+                key = OTHER_SIGNATURE;
+                signature = signatures.get(key);
+                if (signature != null) {
+                    return signature;
+                }
+            }
+            ErrorSignature created = new ErrorSignature(Integer.toHexString(key.hashCode()), key);
+            signature = signatures.putIfAbsent(key, created);
+            if (signature == null) {
+                signature = created;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * @return The signature of the exception: its class and the class of its root cause
+     * (the stack trace is not read, it is only needed when it is printed)
+     */
+    static String buildSignature(Throwable e) {
+        Throwable root = e;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        if (root == e) {
+            return e.getClass().getName();
+        }
+        return e.getClass().getName() + " <- " + root.getClass().getName();
+    }
+
+    /**
+     * Global rate limit of the printed stack traces
+     */
+    private synchronized boolean acquirePrint(long now) {
+        if (now - windowStart >= 1000) {
+            windowStart = now;
+            windowPrinted = 0;
+        }
+        if (windowPrinted >= maxStackTracesPerSecond) {
+            return false;
+        }
+        windowPrinted++;
+        return true;
+    }
+
+    /**
+     * @return Whether the stack trace will be printed (false when too many are waiting)
+     */
+    private boolean schedulePrint(final ErrorSignature signature, final Throwable e) {
+        ThreadPoolExecutor executor = getPrinter();
+        if (executor == null) {
+            printed.incrementAndGet();
+            print(signature, e);
+            return true;
+        }
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    print(signature, e);
+                }
+            });
+            printed.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The executor printing the stack traces (null once the reporter has been shut down)
+     */
+    private synchronized ThreadPoolExecutor getPrinter() {
+        if (printer == null && !stopped) {
+            printer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(PRINT_QUEUE_SIZE), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "error-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return printer;
+    }
+
+    private void print(ErrorSignature signature, Throwable e) {
+        long suppressedOccurrences = signature.printed();
+
+        StackTraceElement[] frames = e.getStackTrace();
+        StringBuilder topFrames = new StringBuilder(128);
+        for (int i = 0; i < frames.length && i < TOP_FRAMES; i++) {
+            if (i > 0) {
+                topFrames.append(" @ ");
+            }
+            topFrames.append(frames[i].getClassName()).append('.').append(frames[i].getMethodName())
+                    .append(':').append(frames[i].getLineNumber());
+        }
+        signature.setTopFrames(topFrames.toString());
+
+        StringBuilder header = new StringBuilder(128);
+        header.append("Error ").append(signature.getId()).append(" (occurrences=").append(signature.getCount());
+        if (suppressedOccurrences > 0) {
+            header.append(", suppressed since the previous report=").append(suppressedOccurrences);
+        }
+        header.append(')');
+        synchronized (System.err) {
+            System.err.println(header.toString());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return Every signature seen, the most frequent first
+     */
+    public List<ErrorSignature> getSignatures() {
+        List<ErrorSignature> sorted = new ArrayList<ErrorSignature>(signatures.values());
+        Collections.sort(sorted, new Comparator<ErrorSignature>() {
+
+            @Override
+            public int compare(ErrorSignature s1, ErrorSignature s2) {
+                long c1 = s1.getCount();
+                long c2 = s2.getCount();
+                return c1 > c2 ? -1 : (c1 == c2 ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    @Override
+    public long getReportedErrors() {
+        return reported.get();
+    }
+
+    @Override
+    public long getPrintedStackTraces() {
+        return printed.get();
+    }
+
+    @Override
+    public long getSuppressedStackTraces() {
+        return suppressed.get();
+    }
+
+    @Override
+    public int getSignatureCount() {
+        return signatures.size();
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder builder = new StringBuilder();
+        appendReport(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Appends one line with the counters of the reporter plus one line per signature
+     * @param builder Builder where the report is appended
+     */
+    public void appendReport(StringBuilder builder) {
+        builder.append("errors reported=").append(getReportedErrors())
+                .append(" printed=").append(getPrintedStackTraces())
+                .append(" suppressed=").append(getSuppressedStackTraces())
+                .append(" signatures=").append(getSignatureCount()).append('\n');
+        for (ErrorSignature signature : getSignatures()) {
+            builder.append("errors ").append(signature.getId())
+                    .append(" count=").append(signature.getCount())
+                    .append(" printed=").append(signature.getPrintedStackTraces())
+                    .append(" last_seen=").append(signature.getLastSeen())
+                    .append(" signature=").append(signature.getSignature());
+            if (signature.getTopFrames() != null) {
+                builder.append(" at=").append(signature.getTopFrames());
+            }
+            builder.append('\n');
+        }
+    }
+
+    @Override
+    public void reset() {
+        signatures.clear();
+        reported.set(0);
+        printed.set(0);
+        suppressed.set(0);
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(ServletMetrics.JMX_DOMAIN + ":type=ErrorReporter");
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            //--> The reporter keeps working without JMX
+        }
+    }
+}
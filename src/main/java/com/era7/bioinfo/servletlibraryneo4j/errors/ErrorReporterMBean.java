@@ -0,0 +1,37 @@
+package com.era7.bioinfo.servletlibraryneo4j.errors;
+
+/**
+ * JMX interface of {@link ErrorReporter}
+ */
+public interface ErrorReporterMBean {
+
+    /**
+     * @return Number of exceptions reported
+     */
+    public long getReportedErrors();
+
+    /**
+     * @return Number of stack traces printed
+     */
+    public long getPrintedStackTraces();
+
+    /**
+     * @return Number of stack traces not printed because of the rate limits
+     */
+    public long getSuppressedStackTraces();
+
+    /**
+     * @return Number of different signatures seen
+     */
+    public int getSignatureCount();
+
+    /**
+     * @return Text report with the counters of every signature
+     */
+    public String getReport();
+
+    /**
+     * Removes every signature and counter
+     */
+    public void reset();
+}
@@ -0,0 +1,95 @@
+package com.era7.bioinfo.servletlibraryneo4j.errors;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the exceptions sharing one signature: the class of the exception and the class of its root cause
+ * (messages are not part of it, they often contain ids). The stack frames are only read when a stack trace is
+ * printed; the top frames of the last printed one are kept with the signature.
+ */
+public final class ErrorSignature {
+
+    private final String id;
+    private final String signature;
+    private final long firstSeen;
+    private volatile long lastSeen;
+    private volatile String lastMessage;
+    private volatile String topFrames = null;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong printed = new AtomicLong();
+    private final AtomicLong suppressedSincePrinted = new AtomicLong();
+    /**
+     * Time (in milliseconds) at which the last stack trace of this signature was printed
+     */
+    final AtomicLong lastPrinted = new AtomicLong(Long.MIN_VALUE / 2);
+
+    ErrorSignature(String id, String signature) {
+        this.id = id;
+        this.signature = signature;
+        this.firstSeen = System.currentTimeMillis();
+    }
+
+    void occurred(Throwable e, long now) {
+        count.incrementAndGet();
+        lastSeen = now;
+        lastMessage = e.getMessage();
+    }
+
+    void suppressed() {
+        suppressedSincePrinted.incrementAndGet();
+    }
+
+    /**
+     * @return Number of occurrences suppressed since the previous printed stack trace (the counter is reset)
+     */
+    long printed() {
+        printed.incrementAndGet();
+        return suppressedSincePrinted.getAndSet(0);
+    }
+
+    void setTopFrames(String topFrames) {
+        this.topFrames = topFrames;
+    }
+
+    /**
+     * @return Short id of the signature, sent to the clients in the error responses so that
+     * reports can be matched with the server log
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return Top frames of the last printed stack trace of this signature (null if none has been printed)
+     */
+    public String getTopFrames() {
+        return topFrames;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Number of stack traces of this signature printed
+     */
+    public long getPrintedStackTraces() {
+        return printed.get();
+    }
+
+    public long getFirstSeen() {
+        return firstSeen;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+}
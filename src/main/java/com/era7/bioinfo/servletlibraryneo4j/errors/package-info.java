@@ -0,0 +1,5 @@
+/**
+ * Reporting of the exceptions thrown while processing requests: deduplication by signature,
+ * rate-limited stack traces and per-signature counters
+ */
+package com.era7.bioinfo.servletlibraryneo4j.errors;
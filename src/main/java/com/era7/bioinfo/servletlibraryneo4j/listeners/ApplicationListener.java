@@ -1,10 +1,32 @@
 
 package com.era7.bioinfo.servletlibraryneo4j.listeners;
 
-import com.era7.lib.communication.util.ActiveSessions;
-import com.era7.lib.communication.util.SessionTimeoutChecker;
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.admission.AdmissionController;
+import com.era7.bioinfo.servletlibraryneo4j.admission.ConcurrencyLimiter;
+import com.era7.bioinfo.servletlibraryneo4j.async.GraphWorkerPool;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditLog;
+import com.era7.bioinfo.servletlibraryneo4j.audit.OverflowPolicy;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.manager.GroupCommitter;
+import com.era7.bioinfo.servletlibraryneo4j.response.PushEventWriter;
+import com.era7.bioinfo.servletlibraryneo4j.session.FileSessionStore;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionExpiryListener;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionExpiryWheel;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionStore;
+import com.era7.bioinfo.servletlibraryneo4j.warmup.Readiness;
+import com.era7.bioinfo.servletlibraryneo4j.warmup.StoreWarmer;
+import com.era7.bioinfo.servletlibraryneo4j.warmup.WarmUpReplayer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
-import java.util.TimerTask;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -18,24 +40,369 @@ import javax.servlet.ServletContextListener;
  */
 public class ApplicationListener implements ServletContextListener{
 
+    /**
+     * Default idle time (in milliseconds) after which a session expires
+     */
+    protected final static long DEFAULT_SESSION_TIMEOUT = 30 * 60000;
+    /**
+     * Default granularity (in milliseconds) of the session expiry wheel
+     */
+    protected final static long DEFAULT_SESSION_EXPIRY_TICK = 1000;
+    protected static SessionExpiryWheel SESSION_EXPIRY = null;
+    /**
+     * @deprecated Sessions are expired by {@link #SESSION_EXPIRY}, see {@link #SESSION_EXPIRY_TICK_PARAM}
+     */
+    @Deprecated
     protected final static int SESSION_TIMER_PERIOD = 60000;
+    /**
+     * @deprecated Sessions are expired by {@link #SESSION_EXPIRY}. The timer no longer checks the sessions;
+     * it is only kept (started and cancelled with the context) for subclasses scheduling their own tasks on it.
+     */
+    @Deprecated
     protected static Timer SESSION_TIMER = null;
+    /**
+     * Context parameter with the idle time (in milliseconds) after which a session expires
+     */
+    public static final String SESSION_TIMEOUT_PARAM = "sessionTimeout";
+    /**
+     * Context parameter with the granularity (in milliseconds) of the session expiry wheel,
+     * that is, the maximum delay with which an idle session is expired
+     */
+    public static final String SESSION_EXPIRY_TICK_PARAM = "sessionExpiryTick";
+    /**
+     * Context parameter with the folder shared by the nodes of the application where the sessions are stored
+     * (see {@link FileSessionStore}). Without it sessions only live in the node where they were created.
+     */
+    public static final String SESSION_STORE_FOLDER_PARAM = "sessionStoreFolder";
+    /**
+     * Context parameter with the time (in milliseconds) during which a session cached in a node is not
+     * validated against the session store
+     */
+    public static final String SESSION_STORE_VALIDATION_INTERVAL_PARAM = "sessionStoreValidationInterval";
+    /**
+     * Context parameter with the maximum number of bytes of the store files of each database read on startup
+     * so that they are in the page cache of the operating system (0, the default, disables it)
+     */
+    public static final String WARM_UP_STORE_BYTES_PARAM = "warmUpStoreBytes";
+    /**
+     * Context parameter with the maximum number of nodes of each database loaded in its cache on startup
+     */
+    public static final String WARM_UP_NODES_PARAM = "warmUpNodes";
+    /**
+     * Context parameter with the file of recorded requests replayed on startup (see {@link WarmUpReplayer}),
+     * either a path or a resource of the web application
+     */
+    public static final String WARM_UP_REQUESTS_PARAM = "warmUpRequests";
+    /**
+     * Context parameter with the permissions (separated by commas) of the session of the warm-up requests
+     */
+    public static final String WARM_UP_PERMISSIONS_PARAM = "warmUpPermissions";
+    /**
+     * Context parameter with the number of times every warm-up request is replayed (1 by default)
+     */
+    public static final String WARM_UP_ITERATIONS_PARAM = "warmUpIterations";
+    /**
+     * Context parameter with the maximum time (in milliseconds) the warm-up waits for the servlets of the
+     * recorded requests to be initialized (60 seconds by default)
+     */
+    public static final String WARM_UP_TIMEOUT_PARAM = "warmUpTimeout";
+    /**
+     * Context parameter (web.xml) with the neo4j database folder(s) to be opened when the
+     * application starts. Several folders can be provided separated by commas.
+     */
+    public static final String NEO4J_DATABASE_FOLDER_PARAM = "neo4jDatabaseFolder";
+    /**
+     * Context parameter with the number of threads of the graph worker pool (async servlets)
+     */
+    public static final String GRAPH_WORKER_THREADS_PARAM = "graphWorkerThreads";
+    /**
+     * Context parameter with the maximum number of tasks waiting in the graph worker pool
+     */
+    public static final String GRAPH_WORKER_QUEUE_SIZE_PARAM = "graphWorkerQueueSize";
+    /**
+     * Context parameter ("true"/"false") indicating whether the graph worker pool should use
+     * virtual threads when the JVM supports them
+     */
+    public static final String GRAPH_WORKER_VIRTUAL_THREADS_PARAM = "graphWorkerVirtualThreads";
+    /**
+     * Context parameter with the capacity of the buffer of the audit log (asynchronous logging)
+     */
+    public static final String AUDIT_BUFFER_SIZE_PARAM = "auditBufferSize";
+    /**
+     * Context parameter with the overflow policy of the audit log: BLOCK (default), DROP or SAMPLE
+     */
+    public static final String AUDIT_OVERFLOW_POLICY_PARAM = "auditOverflowPolicy";
+    /**
+     * Context parameter with the maximum number of events delivered in one batch by the audit log
+     */
+    public static final String AUDIT_BATCH_SIZE_PARAM = "auditBatchSize";
+    /**
+     * Context parameter with the sample rate of the SAMPLE overflow policy (one of every n events is kept)
+     */
+    public static final String AUDIT_SAMPLE_RATE_PARAM = "auditSampleRate";
+    /**
+     * Context parameter with the maximum number of requests processed at the same time by all the
+     * servlets of the application (login servlets excluded)
+     */
+    public static final String MAX_CONCURRENT_REQUESTS_PARAM = "maxConcurrentRequests";
+    /**
+     * Context parameter with the latency (in milliseconds) over which the application-wide limit is decreased.
+     * When it is defined the limit adapts (AIMD) between a tenth of {@link #MAX_CONCURRENT_REQUESTS_PARAM} and it.
+     */
+    public static final String CONCURRENCY_LATENCY_THRESHOLD_PARAM = "concurrencyLatencyThreshold";
+    /**
+     * Context parameter with the minimum time (in milliseconds) between two printed stack traces of the
+     * same error signature (see {@link ErrorReporter}, 60 seconds by default)
+     */
+    public static final String ERROR_STACK_TRACE_INTERVAL_PARAM = "errorStackTraceInterval";
+    /**
+     * Context parameter with the maximum number of stack traces printed per second (10 by default)
+     */
+    public static final String ERROR_MAX_STACK_TRACES_PER_SECOND_PARAM = "errorMaxStackTracesPerSecond";
+    /**
+     * Context parameter with the maximum number of different error signatures counted (1000 by default)
+     */
+    public static final String ERROR_MAX_SIGNATURES_PARAM = "errorMaxSignatures";
 
     @Override
     public final void contextInitialized(ServletContextEvent sce) {
-        ActiveSessions.init();
+        Readiness.setState(Readiness.State.STARTING);
+        ErrorReporter.getInstance().configure(
+                getLongParameter(sce.getServletContext(), ERROR_STACK_TRACE_INTERVAL_PARAM, ErrorReporter.DEFAULT_STACK_TRACE_INTERVAL),
+                getIntParameter(sce.getServletContext(), ERROR_MAX_STACK_TRACES_PER_SECOND_PARAM, ErrorReporter.DEFAULT_MAX_STACK_TRACES_PER_SECOND),
+                getIntParameter(sce.getServletContext(), ERROR_MAX_SIGNATURES_PARAM, ErrorReporter.DEFAULT_MAX_SIGNATURES));
+        SessionRegistry.init();
+        initSessionStore(sce.getServletContext());
+
+        final long sessionTimeout = getLongParameter(sce.getServletContext(), SESSION_TIMEOUT_PARAM, DEFAULT_SESSION_TIMEOUT);
+        SESSION_EXPIRY = new SessionExpiryWheel(
+                sessionTimeout,
+                getLongParameter(sce.getServletContext(), SESSION_EXPIRY_TICK_PARAM, DEFAULT_SESSION_EXPIRY_TICK),
+                new SessionExpiryListener() {
+
+                    @Override
+                    public void sessionExpired(String sessionId) {
+                        SessionRegistry.expireSession(sessionId, sessionTimeout);
+                    }
+                });
+        SESSION_EXPIRY.start();
+        SESSION_TIMER = new Timer("session-timer", true);
+
+        openDatabases(sce.getServletContext());
 
-        TimerTask timeoutChecker = new SessionTimeoutChecker();
+        GraphWorkerPool.init(getIntParameter(sce.getServletContext(), GRAPH_WORKER_THREADS_PARAM, GraphWorkerPool.DEFAULT_THREADS),
+                getIntParameter(sce.getServletContext(), GRAPH_WORKER_QUEUE_SIZE_PARAM, GraphWorkerPool.DEFAULT_QUEUE_SIZE),
+                Boolean.parseBoolean(sce.getServletContext().getInitParameter(GRAPH_WORKER_VIRTUAL_THREADS_PARAM)));
 
-        SESSION_TIMER = new Timer();
-        SESSION_TIMER.schedule(timeoutChecker,0,SESSION_TIMER_PERIOD);
+        initGlobalLimiter(sce.getServletContext());
+
+        String auditPolicy = sce.getServletContext().getInitParameter(AUDIT_OVERFLOW_POLICY_PARAM);
+        AuditLog.init(getIntParameter(sce.getServletContext(), AUDIT_BUFFER_SIZE_PARAM, AuditLog.DEFAULT_CAPACITY),
+                auditPolicy == null ? OverflowPolicy.BLOCK : OverflowPolicy.valueOf(auditPolicy.trim().toUpperCase()),
+                getIntParameter(sce.getServletContext(), AUDIT_BATCH_SIZE_PARAM, AuditLog.DEFAULT_BATCH_SIZE),
+                getIntParameter(sce.getServletContext(), AUDIT_SAMPLE_RATE_PARAM, AuditLog.DEFAULT_SAMPLE_RATE));
 
         contextInitializedHandler(sce.getServletContext());
+
+        warmUp(sce.getServletContext());
     }
 
     @Override
     public final void contextDestroyed(ServletContextEvent sce) {
+        Readiness.setState(Readiness.State.STOPPING);
+
+        //--> Pending operations are logged while the databases are still open
+        AuditLog.shutdown();
+
         contextDestroyedHandler(sce.getServletContext());
+
+        if(SESSION_EXPIRY != null){
+            SESSION_EXPIRY.stop();
+            SESSION_EXPIRY = null;
+        }
+        if(SESSION_TIMER != null){
+            SESSION_TIMER.cancel();
+            SESSION_TIMER = null;
+        }
+        AdmissionController.setGlobalLimiter(null);
+        SessionStore sessionStore = SessionRegistry.getStore();
+        if(sessionStore != null){
+            SessionRegistry.setStore(null, SessionRegistry.DEFAULT_VALIDATION_INTERVAL);
+            sessionStore.close();
+        }
+        GraphWorkerPool.shutdown();
+        PushEventWriter.shutdown();
+        GroupCommitter.closeAll();
+        Bio4jManagerRegistry.closeAll();
+        ErrorReporter.getInstance().shutdown();
+    }
+
+    /**
+     * @return The value of the long context parameter provided or the default value when it is not defined
+     */
+    protected static long getLongParameter(ServletContext context, String name, long defaultValue){
+        String value = context.getInitParameter(name);
+        if(value == null || value.trim().length() == 0){
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * @return The value of the integer context parameter provided or the default value when it is not defined
+     */
+    protected static int getIntParameter(ServletContext context, String name, int defaultValue){
+        String value = context.getInitParameter(name);
+        if(value == null || value.trim().length() == 0){
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Warms up the databases (store files and node cache) and then, in the background as servlets are
+     * initialized after the listeners, replays the recorded requests. The application is ready once done.
+     * @param context Servlet context
+     */
+    private void warmUp(final ServletContext context){
+        Readiness.setState(Readiness.State.WARMING_UP);
+
+        long storeBytes = getLongParameter(context, WARM_UP_STORE_BYTES_PARAM, 0);
+        int nodes = getIntParameter(context, WARM_UP_NODES_PARAM, 0);
+        for (String folder : Bio4jManagerRegistry.getDatabaseFolders()) {
+            try {
+                if(storeBytes > 0){
+                    long read = StoreWarmer.pageIn(new File(folder), storeBytes);
+                    context.log("Warm-up: " + read + " bytes of the store of " + folder + " read");
+                }
+                if(nodes > 0){
+                    Bio4jManager manager = Bio4jManagerRegistry.acquireManager(folder);
+                    try {
+                        int loaded = StoreWarmer.loadNodes(manager.getGraphService(), nodes);
+                        context.log("Warm-up: " + loaded + " nodes of " + folder + " loaded");
+                    } finally {
+                        Bio4jManagerRegistry.releaseManager(manager);
+                    }
+                }
+            } catch (Exception e) {
+                context.log("Warm-up of " + folder + " failed", e);
+            }
+        }
+
+        final List<String[]> requests = readWarmUpRequests(context);
+        if(requests.isEmpty()){
+            Readiness.setState(Readiness.State.READY);
+            return;
+        }
+
+        String permissionsValue = context.getInitParameter(WARM_UP_PERMISSIONS_PARAM);
+        final ArrayList<String> permissions = new ArrayList<String>();
+        if(permissionsValue != null){
+            for (String permission : Arrays.asList(permissionsValue.split(","))) {
+                if(permission.trim().length() > 0){
+                    permissions.add(permission.trim());
+                }
+            }
+        }
+        final int iterations = getIntParameter(context, WARM_UP_ITERATIONS_PARAM, 1);
+        final long timeout = getLongParameter(context, WARM_UP_TIMEOUT_PARAM, 60000);
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    List<String> skipped = new ArrayList<String>();
+                    int replayed = WarmUpReplayer.replay(requests, permissions, iterations, timeout, skipped);
+                    if(!skipped.isEmpty()){
+                        context.log("Warm-up: " + skipped.size() + " recorded requests of methods that are not "
+                                + "read-only skipped " + skipped);
+                    }
+                    context.log("Warm-up: " + replayed + " recorded requests replayed");
+                } catch (Exception e) {
+                    context.log("Warm-up requests failed", e);
+                } finally {
+                    if(Readiness.getState() == Readiness.State.WARMING_UP){
+                        Readiness.setState(Readiness.State.READY);
+                    }
+                }
+            }
+        }, "warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return The recorded requests of the context parameter {@link #WARM_UP_REQUESTS_PARAM} (empty if there are none)
+     */
+    private List<String[]> readWarmUpRequests(ServletContext context){
+        String path = context.getInitParameter(WARM_UP_REQUESTS_PARAM);
+        if(path == null || path.trim().length() == 0){
+            return new ArrayList<String[]>();
+        }
+        path = path.trim();
+        try {
+            InputStream in = new File(path).isFile() ? new FileInputStream(path) : context.getResourceAsStream(path);
+            if(in == null){
+                context.log("Warm-up requests " + path + " not found");
+                return new ArrayList<String[]>();
+            }
+            return WarmUpReplayer.read(in);
+        } catch (IOException e) {
+            context.log("Warm-up requests " + path + " could not be read", e);
+            return new ArrayList<String[]>();
+        }
+    }
+
+    /**
+     * Sets the session store defined in the context parameters (if any)
+     * @param context Servlet context
+     */
+    private void initSessionStore(ServletContext context){
+        String folder = context.getInitParameter(SESSION_STORE_FOLDER_PARAM);
+        if(folder == null || folder.trim().length() == 0){
+            return;
+        }
+        try {
+            FileSessionStore store = new FileSessionStore(new File(folder.trim()));
+            store.purgeExpired(getLongParameter(context, SESSION_TIMEOUT_PARAM, DEFAULT_SESSION_TIMEOUT));
+            SessionRegistry.setStore(store, getLongParameter(context, SESSION_STORE_VALIDATION_INTERVAL_PARAM,
+                    SessionRegistry.DEFAULT_VALIDATION_INTERVAL));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the session store " + folder, e);
+        }
+    }
+
+    /**
+     * Sets the application-wide concurrency limit defined in the context parameters (if any)
+     * @param context Servlet context
+     */
+    private void initGlobalLimiter(ServletContext context){
+        int maxRequests = getIntParameter(context, MAX_CONCURRENT_REQUESTS_PARAM, 0);
+        if(maxRequests <= 0){
+            AdmissionController.setGlobalLimiter(null);
+        }else if(context.getInitParameter(CONCURRENCY_LATENCY_THRESHOLD_PARAM) == null){
+            AdmissionController.setGlobalLimiter(ConcurrencyLimiter.fixed(maxRequests));
+        }else{
+            AdmissionController.setGlobalLimiter(ConcurrencyLimiter.adaptive(maxRequests, maxRequests / 10, maxRequests,
+                    getLongParameter(context, CONCURRENCY_LATENCY_THRESHOLD_PARAM, 0)));
+        }
+    }
+
+    /**
+     * Opens the shared managers of the folders defined in the context parameter
+     * {@link #NEO4J_DATABASE_FOLDER_PARAM}
+     * @param context Servlet context
+     */
+    private void openDatabases(ServletContext context){
+        String folders = context.getInitParameter(NEO4J_DATABASE_FOLDER_PARAM);
+        if(folders != null){
+            for (String folder : folders.split(",")) {
+                if(folder.trim().length() > 0){
+                    Bio4jManagerRegistry.open(folder.trim());
+                }
+            }
+        }
     }
 
     /**
@@ -0,0 +1,317 @@
+package com.era7.bioinfo.servletlibraryneo4j.manager;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry holding one shared Bio4jManager per database folder.
+ * <br>Managers are opened once (normally from {@link com.era7.bioinfo.servletlibraryneo4j.listeners.ApplicationListener})
+ * and borrowed by the servlets on every request, instead of opening the embedded database each time.
+ * <br>A cheap health check is performed at most once every {@link #HEALTH_CHECK_PERIOD} milliseconds;
+ * when it fails the manager is reopened. The embedded database locks its store, so the failed manager is
+ * shut down first: the threads that acquired it (see {@link #acquireManager}) are given up to
+ * {@link #RELEASE_TIMEOUT} milliseconds to release it, and new requests wait for the new manager.
+ */
+public final class Bio4jManagerRegistry {
+
+    /**
+     * Minimum time (in milliseconds) between two health checks of the same manager
+     */
+    public static long HEALTH_CHECK_PERIOD = 30000;
+    /**
+     * Maximum time (in milliseconds) a reopen waits for the users of the failed manager to release it
+     */
+    public static final long RELEASE_TIMEOUT = 5000;
+    /**
+     * Number of times a manager being replaced is retried before giving up
+     */
+    private static final int MAX_ACQUIRE_ATTEMPTS = 3;
+
+    private static final ConcurrentHashMap<String, ManagerHolder> MANAGERS = new ConcurrentHashMap<String, ManagerHolder>();
+
+    private Bio4jManagerRegistry() {
+    }
+
+    /**
+     * Opens (if it was not already open) the manager for the database folder provided
+     * @param neo4jDatabaseFolder Database folder
+     * @return The shared manager
+     */
+    public static Bio4jManager open(String neo4jDatabaseFolder) {
+        return getHolder(neo4jDatabaseFolder).get(false);
+    }
+
+    /**
+     * Returns the shared manager for the database folder provided, opening it when needed.
+     * The manager returned is shared among all threads and must NOT be shut down by the caller.
+     * <br>It is not counted as in use: if it fails a health check, it can be shut down while the caller
+     * still holds it. Callers using it for longer than a single call must use {@link #acquireManager} instead.
+     * @param neo4jDatabaseFolder Database folder
+     * @return The shared manager
+     */
+    public static Bio4jManager getManager(String neo4jDatabaseFolder) {
+        return getHolder(neo4jDatabaseFolder).get(true);
+    }
+
+    /**
+     * Returns the shared manager for the database folder provided, opening it when needed, and counts the
+     * caller as one of its users: if the manager fails a health check meanwhile, its reopening waits (for
+     * {@link #RELEASE_TIMEOUT} milliseconds at most) until every user has called {@link #releaseManager}.
+     * @param neo4jDatabaseFolder Database folder
+     * @return The shared manager (it must be released, and NOT shut down, by the caller)
+     * @throws IllegalStateException if the manager is being replaced and the new one is not available
+     */
+    public static Bio4jManager acquireManager(String neo4jDatabaseFolder) {
+        return getHolder(neo4jDatabaseFolder).acquire();
+    }
+
+    /**
+     * Counts one more user of a manager already acquired (for example by work that outlives the request
+     * that acquired it). It must be released with {@link #releaseManager} as well.
+     * @param manager Manager
+     * @return False if the manager is not the current one of its folder anymore (it was not counted)
+     */
+    public static boolean retainManager(Bio4jManager manager) {
+        if (manager == null) {
+            return false;
+        }
+        for (ManagerHolder holder : MANAGERS.values()) {
+            if (holder.retain(manager)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases a manager returned by {@link #acquireManager}
+     * @param manager Manager
+     */
+    public static void releaseManager(Bio4jManager manager) {
+        if (manager == null) {
+            return;
+        }
+        for (ManagerHolder holder : MANAGERS.values()) {
+            if (holder.release(manager)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forces a health check of the manager of the folder provided on its next use: it is reopened
+     * if the check fails. It should be called when an operation suspects the database is no longer usable.
+     * @param neo4jDatabaseFolder Database folder
+     */
+    public static void reportFailure(String neo4jDatabaseFolder) {
+        ManagerHolder holder = MANAGERS.get(neo4jDatabaseFolder);
+        if (holder != null) {
+            holder.invalidate();
+        }
+    }
+
+    /**
+     * @return The database folders whose managers are currently registered
+     */
+    public static List<String> getDatabaseFolders() {
+        return new ArrayList<String>(MANAGERS.keySet());
+    }
+
+    /**
+     * Shuts down the manager of the folder provided and removes it from the registry
+     * @param neo4jDatabaseFolder Database folder
+     */
+    public static void close(String neo4jDatabaseFolder) {
+        ManagerHolder holder = MANAGERS.remove(neo4jDatabaseFolder);
+        if (holder != null) {
+            holder.shutDown();
+        }
+    }
+
+    /**
+     * Shuts down every registered manager
+     */
+    public static void closeAll() {
+        for (String folder : getDatabaseFolders()) {
+            close(folder);
+        }
+    }
+
+    private static ManagerHolder getHolder(String neo4jDatabaseFolder) {
+        if (neo4jDatabaseFolder == null || neo4jDatabaseFolder.length() == 0) {
+            throw new IllegalArgumentException("A neo4j database folder must be provided");
+        }
+        ManagerHolder holder = MANAGERS.get(neo4jDatabaseFolder);
+        if (holder == null) {
+            ManagerHolder newHolder = new ManagerHolder(neo4jDatabaseFolder);
+            holder = MANAGERS.putIfAbsent(neo4jDatabaseFolder, newHolder);
+            if (holder == null) {
+                holder = newHolder;
+            }
+        }
+        return holder;
+    }
+
+    /**
+     * Lazily opened manager of one database folder
+     */
+    private static final class ManagerHolder {
+
+        private final String folder;
+        private volatile Lease lease = null;
+        private volatile long lastCheck = 0;
+
+        ManagerHolder(String folder) {
+            this.folder = folder;
+        }
+
+        Bio4jManager get(boolean checkHealth) {
+            return getLease(checkHealth).manager;
+        }
+
+        Bio4jManager acquire() {
+            for (int attempt = 0; attempt < MAX_ACQUIRE_ATTEMPTS; attempt++) {
+                Lease current = getLease(true);
+                current.users.incrementAndGet();
+                if (!current.retired) {
+                    return current.manager;
+                }
+                //--> Being replaced, the next attempt waits for the new one (see openIfNeeded)
+                current.users.decrementAndGet();
+            }
+            throw new IllegalStateException("Unable to acquire the manager of " + folder);
+        }
+
+        /**
+         * @return Whether the manager provided is the current one of this holder (then it is counted)
+         */
+        boolean retain(Bio4jManager manager) {
+            Lease current = lease;
+            if (current == null || current.manager != manager) {
+                return false;
+            }
+            current.users.incrementAndGet();
+            if (current.retired) {
+                current.users.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return Whether the manager provided is the current one of this holder
+         */
+        boolean release(Bio4jManager manager) {
+            Lease current = lease;
+            if (current != null && current.manager == manager) {
+                current.users.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        private Lease getLease(boolean checkHealth) {
+            Lease current = lease;
+            if (current == null || current.retired) {
+                return openIfNeeded(current);
+            }
+            if (checkHealth && System.currentTimeMillis() - lastCheck > HEALTH_CHECK_PERIOD) {
+                if (!isHealthy(current.manager)) {
+                    return openIfNeeded(current);
+                }
+                lastCheck = System.currentTimeMillis();
+            }
+            return current;
+        }
+
+        /**
+         * Reopens the manager unless another thread already replaced the one given.
+         * <br>The embedded database locks its store, so the failed manager must be shut down before the
+         * new one is opened: it is retired (no new users get it), its users are given up to
+         * {@link #RELEASE_TIMEOUT} milliseconds to release it and then it is shut down. If the new
+         * manager cannot be opened the exception is thrown and the next use tries again.
+         */
+        private synchronized Lease openIfNeeded(Lease failed) {
+            if (lease != null && lease != failed) {
+                return lease;
+            }
+            if (lease != null) {
+                retire(lease);
+                lease = null;
+            }
+            Lease opened = new Lease(new Bio4jManager(folder));
+            lease = opened;
+            lastCheck = System.currentTimeMillis();
+            return opened;
+        }
+
+        private void retire(Lease failed) {
+            failed.retired = true;
+            long deadline = System.currentTimeMillis() + RELEASE_TIMEOUT;
+            while (failed.users.get() > 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            shutDown(failed);
+        }
+
+        void invalidate() {
+            lastCheck = 0;
+        }
+
+        synchronized void shutDown() {
+            if (lease != null) {
+                lease.retired = true;
+                shutDown(lease);
+                lease = null;
+            }
+        }
+
+        private void shutDown(Lease old) {
+            if (old.shutDown.compareAndSet(false, true)) {
+                shutDownQuietly(old.manager);
+            }
+        }
+
+        private boolean isHealthy(Bio4jManager current) {
+            try {
+                current.getGraphService().getReferenceNode();
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        private void shutDownQuietly(Bio4jManager current) {
+            try {
+                current.shutDown();
+            } catch (RuntimeException e) {
+                ErrorReporter.getInstance().report(e);
+            }
+        }
+    }
+
+    /**
+     * Manager plus the number of threads using it
+     */
+    private static final class Lease {
+
+        private final Bio4jManager manager;
+        private final AtomicInteger users = new AtomicInteger();
+        private final AtomicBoolean shutDown = new AtomicBoolean(false);
+        private volatile boolean retired = false;
+
+        Lease(Bio4jManager manager) {
+            this.manager = manager;
+        }
+    }
+}
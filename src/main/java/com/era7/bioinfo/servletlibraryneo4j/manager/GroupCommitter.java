@@ -0,0 +1,315 @@
+package com.era7.bioinfo.servletlibraryneo4j.manager;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Group commit of the write operations of one database.
+ * <br>Operations submitted concurrently are queued and run by one committer thread inside one graph
+ * transaction per group (up to a maximum size or a short time window), so a group pays a single commit
+ * (and log force). Transactions begun by the operations themselves are nested in the group transaction.
+ * <br>When the group fails (an operation throws or the commit fails) it is rolled back and each of its
+ * operations is run again on its own, so one bad operation does not fail the rest. Operations must
+ * therefore only have effects on the graph, and they must use the manager they are given (the one the
+ * group transaction was begun on).
+ */
+public final class GroupCommitter {
+
+    /**
+     * Write operation run by the committer
+     */
+    public interface Operation<T> {
+
+        /**
+         * @param manager Manager of the database the group is committed on (held until the group finishes)
+         * @return Result of the operation
+         */
+        public T run(Bio4jManager manager) throws Throwable;
+    }
+
+    private static final long IDLE_POLL = 100;
+    /**
+     * Maximum time (in milliseconds) between two checks of the cancellation token of a waiting operation
+     */
+    private static final long CHECK_INTERVAL = 1000;
+    private static final int QUEUED = 0;
+    private static final int TAKEN = 1;
+    private static final int CANCELLED = 2;
+    private static final ConcurrentHashMap<String, GroupCommitter> COMMITTERS = new ConcurrentHashMap<String, GroupCommitter>();
+
+    private final String neo4jDatabaseFolder;
+    private final long window;
+    private final int maxSize;
+    private final LinkedBlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<Pending<?>>();
+    private final Thread committer;
+    private volatile boolean running = true;
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong retriedGroups = new AtomicLong();
+
+    private GroupCommitter(String neo4jDatabaseFolder, long window, int maxSize) {
+        this.neo4jDatabaseFolder = neo4jDatabaseFolder;
+        this.window = TimeUnit.MILLISECONDS.toNanos(window);
+        this.maxSize = Math.max(1, maxSize);
+        this.committer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "group-commit-" + COMMITTERS.size());
+        this.committer.setDaemon(true);
+    }
+
+    /**
+     * Returns the committer of the database folder provided, creating it when needed
+     * (the window and size of the first call are the ones used)
+     * @param neo4jDatabaseFolder Database folder
+     * @param window Maximum time (in milliseconds) an operation waits for others to join its group
+     * @param maxSize Maximum number of operations in a group
+     * @return The committer
+     */
+    public static GroupCommitter getCommitter(String neo4jDatabaseFolder, long window, int maxSize) {
+        GroupCommitter current = COMMITTERS.get(neo4jDatabaseFolder);
+        if (current == null) {
+            synchronized (COMMITTERS) {
+                current = COMMITTERS.get(neo4jDatabaseFolder);
+                if (current == null) {
+                    current = new GroupCommitter(neo4jDatabaseFolder, window, maxSize);
+                    current.committer.start();
+                    COMMITTERS.put(neo4jDatabaseFolder, current);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Runs the pending operations and stops every committer
+     */
+    public static void closeAll() {
+        synchronized (COMMITTERS) {
+            for (GroupCommitter current : COMMITTERS.values()) {
+                current.close();
+            }
+            COMMITTERS.clear();
+        }
+    }
+
+    /**
+     * Runs the operation provided in the next group and waits for its result
+     * @param operation Operation
+     * @param token Cancellation token of the request (it may be null): an operation still waiting for its
+     * group when the token is cancelled is withdrawn, one already running is waited for
+     * @return The result of the operation
+     * @throws RequestCancelledException If the request was cancelled before the operation started
+     * @throws Throwable The exception thrown by the operation (when run on its own)
+     */
+    public <T> T execute(Operation<T> operation, CancellationToken token) throws Throwable {
+        Pending<T> pending = new Pending<T>(operation);
+        if (!running || Thread.currentThread() == committer) {
+            //--> Already closed (or called from an operation): run in place
+            runAlone(pending);
+        } else {
+            queue.put(pending);
+            if (!running && queue.remove(pending)) {
+                //--> Closed meanwhile and not taken by the committer
+                runAlone(pending);
+            } else {
+                await(pending, token);
+            }
+        }
+        if (pending.error != null) {
+            throw pending.error;
+        }
+        return pending.result;
+    }
+
+    private void await(Pending<?> pending, CancellationToken token) throws InterruptedException {
+        if (token == null) {
+            pending.done.await();
+            return;
+        }
+        while (!pending.done.await(Math.min(token.getRemainingMillis(), CHECK_INTERVAL), TimeUnit.MILLISECONDS)) {
+            if (token.isCancelled()) {
+                if (pending.state.compareAndSet(QUEUED, CANCELLED)) {
+                    queue.remove(pending);
+                    throw new RequestCancelledException(token.getReason());
+                }
+                //--> Already in a group: its modifications are applied anyway
+                pending.done.await();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Number of groups committed (or retried)
+     */
+    public long getGroupCount() {
+        return groups.get();
+    }
+
+    /**
+     * @return Number of operations run
+     */
+    public long getOperationCount() {
+        return operations.get();
+    }
+
+    /**
+     * @return Number of groups that failed and whose operations were run one by one
+     */
+    public long getRetriedGroupCount() {
+        return retriedGroups.get();
+    }
+
+    private void close() {
+        //--> Not interrupted: an interrupt would close the channels of the database being written
+        running = false;
+        try {
+            committer.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commitLoop() {
+        List<Pending<?>> group = new ArrayList<Pending<?>>(maxSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending<?> first = queue.poll(IDLE_POLL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                if (first.state.compareAndSet(QUEUED, TAKEN)) {
+                    group.add(first);
+                }
+                long deadline = System.nanoTime() + window;
+                while (group.size() < maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending<?> next = remaining > 0 && running ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next.state.compareAndSet(QUEUED, TAKEN)) {
+                        group.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //--> Stops once the pending operations have been run
+                running = false;
+            }
+            if (!group.isEmpty()) {
+                runGroup(group);
+                group.clear();
+            }
+        }
+    }
+
+    private void runGroup(List<Pending<?>> group) {
+        groups.incrementAndGet();
+        operations.addAndGet(group.size());
+
+        Bio4jManager manager;
+        try {
+            manager = Bio4jManagerRegistry.acquireManager(neo4jDatabaseFolder);
+        } catch (RuntimeException e) {
+            for (Pending<?> pending : group) {
+                pending.error = e;
+                pending.done.countDown();
+            }
+            return;
+        }
+
+        try {
+            if (group.size() == 1) {
+                group.get(0).run(manager);
+                return;
+            }
+
+            boolean committed = false;
+            try {
+                Transaction transaction = manager.getGraphService().beginTx();
+                boolean failed = false;
+                try {
+                    for (Pending<?> pending : group) {
+                        pending.run(manager);
+                        if (pending.error != null) {
+                            failed = true;
+                            break;
+                        }
+                    }
+                    if (failed) {
+                        transaction.failure();
+                    } else {
+                        transaction.success();
+                    }
+                } finally {
+                    transaction.finish();
+                }
+                committed = !failed;
+            } catch (RuntimeException e) {
+                //--> The group could not be committed
+                committed = false;
+            }
+
+            if (!committed) {
+                retriedGroups.incrementAndGet();
+                for (Pending<?> pending : group) {
+                    pending.run(manager);
+                }
+            }
+        } finally {
+            Bio4jManagerRegistry.releaseManager(manager);
+            for (Pending<?> pending : group) {
+                pending.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Runs an operation outside of any group
+     */
+    private void runAlone(Pending<?> pending) {
+        Bio4jManager manager = Bio4jManagerRegistry.acquireManager(neo4jDatabaseFolder);
+        try {
+            pending.run(manager);
+        } finally {
+            Bio4jManagerRegistry.releaseManager(manager);
+        }
+    }
+
+    private static final class Pending<T> {
+
+        final Operation<T> operation;
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        T result = null;
+        Throwable error = null;
+
+        Pending(Operation<T> operation) {
+            this.operation = operation;
+        }
+
+        void run(Bio4jManager manager) {
+            result = null;
+            error = null;
+            try {
+                result = operation.run(manager);
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Shared Bio4j database managers used by the servlets of the App
+ */
+package com.era7.bioinfo.servletlibraryneo4j.manager;
@@ -0,0 +1,56 @@
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
+
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditLog;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet writing (as plain text) the report of every registered {@link ServletMetrics} (and of the audit log and the error reporter).
+ * <br>It can be mapped in the application descriptor wherever the metrics should be published.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        StringBuilder builder = new StringBuilder();
+        for (ServletMetrics metrics : ServletMetrics.getMetrics()) {
+            metrics.appendReport(builder);
+        }
+        AuditLog auditLog = AuditLog.getCurrentInstance();
+        if (auditLog != null) {
+            auditLog.appendReport(builder);
+        }
+        ErrorReporter.getInstance().appendReport(builder);
+
+        response.setContentType("text/plain");
+        response.setHeader("Cache-Control", "no-cache");
+        PrintWriter writer = response.getWriter();
+        writer.print(builder.toString());
+        writer.close();
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Servlet metrics";
+    }
+}
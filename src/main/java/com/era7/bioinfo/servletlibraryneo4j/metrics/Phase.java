@@ -0,0 +1,36 @@
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
+
+/**
+ * Phases of the servlet logic whose latency is measured
+ */
+public enum Phase {
+
+    /**
+     * Parsing of the xml request
+     */
+    PARSE,
+    /**
+     * Session lookup and check
+     */
+    SESSION,
+    /**
+     * Permissions check
+     */
+    PERMISSIONS,
+    /**
+     * Servlet logic (processRequest, login...)
+     */
+    PROCESS,
+    /**
+     * Serialization of the response
+     */
+    SERIALIZE,
+    /**
+     * Writing of the response to the client
+     */
+    WRITE,
+    /**
+     * Whole request
+     */
+    TOTAL
+}
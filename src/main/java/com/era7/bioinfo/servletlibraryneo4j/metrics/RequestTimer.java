@@ -0,0 +1,76 @@
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * Measures the phases of one request. It travels with the request as an attribute so that every
+ * step of the servlet logic (even in a different thread in async mode) can record its phase.
+ */
+public final class RequestTimer {
+
+    /**
+     * Attribute of the servlet request holding its timer
+     */
+    public static final String REQUEST_ATTRIBUTE = RequestTimer.class.getName();
+
+    private final ServletMetrics metrics;
+    private final long start;
+    private long last;
+    private LatencyHistogram[] histograms;
+    private boolean finished = false;
+
+    RequestTimer(ServletMetrics metrics) {
+        this.metrics = metrics;
+        this.start = System.nanoTime();
+        this.last = start;
+        this.histograms = metrics.getHistograms(ServletMetrics.UNKNOWN_METHOD);
+    }
+
+    /**
+     * @param request Servlet request
+     * @return The timer of the request or null if it is not being measured
+     */
+    public static RequestTimer get(ServletRequest request) {
+        return request == null ? null : (RequestTimer) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Records the phase provided
+     * @param request Servlet request
+     * @param phase Phase that has just finished
+     */
+    public static void mark(ServletRequest request, Phase phase) {
+        RequestTimer timer = get(request);
+        if (timer != null) {
+            timer.mark(phase);
+        }
+    }
+
+    /**
+     * @param method Request method the following phases belong to
+     */
+    public void setMethod(String method) {
+        histograms = metrics.getHistograms(method);
+    }
+
+    /**
+     * Records the time elapsed since the previous phase as the latency of the phase provided
+     * @param phase Phase that has just finished
+     */
+    public void mark(Phase phase) {
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - last);
+        last = now;
+    }
+
+    /**
+     * Records the total latency of the request (only the first call has any effect)
+     */
+    public synchronized void finish() {
+        if (!finished) {
+            finished = true;
+            histograms[Phase.TOTAL.ordinal()].record(System.nanoTime() - start);
+            metrics.requestFinished();
+        }
+    }
+}
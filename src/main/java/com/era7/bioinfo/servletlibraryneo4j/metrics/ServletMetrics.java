@@ -0,0 +1,280 @@
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
+
+import com.era7.bioinfo.servletlibraryneo4j.cache.SingleFlight;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletRequest;
+
+/**
+ * Latency histograms of each phase of the requests of one servlet, by request method, plus
+ * the number of requests in flight.
+ * <br>Every instance is registered under its name (see {@link #getMetrics()}) and exposed through JMX as
+ * <code>com.era7.bioinfo.servletlibraryneo4j:type=ServletMetrics,name=&lt;name&gt;</code>.
+ */
+public class ServletMetrics implements ServletMetricsMBean {
+
+    /**
+     * Domain of the JMX names
+     */
+    public static final String JMX_DOMAIN = "com.era7.bioinfo.servletlibraryneo4j";
+    /**
+     * Method used for the requests whose method is not known (yet)
+     */
+    public static final String UNKNOWN_METHOD = "unknown";
+    /**
+     * Method used once {@link #MAX_METHODS} different methods have been measured
+     */
+    public static final String OTHER_METHOD = "other";
+    /**
+     * Maximum number of different methods measured (request methods come from the clients)
+     */
+    public static int MAX_METHODS = 256;
+
+    private static final ConcurrentHashMap<String, ServletMetrics> METRICS = new ConcurrentHashMap<String, ServletMetrics>();
+
+    private final String name;
+    private final ConcurrentHashMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<String, LatencyHistogram[]>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+    private ObjectName objectName = null;
+
+    /**
+     * @param name Name of the metrics (normally the servlet name)
+     */
+    public ServletMetrics(String name) {
+        this.name = name;
+        ServletMetrics previous = METRICS.put(name, this);
+        if (previous != null) {
+            previous.unregisterMBean();
+        }
+        registerMBean();
+    }
+
+    /**
+     * @return Every registered metrics instance
+     */
+    public static Iterable<ServletMetrics> getMetrics() {
+        return METRICS.values();
+    }
+
+    /**
+     * Starts measuring the request provided
+     * @param request Servlet request
+     * @return The timer of the request
+     */
+    public RequestTimer start(ServletRequest request) {
+        RequestTimer timer = new RequestTimer(this);
+        request.setAttribute(RequestTimer.REQUEST_ATTRIBUTE, timer);
+        inFlight.incrementAndGet();
+        return timer;
+    }
+
+    void requestFinished() {
+        inFlight.decrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Counts a request rejected by admission control
+     */
+    public void requestRejected() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * Counts a request cancelled because its deadline passed
+     */
+    public void requestTimedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    /**
+     * Counts a request cancelled because its client disconnected
+     */
+    public void requestDisconnected() {
+        disconnected.incrementAndGet();
+    }
+
+    LatencyHistogram[] getHistograms(String method) {
+        if (method == null) {
+            method = UNKNOWN_METHOD;
+        }
+        LatencyHistogram[] current = histograms.get(method);
+        if (current == null) {
+            if (histograms.size() >= MAX_METHODS) {
+                method = OTHER_METHOD;
+                current = histograms.get(method);
+                if (current != null) {
+                    return current;
+                }
+            }
+            LatencyHistogram[] created = new LatencyHistogram[Phase.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            current = histograms.putIfAbsent(method, created);
+            if (current == null) {
+                current = created;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @param method Request method
+     * @param phase Phase
+     * @return The histogram of the method and phase provided or null if the method was never measured
+     */
+    public LatencyHistogram getHistogram(String method, Phase phase) {
+        LatencyHistogram[] current = histograms.get(method);
+        return current == null ? null : current[phase.ordinal()];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getTimedOutRequests() {
+        return timedOut.get();
+    }
+
+    @Override
+    public long getDisconnectedRequests() {
+        return disconnected.get();
+    }
+
+    @Override
+    public long getCoalescedRequests() {
+        SingleFlight singleFlight = SingleFlight.getSingleFlight(name);
+        return singleFlight == null ? 0 : singleFlight.getCoalesced();
+    }
+
+    @Override
+    public double getCoalescingRatio() {
+        SingleFlight singleFlight = SingleFlight.getSingleFlight(name);
+        return singleFlight == null ? 0 : singleFlight.getCoalescingRatio();
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return SessionRegistry.size();
+    }
+
+    @Override
+    public String[] getMethods() {
+        return histograms.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public double getLatencyPercentile(String method, String phase, double percentile) {
+        LatencyHistogram histogram = getHistogram(method, Phase.valueOf(phase));
+        return histogram == null ? 0 : histogram.getPercentile(percentile) / 1000.0;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder builder = new StringBuilder();
+        appendReport(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Appends one line per method and phase with its count, mean, percentiles and max (microseconds)
+     * @param builder Builder where the report is appended
+     */
+    public void appendReport(StringBuilder builder) {
+        builder.append(name).append(" in_flight=").append(getInFlightRequests())
+                .append(" requests=").append(getRequestCount())
+                .append(" rejected=").append(getRejectedRequests())
+                .append(" timed_out=").append(getTimedOutRequests())
+                .append(" disconnected=").append(getDisconnectedRequests())
+                .append(" coalesced=").append(getCoalescedRequests())
+                .append(" coalescing_ratio=").append(String.format(Locale.US, "%.3f", getCoalescingRatio()))
+                .append(" active_sessions=").append(getActiveSessions()).append('\n');
+        Map<String, LatencyHistogram[]> sorted = new TreeMap<String, LatencyHistogram[]>(histograms);
+        for (Map.Entry<String, LatencyHistogram[]> entry : sorted.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                builder.append(name).append(' ').append(entry.getKey()).append(' ').append(phase)
+                        .append(" count=").append(histogram.getCount())
+                        .append(" mean_us=").append(Math.round(histogram.getMean() / 1000.0))
+                        .append(" p50_us=").append(histogram.getPercentile(50) / 1000)
+                        .append(" p99_us=").append(histogram.getPercentile(99) / 1000)
+                        .append(" p999_us=").append(histogram.getPercentile(99.9) / 1000)
+                        .append(" max_us=").append(histogram.getMax() / 1000).append('\n');
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram[] current : histograms.values()) {
+            for (LatencyHistogram histogram : current) {
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * Unregisters the metrics (also from JMX)
+     */
+    public void close() {
+        METRICS.remove(name, this);
+        unregisterMBean();
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(JMX_DOMAIN + ":type=ServletMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            //--> Metrics keep working without JMX
+            objectName = null;
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                //--> Already unregistered
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
+
+/**
+ * JMX interface of {@link ServletMetrics}
+ */
+public interface ServletMetricsMBean {
+
+    /**
+     * @return Number of requests currently being processed
+     */
+    public int getInFlightRequests();
+
+    /**
+     * @return Number of requests completed
+     */
+    public long getRequestCount();
+
+    /**
+     * @return Number of requests rejected by admission control
+     */
+    public long getRejectedRequests();
+
+    /**
+     * @return Number of requests cancelled because their deadline passed
+     */
+    public long getTimedOutRequests();
+
+    /**
+     * @return Number of requests cancelled because their client disconnected
+     */
+    public long getDisconnectedRequests();
+
+    /**
+     * @return Number of requests answered with the response of an identical concurrent request
+     */
+    public long getCoalescedRequests();
+
+    /**
+     * @return Fraction of the deduplicated requests answered with the response of an identical concurrent request
+     */
+    public double getCoalescingRatio();
+
+    /**
+     * @return Number of active sessions of the application
+     */
+    public int getActiveSessions();
+
+    /**
+     * @return Request methods measured
+     */
+    public String[] getMethods();
+
+    /**
+     * @param method Request method
+     * @param phase Name of the phase (see {@link Phase})
+     * @param percentile Percentile (0-100)
+     * @return Latency percentile in microseconds
+     */
+    public double getLatencyPercentile(String method, String phase, double percentile);
+
+    /**
+     * @return Text report with the latency percentiles of every method and phase
+     */
+    public String getReport();
+
+    /**
+     * Removes every value measured
+     */
+    public void reset();
+}
@@ -0,0 +1,4 @@
+/**
+ * Low overhead latency metrics of the servlets, exposed through JMX and a metrics servlet
+ */
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
@@ -0,0 +1,242 @@
+package com.era7.bioinfo.servletlibraryneo4j.paging;
+
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suspended traversals of one servlet, bounded by number (in total and per session), estimated memory and
+ * idle time (LRU eviction).
+ * <br>A cursor is identified by a continuation token made of a random id and the position (number of results
+ * already returned) of the traversal, so that a traversal whose cursor was evicted can be re-opened and
+ * moved to that position. Cursors are taken out of the registry while a page is being produced and put back
+ * with their new position afterwards.
+ */
+public class CursorRegistry {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int maxCursors;
+    private final int maxCursorsPerSession;
+    private final long maxMemory;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private final HashMap<String, Integer> sessionCounts = new HashMap<String, Integer>();
+    private long memory = 0;
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong reseeks = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxCursors Maximum number of cursors
+     * @param maxCursorsPerSession Maximum number of cursors of a session
+     * @param maxMemory Maximum estimated memory (in bytes) of the cursors
+     * @param ttl Idle time (in milliseconds) after which a cursor is evicted
+     */
+    public CursorRegistry(int maxCursors, int maxCursorsPerSession, long maxMemory, long ttl) {
+        this.maxCursors = maxCursors;
+        this.maxCursorsPerSession = maxCursorsPerSession;
+        this.maxMemory = maxMemory;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Stores a cursor until the next page is requested
+     * @param sessionId Session owning the cursor (it may be null)
+     * @param method Request method of the traversal
+     * @param cursor Cursor
+     * @param position Number of results already returned
+     * @return The continuation token of the next page
+     */
+    public String put(String sessionId, String method, TraversalCursor cursor, long position) {
+        String token = Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE) + "-" + position;
+        Entry entry = new Entry(sessionId, method, cursor, cursor.getEstimatedMemory());
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (entries) {
+            entries.put(token, entry);
+            memory += entry.memory;
+            Integer count = sessionCounts.get(sessionId);
+            sessionCounts.put(sessionId, count == null ? 1 : count + 1);
+            evict(sessionId, evicted);
+        }
+        close(evicted);
+        return token;
+    }
+
+    /**
+     * Takes out the cursor of the token provided
+     * @param token Continuation token
+     * @param sessionId Session of the request
+     * @param method Request method
+     * @return The cursor (positioned after the results already returned) or null if it is not available
+     * (evicted, expired, or belonging to another session or method)
+     */
+    public TraversalCursor take(String token, String sessionId, String method) {
+        Entry entry;
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (entries) {
+            evict(null, evicted);
+            entry = entries.get(token);
+            if (entry != null && equal(entry.sessionId, sessionId) && entry.method.equals(method)) {
+                entries.remove(token);
+                forget(entry);
+            } else {
+                entry = null;
+            }
+        }
+        close(evicted);
+        if (entry == null) {
+            reseeks.incrementAndGet();
+            return null;
+        }
+        resumed.incrementAndGet();
+        return entry.cursor;
+    }
+
+    /**
+     * @param token Continuation token
+     * @return The position encoded in the token provided or -1 if the token is not valid
+     */
+    public static long getPosition(String token) {
+        int separator = token == null ? -1 : token.lastIndexOf('-');
+        if (separator < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(token.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Closes and removes every cursor
+     */
+    public void close() {
+        List<Entry> closed;
+        synchronized (entries) {
+            closed = new ArrayList<Entry>(entries.values());
+            entries.clear();
+            sessionCounts.clear();
+            memory = 0;
+        }
+        close(closed);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return Estimated memory (in bytes) held by the cursors
+     */
+    public long getMemory() {
+        synchronized (entries) {
+            return memory;
+        }
+    }
+
+    /**
+     * @return Number of pages served resuming a stored cursor
+     */
+    public long getResumedCount() {
+        return resumed.get();
+    }
+
+    /**
+     * @return Number of pages whose cursor was not available and had to be re-opened
+     */
+    public long getReseekCount() {
+        return reseeks.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Removes the expired cursors and the least recently used ones over the limits (called holding the lock).
+     * <br>Cursors are put back with a new token after every page, so the map is ordered by last access.
+     */
+    private void evict(String sessionId, List<Entry> evicted) {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.lastAccess <= ttl && entries.size() <= maxCursors && memory <= maxMemory) {
+                break;
+            }
+            iterator.remove();
+            forget(entry, evicted);
+        }
+        if (sessionId != null) {
+            iterator = entries.values().iterator();
+            while (iterator.hasNext() && count(sessionId) > maxCursorsPerSession) {
+                Entry entry = iterator.next();
+                if (sessionId.equals(entry.sessionId)) {
+                    iterator.remove();
+                    forget(entry, evicted);
+                }
+            }
+        }
+    }
+
+    private int count(String sessionId) {
+        Integer count = sessionCounts.get(sessionId);
+        return count == null ? 0 : count;
+    }
+
+    private void forget(Entry entry, List<Entry> evicted) {
+        forget(entry);
+        evicted.add(entry);
+        evictions.incrementAndGet();
+    }
+
+    private void forget(Entry entry) {
+        memory -= entry.memory;
+        Integer count = sessionCounts.get(entry.sessionId);
+        if (count == null || count <= 1) {
+            sessionCounts.remove(entry.sessionId);
+        } else {
+            sessionCounts.put(entry.sessionId, count - 1);
+        }
+    }
+
+    private static void close(List<Entry> closed) {
+        for (Entry entry : closed) {
+            try {
+                entry.cursor.close();
+            } catch (RuntimeException e) {
+                ErrorReporter.getInstance().report(e);
+            }
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static final class Entry {
+
+        final String sessionId;
+        final String method;
+        final TraversalCursor cursor;
+        final long memory;
+        final long lastAccess = System.currentTimeMillis();
+
+        Entry(String sessionId, String method, TraversalCursor cursor, long memory) {
+            this.sessionId = sessionId;
+            this.method = method;
+            this.cursor = cursor;
+            this.memory = memory;
+        }
+    }
+}
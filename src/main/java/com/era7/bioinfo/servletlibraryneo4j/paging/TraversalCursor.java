@@ -0,0 +1,31 @@
+package com.era7.bioinfo.servletlibraryneo4j.paging;
+
+import org.jdom.Element;
+
+/**
+ * Suspended traversal producing the results of a paged request one by one.
+ * <br>It is kept between the requests of the pages (by {@link CursorRegistry}) and only used by one
+ * request at a time.
+ */
+public interface TraversalCursor {
+
+    /**
+     * @return Whether there are more results
+     */
+    public boolean hasNext();
+
+    /**
+     * @return The next result (a detached element)
+     */
+    public Element next();
+
+    /**
+     * @return Rough estimation (in bytes) of the memory held by the cursor
+     */
+    public long getEstimatedMemory();
+
+    /**
+     * Releases the resources of the traversal (it is called when the cursor is exhausted or evicted)
+     */
+    public void close();
+}
@@ -0,0 +1,4 @@
+/**
+ * Cursor based pagination: suspended traversals resumed through continuation tokens
+ */
+package com.era7.bioinfo.servletlibraryneo4j.paging;
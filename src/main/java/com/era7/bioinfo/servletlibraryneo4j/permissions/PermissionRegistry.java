@@ -0,0 +1,53 @@
+package com.era7.bioinfo.servletlibraryneo4j.permissions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application wide registry assigning a small integer index to every permission object
+ * (permissions are compared with <code>equals</code>, as in the permission lists stored by the login servlet).
+ * <br>These indexes are the bits of the {@link PermissionSet} instances.
+ */
+public final class PermissionRegistry {
+
+    private static final ConcurrentHashMap<Object, Integer> INDEXES = new ConcurrentHashMap<Object, Integer>();
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    private PermissionRegistry() {
+    }
+
+    /**
+     * Returns the index of the permission provided, registering it if it was not known yet
+     * @param permission Permission
+     * @return Index of the permission
+     */
+    public static int intern(Object permission) {
+        Integer index = INDEXES.get(permission);
+        if (index == null) {
+            synchronized (INDEXES) {
+                index = INDEXES.get(permission);
+                if (index == null) {
+                    index = NEXT_INDEX.getAndIncrement();
+                    INDEXES.put(permission, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param permission Permission
+     * @return Index of the permission or -1 if it has never been registered
+     */
+    public static int indexOf(Object permission) {
+        Integer index = INDEXES.get(permission);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return Number of permissions registered
+     */
+    public static int size() {
+        return NEXT_INDEX.get();
+    }
+}
@@ -0,0 +1,81 @@
+package com.era7.bioinfo.servletlibraryneo4j.permissions;
+
+import java.util.Collection;
+
+/**
+ * Immutable set of permissions stored as a bitset over the indexes of the {@link PermissionRegistry}.
+ * <br>It is compiled once by the login servlet and stored in the session under {@link #SESSION_ATTRIBUTE},
+ * so that the permission checks are a constant time bit test with no allocation.
+ * <br>Indexes are only meaningful inside one JVM, so these sets must not be shared between nodes.
+ */
+public final class PermissionSet {
+
+    /**
+     * Session attribute used to store the compiled permissions of the user
+     */
+    public static final String SESSION_ATTRIBUTE = "compiled_permissions";
+    /**
+     * Empty permission set
+     */
+    public static final PermissionSet EMPTY = new PermissionSet(new long[0]);
+
+    private final long[] words;
+    private final String signature;
+
+    private PermissionSet(long[] words) {
+        this.words = words;
+        StringBuilder builder = new StringBuilder(words.length * 16);
+        for (long word : words) {
+            builder.append(Long.toHexString(word)).append('.');
+        }
+        this.signature = builder.toString();
+    }
+
+    /**
+     * Compiles the permissions provided (registering them when needed)
+     * @param permissions Permissions of the user (may be null)
+     * @return The compiled set
+     */
+    public static PermissionSet compile(Collection<?> permissions) {
+        if (permissions == null || permissions.isEmpty()) {
+            return EMPTY;
+        }
+        int[] indexes = new int[permissions.size()];
+        int max = -1;
+        int i = 0;
+        for (Object permission : permissions) {
+            indexes[i] = PermissionRegistry.intern(permission);
+            max = Math.max(max, indexes[i]);
+            i++;
+        }
+        long[] words = new long[(max >>> 6) + 1];
+        for (int index : indexes) {
+            words[index >>> 6] |= 1L << index;
+        }
+        return new PermissionSet(words);
+    }
+
+    /**
+     * @param index Index of the permission (see {@link PermissionRegistry})
+     * @return Whether the set contains the permission
+     */
+    public boolean contains(int index) {
+        int word = index >>> 6;
+        return index >= 0 && word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return String identifying the permissions of the set (equal sets have equal signatures)
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @param permission Permission
+     * @return Whether the set contains the permission
+     */
+    public boolean contains(Object permission) {
+        return contains(PermissionRegistry.indexOf(permission));
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Compiled representation of the user permissions used in the permission checks of the servlets
+ */
+package com.era7.bioinfo.servletlibraryneo4j.permissions;
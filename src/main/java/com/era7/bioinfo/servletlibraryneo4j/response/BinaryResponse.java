@@ -0,0 +1,116 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.lib.communication.xml.Response;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Response for binary results like files which are streamed to the client
+ * instead of being stored as the text of the response.
+ * <br>The data can be provided as a file, a file channel or an {@link InputStreamSource}.
+ */
+public class BinaryResponse extends Response {
+
+    /**
+     * Content type used when none is specified
+     */
+    public static final String DEFAULT_CONTENT_TYPE = "application/x-download";
+    /**
+     * Value used as length when it is unknown
+     */
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private final String fileName;
+    private final File file;
+    private final FileChannel channel;
+    private final InputStreamSource source;
+    private final long length;
+    private String contentType = DEFAULT_CONTENT_TYPE;
+
+    /**
+     * @param fileName Name of the file for the client
+     * @param file File whose content is sent
+     */
+    public BinaryResponse(String fileName, File file) {
+        this(fileName, file, null, null, file.length());
+    }
+
+    /**
+     * @param fileName Name of the file for the client
+     * @param channel Channel whose content (from position 0) is sent. It is closed once written.
+     * @param length Number of bytes of the channel
+     */
+    public BinaryResponse(String fileName, FileChannel channel, long length) {
+        this(fileName, null, channel, null, length);
+    }
+
+    /**
+     * @param fileName Name of the file for the client
+     * @param source Source of the data
+     * @param length Number of bytes provided by the source or {@link #UNKNOWN_LENGTH}
+     */
+    public BinaryResponse(String fileName, InputStreamSource source, long length) {
+        this(fileName, null, null, source, length);
+    }
+
+    private BinaryResponse(String fileName, File file, FileChannel channel, InputStreamSource source, long length) {
+        super();
+        this.fileName = fileName;
+        this.file = file;
+        this.channel = channel;
+        this.source = source;
+        this.length = length;
+        setStatus(Response.SUCCESSFUL_RESPONSE);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public InputStreamSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return Number of bytes of the data or {@link #UNKNOWN_LENGTH}
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Releases the resources of a response that is not going to be written (its channel is closed,
+     * files and sources are only opened when the response is written)
+     */
+    public void discard() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //--> Nothing else can be done
+            }
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+}
@@ -0,0 +1,201 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes binary responses to the servlet output stream.
+ * <br>The content length is always set before the body is written and single
+ * HTTP byte ranges (<code>Range: bytes=start-end</code>) are supported so that
+ * clients can resume downloads.
+ */
+public final class BinaryResponseWriter {
+
+    /**
+     * Size of the buffer used when the data has to be copied
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private BinaryResponseWriter() {
+    }
+
+    /**
+     * Writes the binary response provided
+     * @param binaryResponse Response to be written
+     * @param request Servlet request (used for the Range header)
+     * @param response Servlet response
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(BinaryResponse binaryResponse, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        long length = binaryResponse.getLength();
+
+        response.setContentType(binaryResponse.getContentType());
+        response.setHeader("Content-Disposition", "attachment; filename=" + binaryResponse.getFileName());
+
+        long start = 0;
+        long count = length;
+
+        if (length != BinaryResponse.UNKNOWN_LENGTH) {
+            response.setHeader("Accept-Ranges", "bytes");
+
+            long[] range = parseRange(request.getHeader("Range"), length);
+            if (range == null) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                closeChannel(binaryResponse);
+                return;
+            }
+            if (range.length == 2) {
+                start = range[0];
+                count = range[1] - range[0] + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+            }
+            setContentLength(response, count);
+        }
+
+        OutputStream out = response.getOutputStream();
+
+        if (binaryResponse.getFile() != null) {
+            FileInputStream fileStream = new FileInputStream(binaryResponse.getFile());
+            try {
+                transfer(fileStream.getChannel(), start, count, out);
+            } finally {
+                fileStream.close();
+            }
+        } else if (binaryResponse.getChannel() != null) {
+            try {
+                transfer(binaryResponse.getChannel(), start, count, out);
+            } finally {
+                closeChannel(binaryResponse);
+            }
+        } else {
+            InputStream in = binaryResponse.getSource().openStream();
+            try {
+                copy(in, start, count, out);
+            } finally {
+                in.close();
+            }
+        }
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Sets the Content-Length header (also for lengths that do not fit in an int)
+     */
+    public static void setContentLength(HttpServletResponse response, long length) {
+        if (length <= Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(length));
+        }
+    }
+
+    /**
+     * Parses a single byte range header
+     * @param header Value of the Range header (may be null)
+     * @param length Total length of the data
+     * @return An empty array when the whole content must be sent (no range, an invalid range or
+     * several ranges), {start, end} (both inclusive) for a satisfiable range or null when the range
+     * cannot be satisfied
+     */
+    static long[] parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            //--> Multiple ranges are not supported, the whole content is sent
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                //--> Suffix range: the last N bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                String endString = spec.substring(dash + 1);
+                if (endString.length() == 0) {
+                    end = length - 1;
+                } else {
+                    end = Long.parseLong(endString);
+                    if (end < start) {
+                        //--> Invalid range (RFC 7233): the header is ignored
+                        return new long[0];
+                    }
+                    end = Math.min(end, length - 1);
+                }
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static void transfer(FileChannel channel, long start, long count, OutputStream out) throws IOException {
+        if (count == BinaryResponse.UNKNOWN_LENGTH) {
+            count = channel.size() - start;
+        }
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = start;
+        long end = start + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+    }
+
+    private static void copy(InputStream in, long start, long count, OutputStream out) throws IOException {
+        long skipped = 0;
+        while (skipped < start) {
+            long current = in.skip(start - skipped);
+            if (current <= 0) {
+                throw new IOException("Unexpected end of binary stream");
+            }
+            skipped += current;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        while (remaining != 0) {
+            int max = remaining < 0 || remaining > buffer.length ? buffer.length : (int) remaining;
+            int read = in.read(buffer, 0, max);
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            if (remaining > 0) {
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void closeChannel(BinaryResponse binaryResponse) throws IOException {
+        if (binaryResponse.getChannel() != null) {
+            binaryResponse.getChannel().close();
+        }
+    }
+}
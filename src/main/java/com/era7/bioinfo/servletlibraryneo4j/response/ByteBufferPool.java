@@ -0,0 +1,51 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the byte chunks responses are serialized into (see {@link ResponseSerializer}).
+ * <br>Reusing the chunks keeps the serialization of every response from allocating large
+ * short-lived arrays.
+ */
+public final class ByteBufferPool {
+
+    /**
+     * Size of the pooled chunks
+     */
+    public static final int CHUNK_SIZE = 8192;
+    /**
+     * Maximum number of idle chunks kept by the pool
+     */
+    public static int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 16;
+
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger IDLE = new AtomicInteger();
+
+    private ByteBufferPool() {
+    }
+
+    /**
+     * @return A chunk of {@link #CHUNK_SIZE} bytes
+     */
+    public static byte[] borrow() {
+        byte[] chunk = POOL.poll();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+        IDLE.decrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * Gives back a chunk obtained with {@link #borrow()}
+     * @param chunk Chunk
+     */
+    public static void release(byte[] chunk) {
+        if (IDLE.incrementAndGet() > MAX_IDLE) {
+            IDLE.decrementAndGet();
+            return;
+        }
+        POOL.offer(chunk);
+    }
+}
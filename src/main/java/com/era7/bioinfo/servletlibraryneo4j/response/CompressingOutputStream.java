@@ -0,0 +1,75 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Output stream compressing its data in the gzip or deflate (zlib) formats with a pooled deflater
+ * (see {@link DeflaterPool}), which is given back to the pool when the stream is closed.
+ */
+public class CompressingOutputStream extends DeflaterOutputStream {
+
+    private static final byte[] GZIP_HEADER = new byte[]{
+        (byte) 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final boolean gzip;
+    private final CRC32 crc;
+    private long size = 0;
+    private boolean released = false;
+
+    /**
+     * @param out Stream receiving the compressed data
+     * @param gzip True for the gzip format, false for the deflate (zlib) format
+     * @throws IOException if an I/O error occurs
+     */
+    public CompressingOutputStream(OutputStream out, boolean gzip) throws IOException {
+        super(out, DeflaterPool.borrow(gzip), BinaryResponseWriter.BUFFER_SIZE / 8);
+        this.gzip = gzip;
+        this.crc = gzip ? new CRC32() : null;
+        if (gzip) {
+            out.write(GZIP_HEADER);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        if (gzip) {
+            crc.update(b, off, len);
+            size += len;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (def.finished()) {
+            return;
+        }
+        super.finish();
+        if (gzip) {
+            writeInt((int) crc.getValue());
+            writeInt((int) size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!released) {
+                released = true;
+                DeflaterPool.release(def, gzip);
+            }
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+}
@@ -0,0 +1,59 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of {@link Deflater} objects used to compress the responses.
+ * <br>Deflaters hold native memory which is only freed when they are ended, so creating one per
+ * response causes allocation and native memory churn; pooled deflaters are reset and reused instead.
+ */
+public final class DeflaterPool {
+
+    /**
+     * Compression level of the pooled deflaters
+     */
+    public static int COMPRESSION_LEVEL = 6;
+    /**
+     * Maximum number of idle deflaters kept by each pool
+     */
+    public static int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 4;
+
+    private static final ConcurrentLinkedQueue<Deflater> GZIP_POOL = new ConcurrentLinkedQueue<Deflater>();
+    private static final ConcurrentLinkedQueue<Deflater> ZLIB_POOL = new ConcurrentLinkedQueue<Deflater>();
+    private static final AtomicInteger GZIP_IDLE = new AtomicInteger();
+    private static final AtomicInteger ZLIB_IDLE = new AtomicInteger();
+
+    private DeflaterPool() {
+    }
+
+    /**
+     * @param nowrap True for raw deflate data (used inside the gzip format), false for the zlib format
+     * @return A deflater ready to be used
+     */
+    public static Deflater borrow(boolean nowrap) {
+        Deflater deflater = (nowrap ? GZIP_POOL : ZLIB_POOL).poll();
+        if (deflater == null) {
+            return new Deflater(COMPRESSION_LEVEL, nowrap);
+        }
+        (nowrap ? GZIP_IDLE : ZLIB_IDLE).decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Gives back a deflater obtained with {@link #borrow(boolean)}
+     * @param deflater Deflater
+     * @param nowrap The same value used to borrow it
+     */
+    public static void release(Deflater deflater, boolean nowrap) {
+        AtomicInteger idle = nowrap ? GZIP_IDLE : ZLIB_IDLE;
+        if (idle.incrementAndGet() > MAX_IDLE) {
+            idle.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        (nowrap ? GZIP_POOL : ZLIB_POOL).offer(deflater);
+    }
+}
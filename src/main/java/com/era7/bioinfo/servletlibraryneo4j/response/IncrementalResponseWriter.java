@@ -0,0 +1,28 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.io.IOException;
+
+/**
+ * Writer of a response sent to the client while the servlet logic produces it
+ * (see {@link ResponseStreamWriter} and {@link PushEventWriter})
+ */
+public interface IncrementalResponseWriter {
+
+    /**
+     * @return Error message set by the servlet logic instead of writing anything (null when there is none)
+     */
+    public String getError();
+
+    /**
+     * Ends the response
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException;
+
+    /**
+     * Ends a response that was already started because of the exception provided, so that the client
+     * knows it is incomplete (nothing is written if it was not started)
+     * @param e Exception that interrupted the response
+     */
+    public void abort(Throwable e);
+}
@@ -0,0 +1,17 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Supplier of the data of a {@link BinaryResponse} that is not backed by a file.
+ * <br>The stream is opened only when the response is written and closed by the writer.
+ */
+public interface InputStreamSource {
+
+    /**
+     * @return A new stream positioned at the beginning of the data
+     * @throws IOException if the stream could not be opened
+     */
+    public InputStream openStream() throws IOException;
+}
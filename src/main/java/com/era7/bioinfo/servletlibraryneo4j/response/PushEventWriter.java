@@ -0,0 +1,504 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import com.era7.lib.communication.xml.Response;
+import com.era7.lib.communication.xml.XMLElement;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLStreamException;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+/**
+ * Pushes partial results and progress events to the client while the graph work produces them.
+ * <br>Clients accepting <code>text/event-stream</code> get server-sent events (<code>start</code> with the
+ * response envelope, <code>result</code>, <code>progress</code>, <code>error</code> and <code>end</code>,
+ * each with one xml element as data). The rest get a chunked xml response (see {@link ResponseStreamWriter})
+ * where progress events are <code>progress</code> elements.
+ * <br>Writes block while the client is slow, so the graph work is held back (backpressure), and progress
+ * events are throttled: only the latest one is sent within each progress interval. Idle connections get a
+ * heartbeat once the response has started (the first result or progress event), so a client that is gone
+ * is detected even while the graph work is silent: the {@link CancellationToken} of the request is cancelled
+ * and the next write (or poll) stops the work. Before that nothing is written, so the servlet logic can
+ * still answer with an error (see {@link #setError(String)}).
+ * <br>The shared heartbeat scheduler never writes: due heartbeats are handed to a separate bounded pool,
+ * and writers that are busy writing (or already sending a heartbeat) are skipped, as are heartbeats due
+ * while every thread of the pool is busy.
+ */
+public class PushEventWriter implements IncrementalResponseWriter {
+
+    /**
+     * Content type of server-sent events
+     */
+    public static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream";
+
+    /**
+     * Maximum number of threads writing heartbeats
+     */
+    public static int HEARTBEAT_WRITER_THREADS = 4;
+
+    private static final byte[] HEARTBEAT_EVENT = bytes(": keep-alive\n\n");
+    private static ScheduledExecutorService HEARTBEATS = null;
+    private static ExecutorService HEARTBEAT_WRITERS = null;
+
+    private final Response envelope;
+    private final HttpServletResponse httpResponse;
+    private final CancellationToken token;
+    private final boolean eventStream;
+    private final ResponseStreamWriter xmlWriter;
+    private final XMLOutputter outputter = new XMLOutputter(Format.getCompactFormat().setOmitDeclaration(true));
+    private final long progressInterval;
+    private final ScheduledFuture<?> heartbeat;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean heartbeatPending = new AtomicBoolean(false);
+    private OutputStream out = null;
+    private long lastWrite = System.currentTimeMillis();
+    private long lastFlush = 0;
+    private long lastProgress = 0;
+    private Element pendingProgress = null;
+    private long eventId = 0;
+    private String error = null;
+    private boolean finished = false;
+
+    /**
+     * @param envelope Response whose root element (id, method, status...) wraps the pushed elements
+     * @param httpRequest Servlet request
+     * @param httpResponse Servlet response
+     * @param progressInterval Minimum time (in milliseconds) between two progress events
+     * @param heartbeatInterval Time (in milliseconds) without writes after which a heartbeat is sent (0 for none)
+     */
+    public PushEventWriter(Response envelope, HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+            long progressInterval, long heartbeatInterval) {
+
+        this.envelope = envelope;
+        this.httpResponse = httpResponse;
+        this.token = CancellationToken.get(httpRequest);
+        this.progressInterval = progressInterval;
+        String accept = httpRequest.getHeader("Accept");
+        this.eventStream = accept != null && accept.contains(EVENT_STREAM_CONTENT_TYPE);
+        this.xmlWriter = eventStream ? null : new ResponseStreamWriter(envelope, httpRequest, httpResponse);
+
+        if (heartbeatInterval > 0) {
+            heartbeat = getHeartbeats().scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    scheduleHeartbeat();
+                }
+            }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+        } else {
+            heartbeat = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getHeartbeats() {
+        if (HEARTBEATS == null) {
+            HEARTBEATS = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "push-heartbeat");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return HEARTBEATS;
+    }
+
+    /**
+     * @return The pool writing the heartbeats (a heartbeat blocked on a slow client only holds its own thread)
+     */
+    private static synchronized ExecutorService getHeartbeatWriters() {
+        if (HEARTBEAT_WRITERS == null) {
+            //--> No queue: a heartbeat that finds every thread busy is skipped until the next period
+            HEARTBEAT_WRITERS = new ThreadPoolExecutor(0, Math.max(1, HEARTBEAT_WRITER_THREADS), 60,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "push-heartbeat-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return HEARTBEAT_WRITERS;
+    }
+
+    /**
+     * Stops the heartbeats of every writer (on application shutdown)
+     */
+    public static synchronized void shutdown() {
+        if (HEARTBEATS != null) {
+            HEARTBEATS.shutdownNow();
+            HEARTBEATS = null;
+        }
+        if (HEARTBEAT_WRITERS != null) {
+            HEARTBEAT_WRITERS.shutdownNow();
+            HEARTBEAT_WRITERS = null;
+        }
+    }
+
+    /**
+     * @return Whether the client gets server-sent events (or a chunked xml response otherwise)
+     */
+    public boolean isEventStream() {
+        return eventStream;
+    }
+
+    /**
+     * Pushes a partial result
+     * @param element Result element
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeResult(XMLElement element) throws IOException {
+        writeResult(element.getRoot());
+    }
+
+    /**
+     * Pushes a partial result
+     * @param element Result element
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeResult(Element element) throws IOException {
+        lock.lock();
+        try {
+            check();
+            writeEvent("result", element);
+            flushIfDue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports the progress of the graph work (throttled to one event per progress interval)
+     * @param done Work done so far
+     * @param total Total work (0 or negative if it is not known)
+     * @param message Optional message
+     * @throws IOException if an I/O error occurs
+     */
+    public void progress(long done, long total, String message) throws IOException {
+        Element progress = new Element("progress");
+        progress.setAttribute("done", String.valueOf(done));
+        if (total > 0) {
+            progress.setAttribute("total", String.valueOf(total));
+        }
+        if (message != null) {
+            progress.setText(message);
+        }
+        lock.lock();
+        try {
+            check();
+            pendingProgress = progress;
+            if (System.currentTimeMillis() - lastProgress >= progressInterval) {
+                writePendingProgress();
+                flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the request answer with a standard error response.
+     * It can only be called before anything has been pushed.
+     * @param message Error message
+     */
+    public void setError(String message) {
+        lock.lock();
+        try {
+            if (isStarted()) {
+                throw new IllegalStateException("The response has already been started");
+            }
+            this.error = message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getError() {
+        lock.lock();
+        try {
+            return error;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Whether the response has already been started
+     */
+    public boolean isStarted() {
+        lock.lock();
+        try {
+            return eventStream ? out != null : xmlWriter.isStarted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the response (the latest pending progress is sent first)
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void finish() throws IOException {
+        stopHeartbeat();
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            writePendingProgress();
+            if (eventStream) {
+                writeEvent("end", null);
+                out.flush();
+                out.close();
+            } else {
+                xmlWriter.finish();
+            }
+        } finally {
+            finished = true;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a response that was already started because of the exception provided with an
+     * <code>error</code> event (or element), so that the client knows it is incomplete.
+     * @param e Exception that interrupted the response
+     */
+    @Override
+    public void abort(Throwable e) {
+        stopHeartbeat();
+        lock.lock();
+        try {
+            if (!isStarted() || finished) {
+                return;
+            }
+            if (!eventStream) {
+                xmlWriter.abort(e);
+                finished = true;
+                return;
+            }
+            try {
+                Element errorElement = new Element("error");
+                errorElement.setText(String.valueOf(e.getMessage()));
+                writeEvent("error", errorElement);
+                out.flush();
+                out.close();
+            } catch (Exception ex) {
+                //--> The client is most likely gone, nothing else can be done
+            } finally {
+                finished = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+    }
+
+    /**
+     * Stops the graph work once the request has been cancelled
+     */
+    private void check() {
+        if (token != null) {
+            token.check();
+        }
+    }
+
+    /**
+     * Runs on the shared scheduler: it only hands the heartbeat to the writers pool, unless the previous
+     * heartbeat of this writer is still being written
+     */
+    private void scheduleHeartbeat() {
+        if (lock.isLocked() || !heartbeatPending.compareAndSet(false, true)) {
+            //--> Busy writing, so there is no need for a heartbeat
+            return;
+        }
+        try {
+            getHeartbeatWriters().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        heartbeat();
+                    } finally {
+                        heartbeatPending.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //--> Every heartbeat writer is busy (or shutting down)
+            heartbeatPending.set(false);
+        }
+    }
+
+    private void heartbeat() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            writeHeartbeat();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeHeartbeat() {
+        if (finished || error != null || (token != null && token.isCancelled())) {
+            stopHeartbeat();
+            return;
+        }
+        if (!isStarted() || System.currentTimeMillis() - lastWrite < progressInterval) {
+            //--> Nothing is written before the servlet logic starts the response (it may set an error)
+            return;
+        }
+        try {
+            if (pendingProgress != null) {
+                writePendingProgress();
+            } else if (eventStream) {
+                out.write(HEARTBEAT_EVENT);
+            } else {
+                xmlWriter.getXMLStreamWriter().writeComment("keep-alive");
+            }
+            flush();
+        } catch (RequestCancelledException e) {
+            stopHeartbeat();
+        } catch (IOException e) {
+            stopHeartbeat();
+        } catch (XMLStreamException e) {
+            stopHeartbeat();
+        }
+    }
+
+    private void writePendingProgress() throws IOException {
+        if (pendingProgress != null) {
+            Element progress = pendingProgress;
+            pendingProgress = null;
+            lastProgress = System.currentTimeMillis();
+            writeEvent("progress", progress);
+        }
+    }
+
+    private void writeEvent(String name, Element element) throws IOException {
+        try {
+            if (!eventStream) {
+                if (element != null) {
+                    xmlWriter.writeElement(element);
+                }
+            } else {
+                start();
+                StringBuilder builder = new StringBuilder(128);
+                builder.append("id: ").append(++eventId).append("\nevent: ").append(name).append('\n');
+                appendData(builder, element == null ? "" : outputter.outputString(element));
+                out.write(bytes(builder.toString()));
+            }
+        } catch (IOException e) {
+            disconnected();
+            throw e;
+        }
+        lastWrite = System.currentTimeMillis();
+    }
+
+    private void flushIfDue() throws IOException {
+        if (System.currentTimeMillis() - lastFlush >= progressInterval) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        try {
+            if (eventStream) {
+                if (out != null) {
+                    out.flush();
+                }
+            } else {
+                xmlWriter.flush();
+            }
+        } catch (IOException e) {
+            disconnected();
+            throw e;
+        }
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Cancels the request when the client is gone (the graph work stops)
+     */
+    private void disconnected() {
+        if (token != null) {
+            token.cancel(CancellationToken.Reason.DISCONNECTED);
+            throw new RequestCancelledException(CancellationToken.Reason.DISCONNECTED);
+        }
+    }
+
+    private void start() throws IOException {
+        if (out != null) {
+            return;
+        }
+        if (error != null) {
+            throw new IllegalStateException("An error has already been set for this response");
+        }
+        if (token != null && !token.claimResponse()) {
+            //--> The timeout response has already been written
+            throw new RequestCancelledException(CancellationToken.Reason.DEADLINE);
+        }
+        httpResponse.setContentType(EVENT_STREAM_CONTENT_TYPE);
+        httpResponse.setCharacterEncoding("UTF-8");
+        httpResponse.setHeader("Cache-Control", "no-cache");
+        //--> Reverse proxies must not buffer the events
+        httpResponse.setHeader("X-Accel-Buffering", "no");
+        out = httpResponse.getOutputStream();
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("event: start\n");
+        appendData(builder, outputter.outputString(envelope.getRoot()));
+        out.write(bytes(builder.toString()));
+        out.flush();
+    }
+
+    private static void appendData(StringBuilder builder, String data) {
+        if (data.indexOf('\r') >= 0) {
+            data = data.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        int start = 0;
+        int end;
+        while ((end = data.indexOf('\n', start)) >= 0) {
+            builder.append("data: ").append(data, start, end).append('\n');
+            start = end + 1;
+        }
+        builder.append("data: ").append(data, start, data.length()).append("\n\n");
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
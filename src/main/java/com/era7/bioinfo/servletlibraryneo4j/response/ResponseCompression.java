@@ -0,0 +1,85 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Negotiated (<code>Accept-Encoding</code>) gzip/deflate compression of the responses
+ */
+public final class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    /**
+     * Default minimum size (in bytes) of a response to be compressed
+     */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * @param request Servlet request
+     * @return The encoding to be used ({@link #GZIP} or {@link #DEFLATE}) or null when the client
+     * does not accept any of them
+     */
+    public static String negotiate(HttpServletRequest request) {
+        String header = request == null ? null : request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String token : header.split(",")) {
+            String coding = token.trim();
+            int semicolon = coding.indexOf(';');
+            if (semicolon >= 0) {
+                if (isZeroQuality(coding.substring(semicolon + 1))) {
+                    continue;
+                }
+                coding = coding.substring(0, semicolon).trim();
+            }
+            if (coding.equalsIgnoreCase(GZIP) || coding.equals("*")) {
+                return GZIP;
+            }
+            if (coding.equalsIgnoreCase(DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * Opens the output stream of the response, compressing it when the client accepts it
+     * @param request Servlet request
+     * @param response Servlet response
+     * @return The stream, which must be closed so that the compressed data is completed
+     * @throws IOException if an I/O error occurs
+     */
+    public static OutputStream openStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String encoding = negotiate(request);
+        if (encoding == null) {
+            return response.getOutputStream();
+        }
+        setHeaders(response, encoding);
+        return new CompressingOutputStream(response.getOutputStream(), encoding.equals(GZIP));
+    }
+
+    private static void setHeaders(HttpServletResponse response, String encoding) {
+        response.setHeader("Content-Encoding", encoding);
+        response.addHeader("Vary", "Accept-Encoding");
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        String value = parameters.trim();
+        if (!value.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Float.parseFloat(value.substring(2).trim()) == 0f;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
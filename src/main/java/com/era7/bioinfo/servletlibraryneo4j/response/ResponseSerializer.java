@@ -0,0 +1,303 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.lib.communication.xml.Response;
+import com.era7.lib.communication.xml.XMLElement;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jdom.Attribute;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.EntityRef;
+import org.jdom.Namespace;
+import org.jdom.ProcessingInstruction;
+import org.jdom.Text;
+
+/**
+ * Serializes responses straight into UTF-8 bytes (see {@link SerializedResponse}), walking their element
+ * tree instead of building the xml String first and encoding it afterwards.
+ * <br>The output is the one of the (raw) JDOM <code>XMLOutputter</code> followed by a line separator,
+ * as sent so far with <code>PrintWriter.println</code>. The bytes of element and attribute names and of
+ * the standard status values are computed once and reused.
+ */
+public final class ResponseSerializer {
+
+    /**
+     * Maximum number of element and attribute names whose bytes are kept
+     */
+    public static int MAX_CACHED_NAMES = 1024;
+
+    private static final byte[] LINE_SEPARATOR = utf8(System.getProperty("line.separator"));
+    private static final byte[] EMPTY_ELEMENT_END = utf8(" />");
+    private static final byte[] CDATA_START = utf8("<![CDATA[");
+    private static final byte[] CDATA_END = utf8("]]>");
+    private static final byte[] COMMENT_START = utf8("<!--");
+    private static final byte[] COMMENT_END = utf8("-->");
+    private static final byte[] PI_START = utf8("<?");
+    private static final byte[] PI_END = utf8("?>");
+    private static final byte[] XMLNS = utf8(" xmlns");
+    private static final byte[] AMP = utf8("&amp;");
+    private static final byte[] LT = utf8("&lt;");
+    private static final byte[] GT = utf8("&gt;");
+    private static final byte[] QUOT = utf8("&quot;");
+    private static final byte[] TAB = utf8("&#x9;");
+    private static final byte[] LF = utf8("&#xA;");
+    private static final byte[] CR = utf8("&#xD;");
+    private static final byte[] TEXT_LF = utf8("\r\n");
+
+    private static final ConcurrentHashMap<String, byte[]> START_TAGS = new ConcurrentHashMap<String, byte[]>();
+    private static final ConcurrentHashMap<String, byte[]> END_TAGS = new ConcurrentHashMap<String, byte[]>();
+    private static final ConcurrentHashMap<String, byte[]> ATTRIBUTE_STARTS = new ConcurrentHashMap<String, byte[]>();
+    private static final ConcurrentHashMap<String, byte[]> VALUES = new ConcurrentHashMap<String, byte[]>();
+
+    static {
+        //--> Envelope of the responses
+        for (String name : new String[]{Response.TAG_NAME, "status", "id", "method", "error"}) {
+            START_TAGS.put(name, utf8("<" + name));
+            END_TAGS.put(name, utf8("</" + name + ">"));
+            ATTRIBUTE_STARTS.put(name, utf8(" " + name + "=\""));
+        }
+        for (String value : new String[]{Response.SUCCESSFUL_RESPONSE, Response.ERROR_RESPONSE,
+                    Response.NO_SESSION_RESPONSE}) {
+            VALUES.put(value, utf8(value));
+        }
+    }
+
+    private ResponseSerializer() {
+    }
+
+    /**
+     * @param element Response (or any other xml element)
+     * @return The serialized bytes, which must be written or released
+     */
+    public static SerializedResponse serialize(XMLElement element) {
+        return serialize(element.getRoot());
+    }
+
+    /**
+     * @param root Root element
+     * @return The serialized bytes, which must be written or released
+     */
+    public static SerializedResponse serialize(Element root) {
+        SerializedResponse out = new SerializedResponse();
+        try {
+            writeElement(out, root, new ArrayList<Namespace>());
+            out.write(LINE_SEPARATOR);
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+        return out;
+    }
+
+    private static void writeElement(SerializedResponse out, Element element, List<Namespace> scope) {
+        String name = element.getQualifiedName();
+        out.write(getBytes(START_TAGS, name, "<", ""));
+
+        int declared = scope.size();
+        writeNamespace(out, element.getNamespace(), scope);
+        for (Object additional : element.getAdditionalNamespaces()) {
+            writeNamespace(out, (Namespace) additional, scope);
+        }
+        for (Object attribute : element.getAttributes()) {
+            Attribute current = (Attribute) attribute;
+            if (current.getNamespacePrefix().length() > 0) {
+                //--> Attributes without prefix are never in the default namespace
+                writeNamespace(out, current.getNamespace(), scope);
+            }
+            out.write(getBytes(ATTRIBUTE_STARTS, current.getQualifiedName(), " ", "=\""));
+            String value = current.getValue();
+            byte[] cached = VALUES.get(value);
+            if (cached != null) {
+                out.write(cached);
+            } else {
+                writeEscaped(out, value, true);
+            }
+            out.write('"');
+        }
+
+        List<?> contents = element.getContent();
+        if (contents.isEmpty()) {
+            out.write(EMPTY_ELEMENT_END);
+        } else {
+            out.write('>');
+            for (Object content : contents) {
+                if (content instanceof Element) {
+                    writeElement(out, (Element) content, scope);
+                } else if (content instanceof CDATA) {
+                    out.write(CDATA_START);
+                    writeText(out, ((CDATA) content).getText());
+                    out.write(CDATA_END);
+                } else if (content instanceof Text) {
+                    writeEscaped(out, ((Text) content).getText(), false);
+                } else if (content instanceof Comment) {
+                    out.write(COMMENT_START);
+                    writeText(out, ((Comment) content).getText());
+                    out.write(COMMENT_END);
+                } else if (content instanceof EntityRef) {
+                    out.write('&');
+                    writeText(out, ((EntityRef) content).getName());
+                    out.write(';');
+                } else if (content instanceof ProcessingInstruction) {
+                    ProcessingInstruction instruction = (ProcessingInstruction) content;
+                    out.write(PI_START);
+                    writeText(out, instruction.getTarget());
+                    if (instruction.getData().length() > 0) {
+                        out.write(' ');
+                        writeText(out, instruction.getData());
+                    }
+                    out.write(PI_END);
+                }
+            }
+            out.write(getBytes(END_TAGS, name, "</", ">"));
+        }
+
+        //--> Namespaces declared by this element go out of scope
+        while (scope.size() > declared) {
+            scope.remove(scope.size() - 1);
+        }
+    }
+
+    /**
+     * Declares the namespace provided unless it is already in scope
+     */
+    private static void writeNamespace(SerializedResponse out, Namespace namespace, List<Namespace> scope) {
+        String prefix = namespace.getPrefix();
+        String uri = namespace.getURI();
+        if (prefix.equals("xml")) {
+            return;
+        }
+        for (int i = scope.size() - 1; i >= 0; i--) {
+            Namespace current = scope.get(i);
+            if (current.getPrefix().equals(prefix)) {
+                if (current.getURI().equals(uri)) {
+                    return;
+                }
+                break;
+            }
+        }
+        if (uri.length() == 0 && prefix.length() == 0 && !hasPrefix(scope, "")) {
+            //--> No namespace, nothing to undeclare
+            return;
+        }
+        out.write(XMLNS);
+        if (prefix.length() > 0) {
+            out.write(':');
+            writeText(out, prefix);
+        }
+        out.write('=');
+        out.write('"');
+        writeEscaped(out, uri, true);
+        out.write('"');
+        scope.add(namespace);
+    }
+
+    private static boolean hasPrefix(List<Namespace> scope, String prefix) {
+        for (Namespace namespace : scope) {
+            if (namespace.getPrefix().equals(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] getBytes(ConcurrentHashMap<String, byte[]> cache, String name, String before, String after) {
+        byte[] bytes = cache.get(name);
+        if (bytes == null) {
+            bytes = utf8(before + name + after);
+            if (cache.size() < MAX_CACHED_NAMES) {
+                cache.put(name, bytes);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the text provided escaping it as the JDOM <code>XMLOutputter</code> does
+     */
+    private static void writeEscaped(SerializedResponse out, String text, boolean attribute) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write(AMP);
+                    break;
+                case '<':
+                    out.write(LT);
+                    break;
+                case '>':
+                    out.write(GT);
+                    break;
+                case '\r':
+                    out.write(CR);
+                    break;
+                case '"':
+                    if (attribute) {
+                        out.write(QUOT);
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+                case '\t':
+                    if (attribute) {
+                        out.write(TAB);
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+                case '\n':
+                    out.write(attribute ? LF : TEXT_LF);
+                    break;
+                default:
+                    i = writeChar(out, text, i, c);
+            }
+        }
+    }
+
+    private static void writeText(SerializedResponse out, String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            i = writeChar(out, text, i, text.charAt(i));
+        }
+    }
+
+    /**
+     * Encodes the character at the index provided in UTF-8
+     * @return The index of the last character used (surrogate pairs use two)
+     */
+    private static int writeChar(SerializedResponse out, String text, int i, char c) {
+        if (c < 0x80) {
+            out.write(c);
+        } else if (c < 0x800) {
+            out.write(0xc0 | (c >> 6));
+            out.write(0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            out.write(0xf0 | (codePoint >> 18));
+            out.write(0x80 | ((codePoint >> 12) & 0x3f));
+            out.write(0x80 | ((codePoint >> 6) & 0x3f));
+            out.write(0x80 | (codePoint & 0x3f));
+            return i + 1;
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            //--> Unpaired surrogate, replaced as the UTF-8 encoder of the JDK does
+            out.write('?');
+        } else {
+            out.write(0xe0 | (c >> 12));
+            out.write(0x80 | ((c >> 6) & 0x3f));
+            out.write(0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    private static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
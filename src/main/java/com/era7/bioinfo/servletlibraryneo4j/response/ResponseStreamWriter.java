@@ -0,0 +1,268 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import com.era7.lib.communication.xml.Response;
+import com.era7.lib.communication.xml.XMLElement;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.jdom.Attribute;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.Text;
+
+/**
+ * Incremental writer for responses whose content is produced while the graph is traversed.
+ * <br>The response envelope (the root element of the response with its id, method, status...)
+ * is written the first time an element is written, so elements reach the client as soon as
+ * they are produced and the whole result never has to be held in memory.
+ * <br>The output is compressed when the client accepts it (see {@link ResponseCompression}).
+ * <br>As long as nothing has been written yet, {@link #setError(String)} can be used to answer
+ * with a standard error response instead.
+ * <br>Every write polls the {@link CancellationToken} of the request, so streaming stops once the
+ * deadline passes or the client is gone.
+ */
+public class ResponseStreamWriter implements IncrementalResponseWriter {
+
+    /**
+     * Number of elements written between two flushes of the output stream
+     */
+    public static int FLUSH_INTERVAL = 256;
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private final Response envelope;
+    private final HttpServletRequest httpRequest;
+    private final HttpServletResponse httpResponse;
+    private final CancellationToken token;
+    private OutputStream out = null;
+    private XMLStreamWriter xmlWriter = null;
+    private String error = null;
+    private int pendingElements = 0;
+    private long writtenElements = 0;
+    private boolean finished = false;
+
+    /**
+     * @param envelope Response whose root element (attributes and current children) wraps the streamed elements
+     * @param httpRequest Servlet request
+     * @param httpResponse Servlet response
+     */
+    public ResponseStreamWriter(Response envelope, HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
+        this.envelope = envelope;
+        this.httpRequest = httpRequest;
+        this.httpResponse = httpResponse;
+        this.token = CancellationToken.get(httpRequest);
+    }
+
+    /**
+     * Writes the element provided as a child of the response
+     * @param element Element to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeElement(XMLElement element) throws IOException {
+        writeElement(element.getRoot());
+    }
+
+    /**
+     * Writes the element provided as a child of the response
+     * @param element Element to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeElement(Element element) throws IOException {
+        if (token != null) {
+            token.check();
+        }
+        try {
+            writeJdomElement(getXMLStreamWriter(), element);
+            writtenElements++;
+            if (++pendingElements >= FLUSH_INTERVAL) {
+                flush();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Gives direct access to the underlying StAX writer (the envelope is started if needed).
+     * Elements written through it must be well balanced.
+     * @return The StAX writer
+     * @throws IOException if an I/O error occurs
+     */
+    public XMLStreamWriter getXMLStreamWriter() throws IOException {
+        if (error != null) {
+            throw new IllegalStateException("An error has already been set for this response");
+        }
+        if (xmlWriter == null) {
+            start();
+        }
+        return xmlWriter;
+    }
+
+    /**
+     * Sends the elements written so far to the client
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush() throws IOException {
+        if (xmlWriter != null) {
+            try {
+                xmlWriter.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage());
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                disconnected();
+                throw e;
+            }
+            pendingElements = 0;
+        }
+    }
+
+    /**
+     * Makes the request answer with a standard error response.
+     * It can only be called before anything has been written.
+     * @param message Error message
+     */
+    public void setError(String message) {
+        if (isStarted()) {
+            throw new IllegalStateException("The response has already been started");
+        }
+        this.error = message;
+    }
+
+    @Override
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return Whether the response envelope has already been sent to the client
+     */
+    public boolean isStarted() {
+        return xmlWriter != null;
+    }
+
+    /**
+     * @return Number of elements written so far
+     */
+    public long getWrittenElements() {
+        return writtenElements;
+    }
+
+    /**
+     * Closes the response envelope (it is started if nothing was written)
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            getXMLStreamWriter().writeEndElement();
+            xmlWriter.writeEndDocument();
+            xmlWriter.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            finished = true;
+        }
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Ends a response that was already started because of the exception provided,
+     * appending an <code>error</code> element so that the client knows it is incomplete.
+     * @param e Exception that interrupted the response
+     */
+    @Override
+    public void abort(Throwable e) {
+        if (!isStarted() || finished) {
+            return;
+        }
+        try {
+            xmlWriter.writeStartElement("error");
+            xmlWriter.writeCharacters(String.valueOf(e.getMessage()));
+            xmlWriter.writeEndElement();
+            finish();
+        } catch (Exception ex) {
+            //--> The client is most likely gone, nothing else can be done
+            finished = true;
+        }
+    }
+
+    /**
+     * Cancels the request when the client is gone (the work producing the response stops)
+     */
+    private void disconnected() {
+        if (token != null) {
+            token.cancel(CancellationToken.Reason.DISCONNECTED);
+            throw new RequestCancelledException(CancellationToken.Reason.DISCONNECTED);
+        }
+    }
+
+    private void start() throws IOException {
+        if (token != null && !token.claimResponse()) {
+            //--> The timeout response has already been written
+            throw new RequestCancelledException(CancellationToken.Reason.DEADLINE);
+        }
+        httpResponse.setContentType("text/html");
+        httpResponse.setCharacterEncoding("UTF-8");
+        out = ResponseCompression.openStream(httpRequest, httpResponse);
+        try {
+            xmlWriter = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            Element root = envelope.getRoot();
+            xmlWriter.writeStartElement(root.getQualifiedName());
+            writeAttributes(xmlWriter, root);
+            for (Object content : root.getContent()) {
+                writeJdomContent(xmlWriter, content);
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static void writeJdomElement(XMLStreamWriter writer, Element element) throws XMLStreamException {
+        List<?> contents = element.getContent();
+        if (contents.isEmpty()) {
+            writer.writeEmptyElement(element.getQualifiedName());
+            writeAttributes(writer, element);
+        } else {
+            writer.writeStartElement(element.getQualifiedName());
+            writeAttributes(writer, element);
+            for (Object content : contents) {
+                writeJdomContent(writer, content);
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    private static void writeJdomContent(XMLStreamWriter writer, Object content) throws XMLStreamException {
+        if (content instanceof Element) {
+            writeJdomElement(writer, (Element) content);
+        } else if (content instanceof CDATA) {
+            writer.writeCData(((CDATA) content).getText());
+        } else if (content instanceof Text) {
+            writer.writeCharacters(((Text) content).getText());
+        } else if (content instanceof Comment) {
+            writer.writeComment(((Comment) content).getText());
+        }
+    }
+
+    private static void writeAttributes(XMLStreamWriter writer, Element element) throws XMLStreamException {
+        for (Object attribute : element.getAttributes()) {
+            Attribute current = (Attribute) attribute;
+            writer.writeAttribute(current.getQualifiedName(), current.getValue());
+        }
+    }
+}
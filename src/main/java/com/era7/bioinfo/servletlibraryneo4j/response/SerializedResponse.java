@@ -0,0 +1,114 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * UTF-8 bytes of a serialized response held in pooled chunks (see {@link ByteBufferPool}), which
+ * are given back to the pool once the response has been written.
+ */
+public final class SerializedResponse {
+
+    private final List<byte[]> chunks = new ArrayList<byte[]>(4);
+    private byte[] current;
+    private int position = 0;
+    private int size = 0;
+
+    SerializedResponse() {
+        current = ByteBufferPool.borrow();
+        chunks.add(current);
+    }
+
+    void write(int b) {
+        if (position == current.length) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    void write(byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == current.length) {
+                nextChunk();
+            }
+            int length = Math.min(bytes.length - offset, current.length - position);
+            System.arraycopy(bytes, offset, current, position, length);
+            position += length;
+            offset += length;
+        }
+        size += bytes.length;
+    }
+
+    private void nextChunk() {
+        current = ByteBufferPool.borrow();
+        chunks.add(current);
+        position = 0;
+    }
+
+    /**
+     * @return Number of bytes of the response
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the bytes of the response to the stream provided
+     * @param out Output stream
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int remaining = size;
+        for (byte[] chunk : chunks) {
+            int length = Math.min(remaining, chunk.length);
+            out.write(chunk, 0, length);
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Writes the response (with its Content-Length), compressed when it is at least <code>minSize</code>
+     * bytes long and the client accepts it (see {@link ResponseCompression}). The chunks are released.
+     * @param request Servlet request
+     * @param response Servlet response (its content type must already be set)
+     * @param minSize Minimum size (in bytes) for the response to be compressed, a negative value disables compression
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response, int minSize) throws IOException {
+        try {
+            String encoding = minSize < 0 || size < minSize ? null : ResponseCompression.negotiate(request);
+            response.setCharacterEncoding("UTF-8");
+            OutputStream out;
+            if (encoding == null) {
+                response.setContentLength(size);
+                out = response.getOutputStream();
+            } else {
+                out = ResponseCompression.openStream(request, response);
+            }
+            try {
+                writeTo(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Gives the chunks back to the pool (the response cannot be written afterwards)
+     */
+    public void release() {
+        for (byte[] chunk : chunks) {
+            ByteBufferPool.release(chunk);
+        }
+        chunks.clear();
+        current = null;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Response types and writers used by the servlets to send their results to the client
+ */
+package com.era7.bioinfo.servletlibraryneo4j.response;
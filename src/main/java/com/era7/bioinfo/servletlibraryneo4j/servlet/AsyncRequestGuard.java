@@ -0,0 +1,1043 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.RequestTimer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+
+/**
+ * Request and response handed to the worker running an async request of a {@link BasicServletNeo4j}.
+ * <br>The container may recycle the request and response as soon as the async context is completed, which
+ * happens while the worker is still running when the deadline passes. The worker therefore only sees
+ * wrappers: the cancellation token and the request timer are captured when the request is dispatched (they
+ * are never read back from the request), and once the guard is closed every other call fails with a
+ * {@link RequestCancelledException} instead of reaching the recycled objects.
+ * <br>Request calls only read the closed flag. Response calls (writes included) are counted as well, so
+ * closing the guard waits for the ones in progress, for a bounded time (see {@link #close(long)}).
+ */
+final class AsyncRequestGuard {
+
+    /**
+     * Time (in nanoseconds) between two checks of the response calls in progress while closing
+     */
+    private static final long CLOSE_POLL = 100000;
+
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CancellationToken token;
+    private final RequestTimer timer;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private volatile boolean closed = false;
+    private ServletOutputStream outputStream = null;
+    private PrintWriter writer = null;
+
+    AsyncRequestGuard(HttpServletRequest asyncRequest, HttpServletResponse asyncResponse,
+            CancellationToken token, RequestTimer timer) {
+
+        this.token = token;
+        this.timer = timer;
+        this.request = new GuardedRequest(asyncRequest);
+        this.response = new GuardedResponse(asyncResponse);
+    }
+
+    /**
+     * @return The request the worker must use
+     */
+    HttpServletRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return The response the worker must use
+     */
+    HttpServletResponse getResponse() {
+        return response;
+    }
+
+    RequestTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * Called by the worker once it does not need the request and response anymore
+     */
+    void release() {
+        released.countDown();
+    }
+
+    /**
+     * Waits until the worker releases the request and response
+     * @param timeout Maximum time to wait (milliseconds)
+     */
+    void awaitRelease(long timeout) throws InterruptedException {
+        released.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cuts the worker off the request and response (it must be called before completing the async context).
+     * <br>New calls fail straight away; the response calls in progress (a write blocked on a slow client, for
+     * example) are waited for up to the timeout provided, then the response is given up on.
+     * @param timeout Maximum time to wait for the response calls in progress (milliseconds)
+     * @return Whether no response call was in progress anymore
+     */
+    boolean close(long timeout) {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (calls.get() > 0) {
+            if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            LockSupport.parkNanos(CLOSE_POLL);
+        }
+        return true;
+    }
+
+    /**
+     * Fails once the guard has been closed
+     */
+    private void check() {
+        if (closed) {
+            throw cancelled();
+        }
+    }
+
+    /**
+     * Counts a response call in progress (it fails once the guard has been closed)
+     */
+    private void enter() {
+        calls.incrementAndGet();
+        if (closed) {
+            calls.decrementAndGet();
+            throw cancelled();
+        }
+    }
+
+    private void exit() {
+        calls.decrementAndGet();
+    }
+
+    private RequestCancelledException cancelled() {
+        CancellationToken.Reason reason = token == null ? null : token.getReason();
+        return new RequestCancelledException(reason == null ? CancellationToken.Reason.DEADLINE : reason);
+    }
+
+    /**
+     * Request of the worker: the token and timer are answered by the guard, every other call fails
+     * once it has been closed
+     */
+    private final class GuardedRequest extends HttpServletRequestWrapper {
+
+        GuardedRequest(HttpServletRequest asyncRequest) {
+            super(asyncRequest);
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            if (CancellationToken.REQUEST_ATTRIBUTE.equals(name)) {
+                return token;
+            } else if (RequestTimer.REQUEST_ATTRIBUTE.equals(name)) {
+                return timer;
+            }
+            check();
+            return super.getAttribute(name);
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            check();
+            return super.getRequest();
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames() {
+            check();
+            return super.getAttributeNames();
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            check();
+            return super.getCharacterEncoding();
+        }
+
+        @Override
+        public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+            check();
+            super.setCharacterEncoding(env);
+        }
+
+        @Override
+        public int getContentLength() {
+            check();
+            return super.getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            check();
+            return super.getContentType();
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            check();
+            return super.getInputStream();
+        }
+
+        @Override
+        public String getParameter(String name) {
+            check();
+            return super.getParameter(name);
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            check();
+            return super.getParameterMap();
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            check();
+            return super.getParameterNames();
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            check();
+            return super.getParameterValues(name);
+        }
+
+        @Override
+        public String getProtocol() {
+            check();
+            return super.getProtocol();
+        }
+
+        @Override
+        public String getScheme() {
+            check();
+            return super.getScheme();
+        }
+
+        @Override
+        public String getServerName() {
+            check();
+            return super.getServerName();
+        }
+
+        @Override
+        public int getServerPort() {
+            check();
+            return super.getServerPort();
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            check();
+            return super.getReader();
+        }
+
+        @Override
+        public String getRemoteAddr() {
+            check();
+            return super.getRemoteAddr();
+        }
+
+        @Override
+        public String getRemoteHost() {
+            check();
+            return super.getRemoteHost();
+        }
+
+        @Override
+        public void setAttribute(String name, Object o) {
+            check();
+            super.setAttribute(name, o);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            check();
+            super.removeAttribute(name);
+        }
+
+        @Override
+        public Locale getLocale() {
+            check();
+            return super.getLocale();
+        }
+
+        @Override
+        public Enumeration<Locale> getLocales() {
+            check();
+            return super.getLocales();
+        }
+
+        @Override
+        public boolean isSecure() {
+            check();
+            return super.isSecure();
+        }
+
+        @Override
+        public RequestDispatcher getRequestDispatcher(String path) {
+            check();
+            return super.getRequestDispatcher(path);
+        }
+
+        @Override
+        @Deprecated
+        public String getRealPath(String path) {
+            check();
+            return super.getRealPath(path);
+        }
+
+        @Override
+        public int getRemotePort() {
+            check();
+            return super.getRemotePort();
+        }
+
+        @Override
+        public String getLocalName() {
+            check();
+            return super.getLocalName();
+        }
+
+        @Override
+        public String getLocalAddr() {
+            check();
+            return super.getLocalAddr();
+        }
+
+        @Override
+        public int getLocalPort() {
+            check();
+            return super.getLocalPort();
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            check();
+            return super.getServletContext();
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            check();
+            return super.startAsync();
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+            check();
+            return super.startAsync(servletRequest, servletResponse);
+        }
+
+        @Override
+        public boolean isAsyncStarted() {
+            check();
+            return super.isAsyncStarted();
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            check();
+            return super.isAsyncSupported();
+        }
+
+        @Override
+        public AsyncContext getAsyncContext() {
+            check();
+            return super.getAsyncContext();
+        }
+
+        @Override
+        public DispatcherType getDispatcherType() {
+            check();
+            return super.getDispatcherType();
+        }
+
+        @Override
+        public String getAuthType() {
+            check();
+            return super.getAuthType();
+        }
+
+        @Override
+        public Cookie[] getCookies() {
+            check();
+            return super.getCookies();
+        }
+
+        @Override
+        public long getDateHeader(String name) {
+            check();
+            return super.getDateHeader(name);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            check();
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            check();
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            check();
+            return super.getHeaderNames();
+        }
+
+        @Override
+        public int getIntHeader(String name) {
+            check();
+            return super.getIntHeader(name);
+        }
+
+        @Override
+        public String getMethod() {
+            check();
+            return super.getMethod();
+        }
+
+        @Override
+        public String getPathInfo() {
+            check();
+            return super.getPathInfo();
+        }
+
+        @Override
+        public String getPathTranslated() {
+            check();
+            return super.getPathTranslated();
+        }
+
+        @Override
+        public String getContextPath() {
+            check();
+            return super.getContextPath();
+        }
+
+        @Override
+        public String getQueryString() {
+            check();
+            return super.getQueryString();
+        }
+
+        @Override
+        public String getRemoteUser() {
+            check();
+            return super.getRemoteUser();
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            check();
+            return super.isUserInRole(role);
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            check();
+            return super.getUserPrincipal();
+        }
+
+        @Override
+        public String getRequestedSessionId() {
+            check();
+            return super.getRequestedSessionId();
+        }
+
+        @Override
+        public String getRequestURI() {
+            check();
+            return super.getRequestURI();
+        }
+
+        @Override
+        public StringBuffer getRequestURL() {
+            check();
+            return super.getRequestURL();
+        }
+
+        @Override
+        public String getServletPath() {
+            check();
+            return super.getServletPath();
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            check();
+            return super.getSession(create);
+        }
+
+        @Override
+        public HttpSession getSession() {
+            check();
+            return super.getSession();
+        }
+
+        @Override
+        public boolean isRequestedSessionIdValid() {
+            check();
+            return super.isRequestedSessionIdValid();
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromCookie() {
+            check();
+            return super.isRequestedSessionIdFromCookie();
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromURL() {
+            check();
+            return super.isRequestedSessionIdFromURL();
+        }
+
+        @Override
+        @Deprecated
+        public boolean isRequestedSessionIdFromUrl() {
+            check();
+            return super.isRequestedSessionIdFromUrl();
+        }
+
+        @Override
+        public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+            check();
+            return super.authenticate(response);
+        }
+
+        @Override
+        public void login(String username, String password) throws ServletException {
+            check();
+            super.login(username, password);
+        }
+
+        @Override
+        public void logout() throws ServletException {
+            check();
+            super.logout();
+        }
+
+        @Override
+        public Collection<Part> getParts() throws IOException, ServletException {
+            check();
+            return super.getParts();
+        }
+
+        @Override
+        public Part getPart(String name) throws IOException, ServletException {
+            check();
+            return super.getPart(name);
+        }
+    }
+
+    /**
+     * Response of the worker: every call is counted (see {@link AsyncRequestGuard#close(long)}) and fails
+     * once the guard has been closed
+     */
+    private final class GuardedResponse extends HttpServletResponseWrapper {
+
+        GuardedResponse(HttpServletResponse asyncResponse) {
+            super(asyncResponse);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            synchronized (AsyncRequestGuard.this) {
+                if (outputStream == null) {
+                    final ServletOutputStream out;
+                    enter();
+                    try {
+                        out = super.getOutputStream();
+                    } finally {
+                        exit();
+                    }
+                    outputStream = new ServletOutputStream() {
+
+                        @Override
+                        public void write(int b) throws IOException {
+                            enter();
+                            try {
+                                out.write(b);
+                            } finally {
+                                exit();
+                            }
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            enter();
+                            try {
+                                out.write(b, off, len);
+                            } finally {
+                                exit();
+                            }
+                        }
+
+                        @Override
+                        public void flush() throws IOException {
+                            enter();
+                            try {
+                                out.flush();
+                            } finally {
+                                exit();
+                            }
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            enter();
+                            try {
+                                out.close();
+                            } finally {
+                                exit();
+                            }
+                        }
+                    };
+                }
+                return outputStream;
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            synchronized (AsyncRequestGuard.this) {
+                if (writer == null) {
+                    final PrintWriter out;
+                    enter();
+                    try {
+                        out = super.getWriter();
+                    } finally {
+                        exit();
+                    }
+                    writer = new PrintWriter(new Writer() {
+
+                        @Override
+                        public void write(char[] buffer, int off, int len) {
+                            enter();
+                            try {
+                                out.write(buffer, off, len);
+                            } finally {
+                                exit();
+                            }
+                        }
+
+                        @Override
+                        public void flush() {
+                            enter();
+                            try {
+                                out.flush();
+                            } finally {
+                                exit();
+                            }
+                        }
+
+                        @Override
+                        public void close() {
+                            enter();
+                            try {
+                                out.close();
+                            } finally {
+                                exit();
+                            }
+                        }
+                    });
+                }
+                return writer;
+            }
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            enter();
+            try {
+                return super.getResponse();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            enter();
+            try {
+                super.setCharacterEncoding(charset);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            enter();
+            try {
+                return super.getCharacterEncoding();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            enter();
+            try {
+                super.setContentLength(len);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setContentType(String type) {
+            enter();
+            try {
+                super.setContentType(type);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public String getContentType() {
+            enter();
+            try {
+                return super.getContentType();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setBufferSize(int size) {
+            enter();
+            try {
+                super.setBufferSize(size);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public int getBufferSize() {
+            enter();
+            try {
+                return super.getBufferSize();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            enter();
+            try {
+                super.flushBuffer();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public boolean isCommitted() {
+            enter();
+            try {
+                return super.isCommitted();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void reset() {
+            enter();
+            try {
+                super.reset();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            enter();
+            try {
+                super.resetBuffer();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setLocale(Locale loc) {
+            enter();
+            try {
+                super.setLocale(loc);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public Locale getLocale() {
+            enter();
+            try {
+                return super.getLocale();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            enter();
+            try {
+                super.addCookie(cookie);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public boolean containsHeader(String name) {
+            enter();
+            try {
+                return super.containsHeader(name);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public String encodeURL(String url) {
+            enter();
+            try {
+                return super.encodeURL(url);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public String encodeRedirectURL(String url) {
+            enter();
+            try {
+                return super.encodeRedirectURL(url);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        @Deprecated
+        public String encodeUrl(String url) {
+            enter();
+            try {
+                return super.encodeUrl(url);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        @Deprecated
+        public String encodeRedirectUrl(String url) {
+            enter();
+            try {
+                return super.encodeRedirectUrl(url);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            enter();
+            try {
+                super.sendError(sc, msg);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            enter();
+            try {
+                super.sendError(sc);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            enter();
+            try {
+                super.sendRedirect(location);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            enter();
+            try {
+                super.setDateHeader(name, date);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            enter();
+            try {
+                super.addDateHeader(name, date);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            enter();
+            try {
+                super.setHeader(name, value);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            enter();
+            try {
+                super.addHeader(name, value);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            enter();
+            try {
+                super.setIntHeader(name, value);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            enter();
+            try {
+                super.addIntHeader(name, value);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            enter();
+            try {
+                super.setStatus(sc);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        @Deprecated
+        public void setStatus(int sc, String sm) {
+            enter();
+            try {
+                super.setStatus(sc, sm);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public int getStatus() {
+            enter();
+            try {
+                return super.getStatus();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            enter();
+            try {
+                return super.getHeader(name);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public Collection<String> getHeaders(String name) {
+            enter();
+            try {
+                return super.getHeaders(name);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public Collection<String> getHeaderNames() {
+            enter();
+            try {
+                return super.getHeaderNames();
+            } finally {
+                exit();
+            }
+        }
+    }
+}
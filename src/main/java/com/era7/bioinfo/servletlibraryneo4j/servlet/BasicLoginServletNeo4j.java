@@ -1,8 +1,24 @@
 package com.era7.bioinfo.servletlibraryneo4j.servlet;
 
+import com.era7.bioinfo.servletlibraryneo4j.admission.AdmissionController;
+import com.era7.bioinfo.servletlibraryneo4j.admission.ConcurrencyLimiter;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditEvent;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditLog;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditSink;
+import com.era7.bioinfo.servletlibraryneo4j.audit.OverflowPolicy;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorSignature;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.Phase;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.RequestTimer;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.ServletMetrics;
+import com.era7.bioinfo.servletlibraryneo4j.permissions.PermissionSet;
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseCompression;
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseSerializer;
+import com.era7.bioinfo.servletlibraryneo4j.response.SerializedResponse;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
 import com.era7.lib.communication.model.BasicSession;
-import com.era7.lib.communication.util.ActiveSessions;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -10,7 +26,6 @@ import com.era7.lib.communication.util.SessionAttributes;
 import com.era7.lib.communication.xml.Request;
 import com.era7.lib.communication.xml.Response;
 import java.io.IOException;
-import java.io.PrintWriter;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletResponse;
@@ -47,12 +62,50 @@ public abstract class BasicLoginServletNeo4j extends HttpServlet {
      * Flag indicating whether the servlet should log the errors
      */
     public boolean loggableErrorsFlag = false;
+    /**
+     * Flag indicating whether the successful operations and error responses are logged asynchronously
+     * (see {@link AuditLog})
+     */
+    public boolean asyncLoggingFlag = false;
+    /**
+     * Sink of the operations logged asynchronously
+     */
+    protected AuditSink auditSink = null;
+    /**
+     * Sink of the exceptions (always delivered asynchronously to logErrorExceptionOperation)
+     */
+    private final AuditSink errorSink = new LogOperationSink();
+    /**
+     * Minimum size of the responses to be compressed (negative when compression is disabled)
+     */
+    public int compressionMinSize = ResponseCompression.DEFAULT_MIN_SIZE;
+    /**
+     * Latency metrics of the servlet (null when they are disabled)
+     */
+    protected ServletMetrics metrics = null;
+    /**
+     * Concurrency limit of the logins (independent from the application-wide limit)
+     */
+    protected AdmissionController admission = null;
     
     @Override
     public final void init() {
 
         this.loggableErrorsFlag = defineLoggableErrorsFlag();
         this.loggableFlag = defineLoggableFlag();
+        this.asyncLoggingFlag = defineAsyncLoggingFlag();
+        if (asyncLoggingFlag) {
+            this.auditSink = defineAuditSink();
+            if (auditSink == null) {
+                this.auditSink = new LogOperationSink();
+            }
+        }
+        this.compressionMinSize = defineCompressionMinSize();
+        if (defineMetricsFlag()) {
+            this.metrics = new ServletMetrics(getServletName());
+        }
+
+        this.admission = new AdmissionController(defineConcurrencyLimit(), null, false);
 
         initServlet();
 
@@ -110,30 +163,69 @@ public abstract class BasicLoginServletNeo4j extends HttpServlet {
         Request myRequest = null;
         Response myResponse = new Response();
 
+        RequestTimer timer = metrics == null ? null : metrics.start(request);
+        AdmissionController.Permit permit = null;
+
         try {
 
+            //--> Logins over the limit are rejected before being parsed
+            permit = admission.tryAcquire();
+            if (permit == null) {
+                if (metrics != null) {
+                    metrics.requestRejected();
+                }
+                myResponse.setStatus(Response.ERROR_RESPONSE);
+                myResponse.setError(BasicServletNeo4j.SERVER_BUSY_MESSAGE);
+                response.setHeader("Retry-After", String.valueOf(BasicServletNeo4j.RETRY_AFTER_SECONDS));
+                response.setContentType("text/html");
+                ResponseSerializer.serialize(myResponse).write(request, response, compressionMinSize);
+                return;
+            }
+
             myRequest = new Request(requestString);
 
+            if (timer != null) {
+                timer.setMethod(myRequest.getMethod());
+                timer.mark(Phase.PARSE);
+            }
+
             boolean success = processLoginRequest(myRequest);
 
             if (success) {
                 myResponse.setStatus(Response.SUCCESSFUL_RESPONSE);
 
                 //--->Creating the session<---
-                session = ActiveSessions.createNewSession();
+                session = SessionRegistry.createNewSession();
+                BasicServletNeo4j.touchSession(session);
+                boolean created = false;
+                try {
+
+                    //--->Storing the objects in the session<---
+                    storeObjectsInSession(myRequest, session);
 
-                //--->Storing the objects in the session<---
-                storeObjectsInSession(myRequest, session);
 
+                    myResponse.setSessionID(session.getSessionId());
 
-                myResponse.setSessionID(session.getSessionId());
 
+                    //--->Storing the SESSION_ID in the session<----
+                    session.setAttribute(SessionAttributes.SESSION_ID_ATTRIBUTE, session.getSessionId());
 
-                //--->Storing the SESSION_ID in the session<----
-                session.setAttribute(SessionAttributes.SESSION_ID_ATTRIBUTE, session.getSessionId());
+                    //--->Storing the user permissions<---
+                    ArrayList<?> permissions = defineUserPermissions(myRequest);
+                    session.setAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE, permissions);
+                    //--->Storing them compiled as well for the permission checks<---
+                    session.setAttribute(PermissionSet.SESSION_ATTRIBUTE, PermissionSet.compile(permissions));
 
-                //--->Storing the user permissions<---
-                session.setAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE, defineUserPermissions(myRequest));
+                    //--->Sharing the session with the rest of nodes (when there is a session store)<---
+                    SessionRegistry.saveSession(session, defineStoredAttributes());
+                    created = true;
+
+                } finally {
+                    if (!created) {
+                        //--> The login fails, the half created session must not stay active
+                        SessionRegistry.removeSession(session.getSessionId());
+                    }
+                }
 
 
             } else {
@@ -155,8 +247,16 @@ public abstract class BasicLoginServletNeo4j extends HttpServlet {
                 myResponse.setStatus(Response.SUCCESSFUL_RESPONSE);
             }
 
+            if (timer != null) {
+                timer.mark(Phase.PROCESS);
+            }
+
+
+            if (loggableFlag && asyncLoggingFlag) {
 
-            if (loggableFlag) {
+                AuditLog.getInstance().publish(new AuditEvent(auditSink, myRequest, myResponse, null, session));
+
+            } else if (loggableFlag) {
 
                 if (myResponse.getStatus().equals(Response.SUCCESSFUL_RESPONSE)) {
                     /*
@@ -182,26 +282,101 @@ public abstract class BasicLoginServletNeo4j extends HttpServlet {
             }
 
             response.setContentType("text/html");
-            // write response
-            PrintWriter writer = response.getWriter();
-            writer.println(myResponse.toString());
-            writer.close();
+            SerializedResponse serialized = ResponseSerializer.serialize(myResponse);
+            if (timer != null) {
+                timer.mark(Phase.SERIALIZE);
+            }
+            // write response (compressed when accepted by the client)
+            serialized.write(request, response, compressionMinSize);
+            if (timer != null) {
+                timer.mark(Phase.WRITE);
+            }
 
         } catch (Throwable e) {
-            e.printStackTrace();
-            if (loggableErrorsFlag) {
-                /*
-                 * The call to logErrorExceptionOperation will include as many parameters as needed
-                 * to perform the error exception logging operation.
-                 * (For example, the logged user could be passed as a parameter)
-                 *
-                 * this.logErrorExceptionOperation(myRequest,myResponse, user, e,connection);
-                 *
-                 */
-                this.logErrorExceptionOperation(myRequest, myResponse, e);
+            writeExceptionResponse(myRequest, e, request, response);
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+            if (timer != null) {
+                timer.finish();
             }
+        }
+    }
 
-        } 
+    /**
+     * Reports an exception thrown while processing a login request (see {@link ErrorReporter}) and
+     * writes a compact error response with the id of its signature, unless the response was already committed
+     * @param myRequest Request (null when the exception was thrown while parsing it)
+     */
+    private void writeExceptionResponse(Request myRequest, Throwable e, HttpServletRequest request,
+            HttpServletResponse response) {
+
+        ErrorSignature signature = ErrorReporter.getInstance().report(e);
+
+        Response errorResponse = new Response();
+        errorResponse.setStatus(Response.ERROR_RESPONSE);
+        errorResponse.setError(BasicServletNeo4j.INTERNAL_ERROR_MESSAGE + " (" + signature.getId() + ")");
+        if (myRequest != null) {
+            errorResponse.setId(myRequest.getId());
+            errorResponse.setMethod(myRequest.getMethod());
+        }
+
+        if (loggableErrorsFlag) {
+            //--> logErrorExceptionOperation is called off the request thread (error storms never block logins)
+            AuditLog.getInstance().publish(new AuditEvent(errorSink, myRequest, errorResponse, null, null, e),
+                    OverflowPolicy.DROP);
+        }
+
+        if (!response.isCommitted()) {
+            try {
+                response.setContentType("text/html");
+                ResponseSerializer.serialize(errorResponse).write(request, response, compressionMinSize);
+            } catch (IOException ex) {
+                //--> The client is gone
+            }
+        }
+    }
+
+    /**
+     * Default sink of the operations logged asynchronously: the logging methods of the servlet
+     */
+    private final class LogOperationSink implements AuditSink {
+
+        @Override
+        public void write(List<AuditEvent> events) {
+            for (AuditEvent event : events) {
+                if (event.getError() != null) {
+                    /*
+                     * The call to logErrorExceptionOperation will include as many parameters as needed
+                     * to perform the error exception logging operation.
+                     * (For example, the logged user could be passed as a parameter)
+                     *
+                     * this.logErrorExceptionOperation(myRequest,myResponse, user, e,connection);
+                     *
+                     */
+                    logErrorExceptionOperation(event.getRequest(), event.getResponse(), event.getError());
+                } else if (event.getResponse().getStatus().equals(Response.SUCCESSFUL_RESPONSE)) {
+                    logSuccessfulOperation(event.getRequest(), event.getResponse(), event.getSession());
+                } else if (event.getResponse().getStatus().equals(Response.ERROR_RESPONSE)) {
+                    logErrorResponseOperation(event.getRequest(), event.getResponse(), event.getSession());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (asyncLoggingFlag || loggableErrorsFlag) {
+            AuditLog auditLog = AuditLog.getCurrentInstance();
+            if (auditLog != null) {
+                auditLog.flush(AuditLog.SHUTDOWN_TIMEOUT);
+            }
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+        super.destroy();
     }
 
     /**
@@ -217,6 +392,63 @@ public abstract class BasicLoginServletNeo4j extends HttpServlet {
     protected abstract boolean defineLoggableErrorsFlag();
 
 
+    /**
+     * This method can be overridden in order to define the minimum size (in bytes) of the
+     * responses compressed (gzip/deflate) for the clients accepting it
+     * @return The minimum size, {@link ResponseCompression#DEFAULT_MIN_SIZE} by default (a negative value
+     * disables compression)
+     */
+    protected int defineCompressionMinSize() {
+        return ResponseCompression.DEFAULT_MIN_SIZE;
+    }
+
+    /**
+     * This method can be overridden in order to disable the latency metrics of the servlet
+     * @return True if the phases of every request must be measured (default), false otherwise.
+     */
+    protected boolean defineMetricsFlag() {
+        return true;
+    }
+
+    /**
+     * This method can be overridden in order to limit the logins processed at the same time.
+     * <br>Logins are not subject to the application-wide limit of the rest of servlets, so this is the
+     * capacity reserved for them.
+     * @return The limiter, null (no limit) by default
+     */
+    protected ConcurrencyLimiter defineConcurrencyLimit() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to define the attributes stored by {@link #storeObjectsInSession}
+     * that must be shared with the rest of nodes through the session store
+     * (see {@link com.era7.bioinfo.servletlibraryneo4j.session.SessionStore}). Their values must be serializable.
+     * <br>The session id and the user permissions are always shared.
+     * @return The names of the attributes, null by default
+     */
+    protected String[] defineStoredAttributes() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to log the successful operations and error responses
+     * asynchronously, in batches and off the request threads (see {@link AuditLog}).
+     * @return True for asynchronous logging, false (default) to call the logging methods before the
+     * response is written
+     */
+    protected boolean defineAsyncLoggingFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to define where the operations logged asynchronously are written
+     * @return The sink, null by default (the logging methods of the servlet are called from the audit thread)
+     */
+    protected AuditSink defineAuditSink() {
+        return null;
+    }
+
     public abstract void initServlet();
 
     /**
@@ -262,6 +494,8 @@ public abstract class BasicLoginServletNeo4j extends HttpServlet {
     /**
      * Method called when the operation could not be performed because of an exception ocurred
      * This method is called as long as 'loggableErrorsFlag' is true
+     * <br>It is called asynchronously, off the request threads (see {@link AuditLog});
+     * the request may be null when the exception was thrown while parsing it.
      */
     protected abstract void logErrorExceptionOperation(Request request, Response response, Throwable e);
 }
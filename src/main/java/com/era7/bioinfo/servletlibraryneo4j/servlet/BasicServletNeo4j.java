@@ -1,12 +1,53 @@
 package com.era7.bioinfo.servletlibraryneo4j.servlet;
 
 import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.admission.AdmissionController;
+import com.era7.bioinfo.servletlibraryneo4j.admission.ConcurrencyLimiter;
+import com.era7.bioinfo.servletlibraryneo4j.async.GraphWorkerPool;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditEvent;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditLog;
+import com.era7.bioinfo.servletlibraryneo4j.audit.AuditSink;
+import com.era7.bioinfo.servletlibraryneo4j.audit.OverflowPolicy;
+import com.era7.bioinfo.servletlibraryneo4j.cache.GraphVersion;
+import com.era7.bioinfo.servletlibraryneo4j.cache.RequestKey;
+import com.era7.bioinfo.servletlibraryneo4j.cache.SingleFlight;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorSignature;
+import com.era7.bioinfo.servletlibraryneo4j.cache.ResponseCache;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.manager.GroupCommitter;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.Phase;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.RequestTimer;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.ServletMetrics;
+import com.era7.bioinfo.servletlibraryneo4j.permissions.PermissionRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.permissions.PermissionSet;
+import com.era7.bioinfo.servletlibraryneo4j.response.BinaryResponse;
+import com.era7.bioinfo.servletlibraryneo4j.response.BinaryResponseWriter;
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseCompression;
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseSerializer;
+import com.era7.bioinfo.servletlibraryneo4j.response.SerializedResponse;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionExpiryWheel;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.warmup.WarmUpReplayer;
 import com.era7.lib.communication.model.BasicSession;
-import com.era7.lib.communication.util.ActiveSessions;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
@@ -16,6 +57,7 @@ import javax.servlet.http.HttpServletResponse;
 import com.era7.lib.communication.util.SessionAttributes;
 import com.era7.lib.communication.xml.Request;
 import com.era7.lib.communication.xml.Response;
+import org.jdom.Element;
 
 /**
  * Basic abstract class for servlet implementations, (except for Login servlet functionality --> see: {@link BasicLoginService}
@@ -25,6 +67,63 @@ import com.era7.lib.communication.xml.Response;
 public abstract class BasicServletNeo4j extends HttpServlet {
 
     public static final String ACCESS_DENIED_MESSAGE = "Access denied";
+    /**
+     * Message used when the request could not be accepted because the servlet is overloaded
+     */
+    public static final String SERVER_BUSY_MESSAGE = "Server busy, please retry later";
+    /**
+     * Message used when the request could not be completed before its deadline
+     */
+    public static final String REQUEST_TIMEOUT_MESSAGE = "Request timed out";
+    /**
+     * Message used when an exception was thrown while processing the request
+     * (it is followed by the id of the error signature, see {@link ErrorReporter})
+     */
+    public static final String INTERNAL_ERROR_MESSAGE = "Internal error";
+    /**
+     * Tag of the request parameter with the time (in milliseconds) the client is willing to wait
+     * (it can only shorten the time budget of the method, see {@link #defineMethodTimeouts()})
+     */
+    public static final String DEADLINE_TAG = "deadline";
+    /**
+     * Seconds sent in the Retry-After header of the busy responses
+     */
+    public static int RETRY_AFTER_SECONDS = 1;
+    /**
+     * Time (in milliseconds) the timeout of an async request waits for a worker that is already writing
+     * its response before completing the request
+     */
+    static final long ASYNC_WRITE_GRACE_PERIOD = 5000;
+    /**
+     * Time (in milliseconds) the timeout of an async request then waits for a write of the worker that is
+     * still in progress (a client not reading) before giving up on the response
+     */
+    static final long ASYNC_CLOSE_TIMEOUT = 1000;
+    /**
+     * Request method of the batch requests (see {@link #defineBatchFlag()})
+     */
+    public static final String BATCH_METHOD = "batch";
+    /**
+     * Tag of the request parameter (and attribute of the responses) with the graph version, for the
+     * clients of conditional requests that cannot use HTTP headers (see {@link #defineConditionalFlag()})
+     */
+    public static final String GRAPH_VERSION_TAG = "graph_version";
+    /**
+     * Status of the responses telling the client the graph version it sent is still current
+     */
+    public static final String NOT_MODIFIED_STATUS = "not_modified";
+    /**
+     * Request attribute with the entity tag of the response being produced
+     */
+    static final String ETAG_ATTRIBUTE = BasicServletNeo4j.class.getName() + ".etag";
+    /**
+     * Request attribute with the graph version of the response being produced
+     */
+    static final String GRAPH_VERSION_ATTRIBUTE = BasicServletNeo4j.class.getName() + ".graphVersion";
+    /**
+     * Maximum number of requests in a batch request
+     */
+    public static int MAX_BATCH_SIZE = 1000;
     /**
      *
      */
@@ -49,24 +148,204 @@ public abstract class BasicServletNeo4j extends HttpServlet {
      * Flag indicating whether the servlet should log the errors
      */
     public boolean loggableErrorsFlag = false;    
+    /**
+     * Flag indicating whether the successful operations and error responses are logged asynchronously
+     * (see {@link AuditLog})
+     */
+    public boolean asyncLoggingFlag = false;
+    /**
+     * Sink of the operations logged asynchronously
+     */
+    protected AuditSink auditSink = null;
+    /**
+     * Sink of the exceptions (always delivered asynchronously to logErrorExceptionOperation)
+     */
+    private final AuditSink errorSink = new LogOperationSink();
     /**
      *  Flag indicating whether the servlet encodes the request to utf-8 format or not
      */
     public boolean utf8CharacterEncodingRequest = false;
 
+    /**
+     * Folder of the neo4j database used by the servlet
+     */
     public String neo4jDatabaseFolder = "";
+    /**
+     * Folders of the read-only replicas of the database where the read-only methods are routed
+     */
+    private String[] replicaDatabaseFolders = null;
+    /**
+     * Counter used to spread the read-only requests among the replicas
+     */
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    /**
+     * Request methods that only read the graph (null when every method is considered mutating)
+     */
+    private Set<String> readOnlyMethods = null;
+    /**
+     * Request methods that modify the graph (null when none is declared)
+     */
+    private Set<String> mutatingMethods = null;
+    /**
+     * Group commit of the mutating requests (null when it is disabled)
+     */
+    protected GroupCommitter groupCommitter = null;
+    /**
+     * Flag indicating whether the servlet logic runs asynchronously in a worker pool
+     * (the servlet must be declared with async-supported in the application descriptor)
+     */
+    public boolean asyncFlag = false;
+    /**
+     * Executor running the servlet logic when the async flag is true
+     */
+    protected Executor asyncExecutor = null;
+    /**
+     * Permits limiting the asynchronous requests of this servlet that are running or waiting
+     */
+    private Semaphore asyncPermits = null;
+    /**
+     * Index (see {@link PermissionRegistry}) of the permission required by each request method
+     */
+    private Map<String, Integer> methodPermissions = null;
+    /**
+     * Time budget (in milliseconds) of the requests whose method has no budget of its own (0 for none)
+     */
+    private long defaultTimeout = 0;
+    /**
+     * Time budget (in milliseconds) of each request method
+     */
+    private Map<String, Long> methodTimeouts = null;
+    /**
+     * Cache of the responses of the cacheable request methods (null when there are none)
+     */
+    protected ResponseCache responseCache = null;
+    /**
+     * Request methods whose responses are cached
+     */
+    private Set<String> cacheableMethods = null;
+    /**
+     * Flag indicating whether the read-only requests are answered with ETags and conditional (not modified) responses
+     */
+    public boolean conditionalFlag = false;
+    /**
+     * Deduplication of identical concurrent read-only requests (null unless the single-flight flag is true)
+     */
+    protected SingleFlight singleFlight = null;
+    /**
+     * Minimum size of the standard responses to be compressed (negative when compression is disabled)
+     */
+    public int compressionMinSize = ResponseCompression.DEFAULT_MIN_SIZE;
+    /**
+     * Flag indicating whether the servlet accepts batch requests
+     */
+    public boolean batchFlag = false;
+    /**
+     * Flag indicating whether the requests of a batch are run in parallel (or sequentially in one transaction)
+     */
+    public boolean batchParallelFlag = false;
+    /**
+     * Latency metrics of the servlet (null when they are disabled)
+     */
+    protected ServletMetrics metrics = null;
+    /**
+     * Concurrency limits of the servlet and its request methods
+     */
+    protected AdmissionController admission = null;
 
     @Override
-    public final void init() {
+    public final void init() throws ServletException {
 
         checkPermissionsFlag = defineCheckPermissionsFlag();
         checkSessionFlag = defineCheckSessionFlag();
         loggableErrorsFlag = defineLoggableErrorsFlag();
         loggableFlag = defineLoggableFlag();
+        asyncLoggingFlag = defineAsyncLoggingFlag();
+        if (asyncLoggingFlag) {
+            auditSink = defineAuditSink();
+            if (auditSink == null) {
+                auditSink = new LogOperationSink();
+            }
+        }
         utf8CharacterEncodingRequest = defineUtf8CharacterEncodingRequest();
+        neo4jDatabaseFolder = defineNeo4jDatabaseFolder();
+        readOnlyMethods = defineReadOnlyMethods();
+        mutatingMethods = defineMutatingMethods();
+        if (readOnlyMethods != null && mutatingMethods != null
+                && !Collections.disjoint(readOnlyMethods, mutatingMethods)) {
+            throw new ServletException("Methods declared both read-only and mutating in servlet " + getServletName());
+        }
+        replicaDatabaseFolders = defineReplicaDatabaseFolders();
+        if (replicaDatabaseFolders != null && replicaDatabaseFolders.length == 0) {
+            replicaDatabaseFolders = null;
+        }
+        if (defineGroupCommitFlag()) {
+            groupCommitter = GroupCommitter.getCommitter(neo4jDatabaseFolder, defineGroupCommitWindow(),
+                    defineGroupCommitMaxSize());
+        }
+        methodPermissions = compileMethodPermissions(defineMethodPermissions());
+        compressionMinSize = defineCompressionMinSize();
+        cacheableMethods = defineCacheableMethods();
+        if (cacheableMethods != null) {
+            for (String method : cacheableMethods) {
+                if (!isReadOnlyMethod(method)) {
+                    //--> Its responses could be served after it has modified the graph
+                    throw new ServletException("Cacheable method " + method + " of servlet " + getServletName()
+                            + " is not read-only");
+                }
+            }
+        }
+        if (cacheableMethods != null && !cacheableMethods.isEmpty()) {
+            responseCache = new ResponseCache(getServletName(), defineResponseCacheSize(), defineResponseCacheTTL());
+        }
+        conditionalFlag = defineConditionalFlag();
+        if (defineSingleFlightFlag()) {
+            singleFlight = new SingleFlight(getServletName());
+        }
+        if (defineMetricsFlag()) {
+            metrics = new ServletMetrics(getServletName());
+        }
+        batchFlag = defineBatchFlag();
+        batchParallelFlag = defineBatchParallelFlag();
+        admission = new AdmissionController(defineConcurrencyLimit(), defineMethodConcurrencyLimits(), true);
+        defaultTimeout = defineDefaultTimeout();
+        methodTimeouts = defineMethodTimeouts();
+        asyncFlag = defineAsyncFlag();
+        if (asyncFlag) {
+            asyncExecutor = defineAsyncExecutor();
+            asyncPermits = new Semaphore(defineAsyncQueueLimit());
+        }
+
+        if (!producesResponses() && (batchFlag || singleFlight != null || responseCache != null)) {
+            //--> These features work on whole responses (see produceResponse), which streaming servlets never build
+            if (singleFlight != null) {
+                singleFlight.close();
+            }
+            if (responseCache != null) {
+                responseCache.close();
+            }
+            if (metrics != null) {
+                metrics.close();
+            }
+            throw new ServletException(getServletName() + ": batches, single-flight and the response cache "
+                    + "are not supported by streaming and push servlets");
+        }
 
         initServlet();
 
+        //--> Recorded requests can be replayed through this servlet during the warm-up
+        WarmUpReplayer.register(getServletName(), this);
+
+    }
+
+    private static Map<String, Integer> compileMethodPermissions(Map<String, ?> permissions) {
+        if (permissions == null) {
+            return null;
+        }
+        Map<String, Integer> compiled = new HashMap<String, Integer>();
+        for (Map.Entry<String, ?> entry : permissions.entrySet()) {
+            compiled.put(entry.getKey(), PermissionRegistry.intern(entry.getValue()));
+        }
+        return compiled;
     }
 
     /** 
@@ -88,6 +367,10 @@ public abstract class BasicServletNeo4j extends HttpServlet {
 
         boolean proceed = true;
         boolean noSessionFlag = false; //Flag indicating whether there is a valid session or not
+        boolean dispatched = false; //Flag indicating whether the request was handed to the async executor
+
+        RequestTimer timer = metrics == null ? null : metrics.start(request);
+        AdmissionController.Permit permit = null;
 
         String requestString = (String) request.getParameter(PARAMETER_NAME);
 
@@ -100,12 +383,34 @@ public abstract class BasicServletNeo4j extends HttpServlet {
         //---------------------------------------------------------------
 
         try {
+            //--> Requests over the limits are rejected before being parsed
+            permit = admission.tryAcquire();
+            if (permit == null) {
+                reject(null, response);
+                return;
+            }
+
             myRequest = new Request(requestString);
 
+            if (timer != null) {
+                timer.setMethod(myRequest.getMethod());
+                timer.mark(Phase.PARSE);
+            }
+
+            if (!admission.tryAcquire(permit, myRequest.getMethod())) {
+                permit = null;
+                reject(myRequest, response);
+                return;
+            }
 
+            //--> The servlet logic can poll the cancellation token of the request (see CancellationToken)
+            request.setAttribute(CancellationToken.REQUEST_ATTRIBUTE, createCancellationToken(myRequest));
 
             //Getting the session
-            session = ActiveSessions.getSession(myRequest.getSessionID());
+            session = SessionRegistry.getSession(myRequest.getSessionID());
+
+            //--> The permissions of a batch are checked for each of its requests
+            boolean batch = batchFlag && BATCH_METHOD.equals(myRequest.getMethod());
 
             if (checkSessionFlag) {
                 if (session == null) {
@@ -119,91 +424,41 @@ public abstract class BasicServletNeo4j extends HttpServlet {
                         noSessionFlag = true;
                         proceed = false;
                     } else {
-                        if (checkPermissionsFlag) {
-                            proceed = checkPermissions((ArrayList<?>) session.getAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE), myRequest);
+                        mark(timer, Phase.SESSION);
+
+                        if (checkPermissionsFlag && !batch) {
+                            proceed = hasPermission(session, myRequest);
 
                             if (!proceed) {
                                 myResponse.setError(ACCESS_DENIED_MESSAGE);
                             }
+                            mark(timer, Phase.PERMISSIONS);
                         }
 
-                        //----Reseting the timeout timer
-                        session.resetIdleTime();
+                        //----Reseting the timeout timer (session expiry wheel)
+                        touchSession(session);
                     }
                 }
             }
 
-            if (proceed) {
+            if (proceed && conditionalFlag && !batch && isReadOnlyMethod(myRequest.getMethod())
+                    && writeIfNotModified(myRequest, session, request, response)) {
 
-                manager = new Bio4jManager(neo4jDatabaseFolder);
+                //--> The client already has the current response, the graph is not touched
+                return;
+            }
 
-                myResponse = processRequest(myRequest, session, manager, request);
-                //--> Assigning the request id to its response
-                myResponse.setId(myRequest.getId());
-                //--> Assigning the request method to its response
-                myResponse.setMethod(myRequest.getMethod());
+            if (proceed && asyncFlag && request.isAsyncSupported()) {
 
+                //--> The container thread is released here, the worker writes the response
+                dispatched = dispatchAsync(myRequest, session, permit, request, response);
 
-                if (myResponse.getStatus().equals(Response.ERROR_RESPONSE)) {
-                    myRequest.detach();
-                    myResponse.setRequestSource(myRequest);
-                } else {
-                    myResponse.setStatus(Response.SUCCESSFUL_RESPONSE);
-                }
+            } else if (proceed) {
 
+                //--> Borrowing the shared manager (it must not be shut down here)
+                manager = acquireManager(myRequest);
 
-                if (loggableFlag) {
-
-                    if (myResponse.getStatus().equals(Response.SUCCESSFUL_RESPONSE)) {
-                        /*
-                         * The call to logSuccessfulOperation will include as many parameters as needed
-                         * to perform the successful logging operation.
-                         * (For example, the logged user could be passed as a parameter)
-                         *
-                         * this.logSuccessfulOperation(myRequest,myResponse,connection,user);
-                         *
-                         */
-                        this.logSuccessfulOperation(myRequest, myResponse, manager, session);
-                    } else if (myResponse.getStatus().equals(Response.ERROR_RESPONSE)) {
-                        /*
-                         * The call to logSuccessfulOperation will include as many parameters as needed
-                         * to perform the error logging operation.
-                         * (For example, the logged user could be passed as a parameter)
-                         *
-                         * this.logErrorResponseOperation(myRequest,myResponse,connection,user);
-                         *
-                         */
-                        this.logErrorResponseOperation(myRequest, myResponse, manager, session);
-                    }
-                }
-
-                //--------> Writing the response <---------------
-                // set headers
-                //--------------THIS PIECE OF CODE CORRESPONDS TO BINARY RESPONSES LIKE FILES-------------
-                if (myResponse.isBinary()) {
-
-                    response.setContentType("application/x-download");
-                    String filename = myResponse.getRoot().getChild("file").getAttributeValue("name");
-                    String fileContent = myResponse.getRoot().getChildText("file");
-                    response.setHeader("Content-Disposition", "attachment; filename=" + filename);
-                    // write file
-                    ServletOutputStream out = response.getOutputStream();
-
-                    out.write(fileContent.getBytes());
-                    response.setContentLength(fileContent.getBytes().length);
-                    out.flush();
-                    out.close();
-                } //---------------------------------------------------------------------------------------
-                //---------------> STANDARD RESPONSES---------------
-                else {
-                    response.setContentType("text/html");
-                    // write response
-                    PrintWriter writer = response.getWriter();
-                    writer.println(myResponse.toString());
-                    writer.close();
-                }
-                //------------------------------------------------
-
+                execute(myRequest, session, manager, request, response);
 
             } else {
 
@@ -218,34 +473,724 @@ public abstract class BasicServletNeo4j extends HttpServlet {
                     myResponse.setStatus(Response.ERROR_RESPONSE);
                 }
                 //--------> Writing the response <---------------
-                response.setContentType("text/html");
-                PrintWriter writer = response.getWriter();
-                writer.println(myResponse.toString());
-                writer.close();
+                writeResponse(myResponse, request, response);
                 //------------------------------------------------
             }
 
 
+        } catch (RequestCancelledException e) {
+            cancelled(myRequest, e, request, response);
         } catch (Throwable e) {
-            e.printStackTrace();
-            if (loggableErrorsFlag) {
-                /*
-                 * The call to logErrorExceptionOperation will include as many parameters as needed
-                 * to perform the error exception logging operation.
-                 * (For example, the logged user could be passed as a parameter)
-                 *
-                 * this.logErrorExceptionOperation(myRequest,myResponse, user, e,connection);
-                 *
-                 */
-                this.logErrorExceptionOperation(myRequest, myResponse, e, manager);
+            writeExceptionResponse(myRequest, e, manager, request, response);
+        } finally {
+            Bio4jManagerRegistry.releaseManager(manager);
+            if (!dispatched) {
+                if (permit != null) {
+                    permit.release();
+                }
+                if (timer != null) {
+                    timer.finish();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the cancellation token of the request provided, with the time budget of its method
+     * or the deadline sent by the client (whichever is shorter)
+     */
+    private CancellationToken createCancellationToken(Request myRequest) {
+        long timeout = defaultTimeout;
+        if (methodTimeouts != null) {
+            Long methodTimeout = methodTimeouts.get(myRequest.getMethod());
+            if (methodTimeout != null) {
+                timeout = methodTimeout.longValue();
+            }
+        }
+        Element parameters = myRequest.getParameters();
+        Element deadlineElement = parameters == null ? null : parameters.getChild(DEADLINE_TAG);
+        if (deadlineElement != null) {
+            //--> The deadline is neither part of the request key nor seen by the servlet logic
+            parameters.removeContent(deadlineElement);
+            try {
+                long clientTimeout = Long.parseLong(deadlineElement.getTextTrim());
+                if (clientTimeout > 0 && (timeout <= 0 || clientTimeout < timeout)) {
+                    timeout = clientTimeout;
+                }
+            } catch (NumberFormatException e) {
+                //--> Malformed deadlines are ignored
+            }
+        }
+        return new CancellationToken(timeout);
+    }
+
+    /**
+     * Finishes a cancelled request: it is counted and, unless the client is gone, answered with a
+     * timeout response (only if no other response has been written for it)
+     * @return Whether the timeout response was written by this call
+     */
+    final boolean cancelled(Request myRequest, RequestCancelledException e, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        CancellationToken token = CancellationToken.get(request);
+        if (token != null && !token.reportCancellation()) {
+            return false;
+        }
+        boolean timedOut = e.getReason() == CancellationToken.Reason.DEADLINE;
+        if (metrics != null) {
+            if (timedOut) {
+                metrics.requestTimedOut();
+            } else {
+                metrics.requestDisconnected();
+            }
+        }
+        if (timedOut && (token == null || token.claimResponse())) {
+            Response timeoutResponse = new Response();
+            timeoutResponse.setStatus(Response.ERROR_RESPONSE);
+            timeoutResponse.setError(REQUEST_TIMEOUT_MESSAGE);
+            if (myRequest != null) {
+                timeoutResponse.setId(myRequest.getId());
+                timeoutResponse.setMethod(myRequest.getMethod());
+            }
+            writeResponse(timeoutResponse, null, response);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Answers the request as not modified when the client sent the current graph version (in the request)
+     * or entity tag (in the If-None-Match header). Otherwise the entity tag and version of the response
+     * are stored in the request so that {@link #writeResponse} adds them.
+     * @return Whether the not modified response was written
+     */
+    private boolean writeIfNotModified(Request myRequest, BasicSession session, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        String version = GraphVersion.get(neo4jDatabaseFolder);
+
+        String clientVersion = null;
+        Element parameters = myRequest.getParameters();
+        Element versionElement = parameters == null ? null : parameters.getChild(GRAPH_VERSION_TAG);
+        if (versionElement != null) {
+            clientVersion = versionElement.getTextTrim();
+            //--> The version is neither part of the request key nor seen by the servlet logic
+            parameters.removeContent(versionElement);
+        }
+
+        String etag = GraphVersion.buildETag(version, RequestKey.build(myRequest, getCacheScope(session)));
+
+        if (version.equals(clientVersion)) {
+            Response notModified = new Response();
+            notModified.setId(myRequest.getId());
+            notModified.setMethod(myRequest.getMethod());
+            notModified.setStatus(NOT_MODIFIED_STATUS);
+            notModified.getRoot().setAttribute(GRAPH_VERSION_TAG, version);
+            response.setHeader("ETag", etag);
+            writeResponse(notModified, request, response);
+            return true;
+        }
+        if (GraphVersion.matches(request.getHeader("If-None-Match"), etag)) {
+            response.setHeader("ETag", etag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        request.setAttribute(ETAG_ATTRIBUTE, etag);
+        request.setAttribute(GRAPH_VERSION_ATTRIBUTE, version);
+        return false;
+    }
+
+    /**
+     * @param method Request method
+     * @return Whether the method provided only reads the graph (see {@link #defineReadOnlyMethods()})
+     */
+    public final boolean isReadOnlyMethod(String method) {
+        return readOnlyMethods != null && readOnlyMethods.contains(method);
+    }
+
+    /**
+     * @param method Request method
+     * @return Whether the method provided modifies the graph (see {@link #defineMutatingMethods()})
+     */
+    public final boolean isMutatingMethod(String method) {
+        return mutatingMethods != null && mutatingMethods.contains(method);
+    }
+
+    /**
+     * Increases the version of the graph (see {@link GraphVersion}) after a request modifying it
+     */
+    final void graphModified() {
+        GraphVersion.increment(neo4jDatabaseFolder);
+    }
+
+    /**
+     * Returns the manager the request provided must run against: one of the read-only replicas
+     * (round robin) for the read-only methods when there are replicas, the primary database otherwise.
+     * @param myRequest Request
+     * @return The shared manager (it must be released with {@link Bio4jManagerRegistry#releaseManager}
+     * and must not be shut down)
+     */
+    final Bio4jManager acquireManager(Request myRequest) {
+        if (isReadOnlyMethod(myRequest.getMethod())) {
+            return acquireReadOnlyManager();
+        }
+        return Bio4jManagerRegistry.acquireManager(neo4jDatabaseFolder);
+    }
+
+    /**
+     * @return The manager of the next replica (or of the primary database when there are no replicas or
+     * the replica could not be opened). It must be released with {@link Bio4jManagerRegistry#releaseManager}.
+     */
+    final Bio4jManager acquireReadOnlyManager() {
+        if (replicaDatabaseFolders != null) {
+            int index = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicaDatabaseFolders.length;
+            try {
+                return Bio4jManagerRegistry.acquireManager(replicaDatabaseFolders[index]);
+            } catch (RuntimeException e) {
+                //--> Replica not available, the primary can serve reads as well
+                Bio4jManagerRegistry.reportFailure(replicaDatabaseFolders[index]);
+            }
+        }
+        return Bio4jManagerRegistry.acquireManager(neo4jDatabaseFolder);
+    }
+
+    /**
+     * Writes the busy response of a request rejected by admission control
+     */
+    private void reject(Request myRequest, HttpServletResponse response) throws IOException {
+        if (metrics != null) {
+            metrics.requestRejected();
+        }
+        writeBusyResponse(myRequest, response);
+    }
+
+    private static void mark(RequestTimer timer, Phase phase) {
+        if (timer != null) {
+            timer.mark(phase);
+        }
+    }
+
+    /**
+     * Checks the permissions of the session for the request provided.
+     * <br>Methods included in the table defined by {@link #defineMethodPermissions()} are checked
+     * against the compiled permissions of the session, the rest with {@link #checkPermissions}.
+     */
+    final boolean hasPermission(BasicSession session, Request myRequest) {
+        if (methodPermissions != null) {
+            Integer required = methodPermissions.get(myRequest.getMethod());
+            if (required != null) {
+                return getPermissionSet(session).contains(required.intValue());
+            }
+        }
+        return checkPermissions((ArrayList<?>) session.getAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE), myRequest);
+    }
+
+    /**
+     * @return The compiled permissions of the session provided
+     */
+    static PermissionSet getPermissionSet(BasicSession session) {
+        PermissionSet permissions = (PermissionSet) session.getAttribute(PermissionSet.SESSION_ATTRIBUTE);
+        if (permissions == null) {
+            //--> Session created by a login servlet not compiling the permissions
+            permissions = PermissionSet.compile((ArrayList<?>) session.getAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE));
+            session.setAttribute(PermissionSet.SESSION_ATTRIBUTE, permissions);
+        }
+        return permissions;
+    }
+
+    /**
+     * Registers an access to the session in the session expiry wheel (when there is one)
+     */
+    static void touchSession(BasicSession session) {
+        SessionExpiryWheel expiry = SessionExpiryWheel.getInstance();
+        if (expiry != null) {
+            expiry.touch(session.getSessionId());
+        }
+    }
+
+    /**
+     * Hands the execution of the request to the async executor.
+     * When the servlet has too many requests running or waiting, a busy response is written instead.
+     * @return Whether the request was handed to the executor
+     */
+    private boolean dispatchAsync(final Request myRequest, final BasicSession session,
+            final AdmissionController.Permit permit, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        if (!asyncPermits.tryAcquire()) {
+            reject(myRequest, response);
+            return false;
+        }
+
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        final HttpServletRequest asyncRequest = (HttpServletRequest) asyncContext.getRequest();
+        final HttpServletResponse asyncResponse = (HttpServletResponse) asyncContext.getResponse();
+        final CancellationToken token = CancellationToken.get(asyncRequest);
+        final AtomicBoolean completed = new AtomicBoolean();
+        //--> The worker only uses the guarded request and response: the container may recycle the
+        //    real ones once the context is completed by the timeout
+        final AsyncRequestGuard guard = new AsyncRequestGuard(asyncRequest, asyncResponse, token,
+                RequestTimer.get(asyncRequest));
+
+        //--> The container answers with the timeout response when the deadline passes, even if the
+        //    worker has not polled the token yet
+        long remaining = token.getRemainingMillis();
+        asyncContext.setTimeout(remaining == Long.MAX_VALUE ? 0 : Math.max(1, remaining));
+        asyncContext.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                token.cancel(CancellationToken.Reason.DEADLINE);
+                try {
+                    if (!cancelled(myRequest, new RequestCancelledException(CancellationToken.Reason.DEADLINE),
+                            asyncRequest, asyncResponse)) {
+                        //--> The worker is writing a response, it is not cut off in the middle
+                        guard.awaitRelease(ASYNC_WRITE_GRACE_PERIOD);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    //--> A write of the worker still blocked on the client is given up on
+                    guard.close(ASYNC_CLOSE_TIMEOUT);
+                    if (completed.compareAndSet(false, true)) {
+                        asyncContext.complete();
+                    }
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                token.cancel(CancellationToken.Reason.DISCONNECTED);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                Bio4jManager manager = null;
+                HttpServletRequest workerRequest = guard.getRequest();
+                HttpServletResponse workerResponse = guard.getResponse();
+                try {
+                    manager = acquireManager(myRequest);
+                    execute(myRequest, session, manager, workerRequest, workerResponse);
+                } catch (RequestCancelledException e) {
+                    try {
+                        cancelled(myRequest, e, workerRequest, workerResponse);
+                    } catch (IOException ex) {
+                        //--> The client is gone
+                    } catch (RequestCancelledException ex) {
+                        //--> The context has been completed by the timeout
+                    }
+                } catch (Throwable e) {
+                    try {
+                        writeExceptionResponse(myRequest, e, manager, workerRequest, workerResponse);
+                    } catch (RequestCancelledException ex) {
+                        //--> The context has been completed by the timeout
+                    }
+                } finally {
+                    Bio4jManagerRegistry.releaseManager(manager);
+                    asyncPermits.release();
+                    if (permit != null) {
+                        permit.release();
+                    }
+                    if (guard.getTimer() != null) {
+                        guard.getTimer().finish();
+                    }
+                    guard.release();
+                    if (completed.compareAndSet(false, true)) {
+                        guard.close(0);
+                        asyncContext.complete();
+                    }
+                }
+            }
+        };
+
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            asyncPermits.release();
+            writeBusyResponse(myRequest, asyncResponse);
+            completed.set(true);
+            asyncContext.complete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes an error response telling the client the servlet is overloaded
+     * @param myRequest Request (null when it was rejected before being parsed)
+     */
+    final void writeBusyResponse(Request myRequest, HttpServletResponse response) throws IOException {
+        Response busyResponse = new Response();
+        busyResponse.setStatus(Response.ERROR_RESPONSE);
+        busyResponse.setError(SERVER_BUSY_MESSAGE);
+        if (myRequest != null) {
+            busyResponse.setId(myRequest.getId());
+            busyResponse.setMethod(myRequest.getMethod());
+        }
+        response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        writeResponse(busyResponse, null, response);
+    }
+
+    /**
+     * Handles an exception thrown while processing a request: it is reported (see {@link ErrorReporter})
+     * and a compact error response with the id of its signature is written, unless the response was already committed
+     * @param myRequest Request (null when the exception was thrown while parsing it)
+     */
+    final void writeExceptionResponse(Request myRequest, Throwable e, Bio4jManager manager,
+            HttpServletRequest request, HttpServletResponse response) {
+
+        ErrorSignature signature = ErrorReporter.getInstance().report(e);
+
+        Response errorResponse = new Response();
+        errorResponse.setStatus(Response.ERROR_RESPONSE);
+        errorResponse.setError(INTERNAL_ERROR_MESSAGE + " (" + signature.getId() + ")");
+        if (myRequest != null) {
+            errorResponse.setId(myRequest.getId());
+            errorResponse.setMethod(myRequest.getMethod());
+        }
+        logException(myRequest, errorResponse, e, manager);
+
+        if (!response.isCommitted()) {
+            try {
+                writeResponse(errorResponse, request, response);
+            } catch (IOException ex) {
+                //--> The client is gone
+            }
+        }
+    }
+
+    /**
+     * Reports an exception thrown while processing a request
+     * @return The signature of the exception
+     */
+    final ErrorSignature handleException(Request myRequest, Response myResponse, Throwable e, Bio4jManager manager) {
+        ErrorSignature signature = ErrorReporter.getInstance().report(e);
+        logException(myRequest, myResponse, e, manager);
+        return signature;
+    }
+
+    /**
+     * Publishes the exception in the {@link AuditLog} when the loggable errors flag is true, so that
+     * logErrorExceptionOperation is called off the request threads. Error events are dropped (and counted)
+     * rather than blocking the requests when the log is full.
+     */
+    final void logException(Request myRequest, Response myResponse, Throwable e, Bio4jManager manager) {
+        if (loggableErrorsFlag && !WarmUpReplayer.isWarmUpRequest(myRequest)) {
+            AuditLog.getInstance().publish(new AuditEvent(errorSink, myRequest, myResponse, manager, null, e),
+                    OverflowPolicy.DROP);
+        }
+    }
+
+    /**
+     * Runs the request (or batch of requests) once the session and permissions have been checked
+     */
+    private void execute(Request myRequest, BasicSession session, Bio4jManager manager,
+            HttpServletRequest request, HttpServletResponse response) throws Throwable {
+
+        //--> The request may have waited for too long (async queue)
+        CancellationToken.check(request);
+
+        try {
+            if (batchFlag && BATCH_METHOD.equals(myRequest.getMethod())) {
+                new BatchRequestExecutor(this).execute(myRequest, session, manager, request, response);
+            } else {
+                executeRequest(myRequest, session, manager, request, response);
             }
         } finally {
+            if (isMutatingMethod(myRequest.getMethod())) {
+                //--> The graph may have been modified, previous entity tags are no longer valid
+                graphModified();
+            }
+        }
+    }
+
+    /**
+     * Runs the logic of the servlet once the session and permissions have been checked
+     * and writes its response.
+     */
+    void executeRequest(final Request myRequest, final BasicSession session, final Bio4jManager manager,
+            final HttpServletRequest request, HttpServletResponse response) throws Throwable {
+
+        Response myResponse;
+        if (groupCommitter != null && isMutatingMethod(myRequest.getMethod())) {
+            //--> Committed together with the concurrent mutating requests, on the manager of the group
+            myResponse = groupCommitter.execute(new GroupCommitter.Operation<Response>() {
 
+                @Override
+                public Response run(Bio4jManager groupManager) throws Throwable {
+                    return produceResponse(myRequest, session, groupManager, request);
+                }
+            }, CancellationToken.get(request));
+        } else {
+            myResponse = produceResponse(myRequest, session, manager, request);
+        }
+        RequestTimer.mark(request, Phase.PROCESS);
+
+        //--> Reads answer with the timeout response once the deadline has passed (the result of a
+        //    modification that has already been applied is sent anyway)
+        if (isReadOnlyMethod(myRequest.getMethod())) {
+            CancellationToken.check(request);
         }
+
+        completeResponse(myRequest, myResponse);
+        logResponse(myRequest, myResponse, manager, session);
+        writeResponse(myResponse, request, response);
+    }
+
+    /**
+     * @return Whether the servlet logic produces whole responses ({@link #processRequest}), false for the
+     * servlets writing their results as they are produced
+     */
+    boolean producesResponses() {
+        return true;
     }
 
     /**
-     * Method for the logic of the servlet
+     * Gets the response of the request provided, either from the response cache or from the servlet logic
+     */
+    final Response produceResponse(final Request myRequest, final BasicSession session, final Bio4jManager manager,
+            final HttpServletRequest request) throws Throwable {
+
+        Response myResponse = null;
+        String cacheKey = null;
+        String version = null;
+
+        if (responseCache != null && cacheableMethods.contains(myRequest.getMethod())) {
+            cacheKey = RequestKey.build(myRequest, getCacheScope(session));
+            //--> Read before computing the response: a write happening meanwhile invalidates the entry
+            version = GraphVersion.get(neo4jDatabaseFolder);
+            myResponse = responseCache.get(cacheKey, version);
+        }
+
+        if (myResponse == null) {
+            if (singleFlight != null && isReadOnlyMethod(myRequest.getMethod())) {
+                //--> Identical requests in flight (same method, parameters and permissions) share one computation
+                String key = cacheKey != null ? cacheKey : RequestKey.build(myRequest, getCacheScope(session));
+                CancellationToken token = CancellationToken.get(request);
+                try {
+                    myResponse = singleFlight.execute(key, token, new SingleFlight.Computation() {
+
+                        @Override
+                        public Response run() throws Throwable {
+                            return processRequest(myRequest, session, manager, request);
+                        }
+                    });
+                } catch (RequestCancelledException e) {
+                    //--> The request computing the shared response was cancelled, not necessarily this one
+                    CancellationToken.check(request);
+                    myResponse = processRequest(myRequest, session, manager, request);
+                }
+            } else {
+                myResponse = processRequest(myRequest, session, manager, request);
+            }
+
+            if (cacheKey != null && !myResponse.isBinary()
+                    && !Response.ERROR_RESPONSE.equals(myResponse.getStatus())) {
+                responseCache.put(cacheKey, myResponse, version);
+            }
+        }
+
+        return myResponse;
+    }
+
+    /**
+     * @return The permission profile of the session when permissions are checked (so that users with
+     * different permissions never share cached responses), null otherwise
+     */
+    private String getCacheScope(BasicSession session) {
+        if (!checkPermissionsFlag || session == null) {
+            return null;
+        }
+        return getPermissionSet(session).getSignature();
+    }
+
+    /**
+     * Invalidates the responses cached by every servlet using the database of this one (the graph version
+     * is increased) and removes the ones cached by this servlet.
+     * It should be called by the servlets or admin operations modifying the data served outside of the
+     * requests of the servlets (their mutating methods increase the version already).
+     */
+    public void invalidateResponseCache() {
+        GraphVersion.increment(neo4jDatabaseFolder);
+        if (responseCache != null) {
+            responseCache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        WarmUpReplayer.unregister(getServletName(), this);
+        if (asyncLoggingFlag || loggableErrorsFlag) {
+            AuditLog auditLog = AuditLog.getCurrentInstance();
+            if (auditLog != null) {
+                auditLog.flush(AuditLog.SHUTDOWN_TIMEOUT);
+            }
+        }
+        if (singleFlight != null) {
+            singleFlight.close();
+        }
+        if (responseCache != null) {
+            responseCache.close();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Assigns the request id, method and status to the response provided
+     */
+    final void completeResponse(Request myRequest, Response myResponse) {
+        //--> Assigning the request id to its response
+        myResponse.setId(myRequest.getId());
+        //--> Assigning the request method to its response
+        myResponse.setMethod(myRequest.getMethod());
+
+
+        if (myResponse.getStatus().equals(Response.ERROR_RESPONSE)) {
+            myRequest.detach();
+            myResponse.setRequestSource(myRequest);
+        } else {
+            myResponse.setStatus(Response.SUCCESSFUL_RESPONSE);
+        }
+    }
+
+    /**
+     * Calls the logging methods when the loggable flag is true
+     * (or publishes the operation in the {@link AuditLog} when they are called asynchronously)
+     */
+    final void logResponse(Request myRequest, Response myResponse, Bio4jManager manager, BasicSession session) {
+        if (loggableFlag && !WarmUpReplayer.isWarmUpRequest(myRequest)) {
+            if (asyncLoggingFlag) {
+                AuditLog.getInstance().publish(new AuditEvent(auditSink, myRequest, myResponse, manager, session));
+            } else {
+                logOperation(myRequest, myResponse, manager, session);
+            }
+        }
+    }
+
+    private void logOperation(Request myRequest, Response myResponse, Bio4jManager manager, BasicSession session) {
+        if (myResponse.getStatus().equals(Response.SUCCESSFUL_RESPONSE)) {
+            /*
+             * The call to logSuccessfulOperation will include as many parameters as needed
+             * to perform the successful logging operation.
+             * (For example, the logged user could be passed as a parameter)
+             *
+             * this.logSuccessfulOperation(myRequest,myResponse,connection,user);
+             *
+             */
+            this.logSuccessfulOperation(myRequest, myResponse, manager, session);
+        } else if (myResponse.getStatus().equals(Response.ERROR_RESPONSE)) {
+            /*
+             * The call to logSuccessfulOperation will include as many parameters as needed
+             * to perform the error logging operation.
+             * (For example, the logged user could be passed as a parameter)
+             *
+             * this.logErrorResponseOperation(myRequest,myResponse,connection,user);
+             *
+             */
+            this.logErrorResponseOperation(myRequest, myResponse, manager, session);
+        }
+    }
+
+    /**
+     * Default sink of the operations logged asynchronously: the logging methods of the servlet
+     */
+    private final class LogOperationSink implements AuditSink {
+
+        @Override
+        public void write(List<AuditEvent> events) {
+            for (AuditEvent event : events) {
+                if (event.getError() != null) {
+                    /*
+                     * The call to logErrorExceptionOperation will include as many parameters as needed
+                     * to perform the error exception logging operation.
+                     * (For example, the logged user could be passed as a parameter)
+                     *
+                     * this.logErrorExceptionOperation(myRequest,myResponse, user, e,connection);
+                     *
+                     */
+                    logErrorExceptionOperation(event.getRequest(), event.getResponse(), event.getError(),
+                            event.getManager());
+                } else {
+                    logOperation(event.getRequest(), event.getResponse(), event.getManager(), event.getSession());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the response provided to the client
+     */
+    final void writeResponse(Response myResponse, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        //--> Only one response is written per request (see CancellationToken#claimResponse)
+        CancellationToken token = CancellationToken.get(request);
+        if (token != null && !token.claimResponse()) {
+            return;
+        }
+
+        //--------> Writing the response <---------------
+        // set headers
+        //--------------THIS PIECE OF CODE CORRESPONDS TO BINARY RESPONSES LIKE FILES-------------
+        if (myResponse instanceof BinaryResponse) {
+
+            //--> Streamed straight from its file/channel/stream (supports Range requests)
+            BinaryResponseWriter.write((BinaryResponse) myResponse, request, response);
+            RequestTimer.mark(request, Phase.WRITE);
+
+        } else if (myResponse.isBinary()) {
+
+            response.setContentType("application/x-download");
+            String filename = myResponse.getRoot().getChild("file").getAttributeValue("name");
+            byte[] fileContent = myResponse.getRoot().getChildText("file").getBytes();
+            response.setHeader("Content-Disposition", "attachment; filename=" + filename);
+            response.setContentLength(fileContent.length);
+            // write file
+            ServletOutputStream out = response.getOutputStream();
+
+            out.write(fileContent);
+            out.flush();
+            out.close();
+            RequestTimer.mark(request, Phase.WRITE);
+        } //---------------------------------------------------------------------------------------
+        //---------------> STANDARD RESPONSES---------------
+        else {
+            response.setContentType("text/html");
+            String etag = request == null ? null : (String) request.getAttribute(ETAG_ATTRIBUTE);
+            if (etag != null && Response.SUCCESSFUL_RESPONSE.equals(myResponse.getStatus())) {
+                //--> Clients revalidate with If-None-Match (or the graph version in the request)
+                response.setHeader("ETag", etag);
+                response.setHeader("Cache-Control", "no-cache");
+                myResponse.getRoot().setAttribute(GRAPH_VERSION_TAG, (String) request.getAttribute(GRAPH_VERSION_ATTRIBUTE));
+            }
+            //--> Serialized straight into pooled UTF-8 bytes (no intermediate String)
+            SerializedResponse serialized = ResponseSerializer.serialize(myResponse);
+            RequestTimer.mark(request, Phase.SERIALIZE);
+            // write response (compressed when accepted by the client)
+            serialized.write(request, response, compressionMinSize);
+            RequestTimer.mark(request, Phase.WRITE);
+        }
+        //------------------------------------------------
+    }
+
+    /**
+     * Method for the logic of the servlet.
+     * <br>Large binary results (files) should be returned as a {@link BinaryResponse}
+     * so that they are streamed instead of being held in memory.
      */
     protected abstract Response processRequest(Request request, BasicSession session, Bio4jManager manager,
             HttpServletRequest httpRequest) throws Throwable;
@@ -268,6 +1213,8 @@ public abstract class BasicServletNeo4j extends HttpServlet {
     /**
      * Method called when the operation could not be performed because of an exception ocurred
      * This method is called as long as 'loggableErrorsFlag' is true
+     * <br>It is called asynchronously, off the request threads (see {@link AuditLog});
+     * the request may be null when the exception was thrown while parsing it.
      */
     protected abstract void logErrorExceptionOperation(Request request, Response response, Throwable e,
             Bio4jManager manager);
@@ -320,6 +1267,18 @@ public abstract class BasicServletNeo4j extends HttpServlet {
      */
     protected abstract boolean checkPermissions(ArrayList<?> userPermissions, Request request);
 
+    /**
+     * This method can be overridden in order to define the permission required by each request method.
+     * <br>It is compiled once when the servlet is initialized; the permission checks of these methods are
+     * then a bit test over the permissions compiled at login and {@link #checkPermissions} is only called
+     * for the methods not included.
+     * @return Map from request method to required permission (an object of the user permissions list),
+     * null by default
+     */
+    protected Map<String, ?> defineMethodPermissions() {
+        return null;
+    }
+
     /**
      * This method must be implemented in order to define the check session flag
      * @return True if a valid session is needed, false otherwise.
@@ -344,6 +1303,24 @@ public abstract class BasicServletNeo4j extends HttpServlet {
      */
     protected abstract boolean defineLoggableErrorsFlag();
 
+    /**
+     * This method can be overridden in order to log the successful operations and error responses
+     * asynchronously, in batches and off the request threads (see {@link AuditLog}).
+     * @return True for asynchronous logging, false (default) to call the logging methods before the
+     * response is written
+     */
+    protected boolean defineAsyncLoggingFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to define where the operations logged asynchronously are written
+     * @return The sink, null by default (the logging methods of the servlet are called from the audit thread)
+     */
+    protected AuditSink defineAuditSink() {
+        return null;
+    }
+
     /**
      * This method must be implemented in order to define the
      * utf-8 character encoding flag
@@ -351,8 +1328,229 @@ public abstract class BasicServletNeo4j extends HttpServlet {
      */
     protected abstract boolean defineUtf8CharacterEncodingRequest();
 
+    /**
+     * This method must be implemented in order to define the neo4j database folder.
+     * The manager for this folder is shared by every request (see {@link Bio4jManagerRegistry})
+     * @return The neo4j database folder
+     */
     protected abstract String defineNeo4jDatabaseFolder();
 
+    /**
+     * This method can be overridden in order to declare the request methods that only read the graph.
+     * <br>They are routed to the read-only replicas (see {@link #defineReplicaDatabaseFolders()}) and batches
+     * made only of them run in parallel without a graph transaction. Every other method is considered
+     * mutating and runs against the primary database.
+     * @return The read-only methods, null (every method is mutating) by default
+     */
+    protected Set<String> defineReadOnlyMethods() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to declare the request methods that modify the graph.
+     * <br>The graph version (see {@link GraphVersion}) is increased after each of their requests, so the
+     * cached responses and entity tags computed before are no longer served. Modifications made by
+     * other methods must be followed by a call to {@link #invalidateResponseCache()}.
+     * @return The mutating methods, null (none) by default
+     */
+    protected Set<String> defineMutatingMethods() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to define read-only replicas of the database (for example copies
+     * kept up to date from the primary) serving the read-only methods.
+     * @return The folders of the replicas, null (reads served by the primary database) by default
+     */
+    protected String[] defineReplicaDatabaseFolders() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to commit the concurrent requests of the mutating methods
+     * (see {@link #defineMutatingMethods()}) together: they are run one after the other by the committer of
+     * the database in one graph transaction per group (see {@link GroupCommitter}), {@link #processRequest}
+     * being given the manager of the group and the transactions it begins being nested in it. When a group
+     * fails its requests are run again one by one; requests whose deadline passes before their group starts
+     * are withdrawn.
+     * <br>It only suits methods whose only side effects are on the graph.
+     * @return True for group commit, false (default) otherwise
+     */
+    protected boolean defineGroupCommitFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to define how long a mutating request waits for others
+     * to join its group
+     * @return The time window (in milliseconds), 5 by default
+     */
+    protected long defineGroupCommitWindow() {
+        return 5;
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum number of requests committed together
+     * @return The maximum size of a group, 100 by default
+     */
+    protected int defineGroupCommitMaxSize() {
+        return 100;
+    }
+
+    /**
+     * This method can be overridden in order to run the servlet logic asynchronously
+     * (Servlet 3.0 async support) so that container threads are never blocked on the graph.
+     * @return True if requests must be processed in the async executor, false otherwise (default).
+     */
+    protected boolean defineAsyncFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to define the executor used in async mode
+     * @return The executor, by default the shared {@link GraphWorkerPool}
+     */
+    protected Executor defineAsyncExecutor() {
+        return GraphWorkerPool.getExecutor();
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum number of requests of this
+     * servlet that can be running or waiting in async mode. Requests over this limit get a busy response.
+     * @return The limit, 100 by default
+     */
+    protected int defineAsyncQueueLimit() {
+        return 100;
+    }
+
+    /**
+     * This method can be overridden in order to define the time budget of the requests whose method has no
+     * budget of its own (see {@link #defineMethodTimeouts()})
+     * @return Time budget in milliseconds, 0 (no deadline) by default
+     */
+    protected long defineDefaultTimeout() {
+        return 0;
+    }
+
+    /**
+     * This method can be overridden in order to define the time budget of each request method.
+     * <br>Once it is over, the request gets a timeout response and its {@link CancellationToken} is cancelled:
+     * traversals in {@link #processRequest} should poll it (<code>CancellationToken.get(httpRequest)</code>)
+     * and stop. Clients can shorten the budget with the {@link #DEADLINE_TAG} parameter.
+     * @return Map from request method to its time budget in milliseconds, null by default
+     */
+    protected Map<String, Long> defineMethodTimeouts() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to limit the requests of this servlet processed at the same time.
+     * Requests over the limit get a busy response before being parsed.
+     * @return The limiter ({@link ConcurrencyLimiter#fixed} or {@link ConcurrencyLimiter#adaptive}),
+     * null (no limit) by default
+     */
+    protected ConcurrencyLimiter defineConcurrencyLimit() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to limit the requests of some methods (typically heavy
+     * traversals) processed at the same time, so that they cannot starve the rest.
+     * @return Map from request method to its limiter, null by default
+     */
+    protected Map<String, ConcurrencyLimiter> defineMethodConcurrencyLimits() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to define the minimum size (in bytes) of the standard
+     * responses compressed (gzip/deflate) for the clients accepting it
+     * @return The minimum size, {@link ResponseCompression#DEFAULT_MIN_SIZE} by default (a negative value
+     * disables compression)
+     */
+    protected int defineCompressionMinSize() {
+        return ResponseCompression.DEFAULT_MIN_SIZE;
+    }
+
+    /**
+     * This method can be overridden in order to define the request methods whose responses are cached.
+     * <br>Only idempotent read-only methods (see {@link #defineReadOnlyMethods()}) can be included. Responses are cached by method and
+     * normalized parameters (and by permission profile when permissions are checked), and they are only
+     * served while the graph version they were computed at is current (see {@link GraphVersion}).
+     * @return The cacheable methods, null (no cache) by default
+     */
+    protected Set<String> defineCacheableMethods() {
+        return null;
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum number of responses cached
+     * @return The size of the response cache, 1000 by default
+     */
+    protected int defineResponseCacheSize() {
+        return 1000;
+    }
+
+    /**
+     * This method can be overridden in order to define how long a cached response is valid
+     * @return Time to live (in milliseconds) of the cached responses, 10 minutes by default
+     */
+    protected long defineResponseCacheTTL() {
+        return 10 * 60000;
+    }
+
+    /**
+     * This method can be overridden in order to answer the read-only methods (see {@link #defineReadOnlyMethods()})
+     * conditionally: responses carry an ETag header and the graph version, and requests sending the current
+     * ETag (If-None-Match header) or graph version ({@link #GRAPH_VERSION_TAG} parameter) are answered as not
+     * modified without running the servlet logic. The graph version changes after every request of the
+     * mutating methods (see {@link #defineMutatingMethods()}) and whenever {@link #invalidateResponseCache()} or {@link GraphVersion#reload()} are called.
+     * @return True if read-only requests must be answered conditionally, false (default) otherwise.
+     */
+    protected boolean defineConditionalFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to deduplicate identical concurrent requests of the
+     * read-only methods (see {@link #defineReadOnlyMethods()}): requests with the same method, parameters
+     * and permissions arriving while one of them is being processed share its response.
+     * @return True if identical concurrent read-only requests must be processed once, false (default) otherwise.
+     */
+    protected boolean defineSingleFlightFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to disable the latency metrics of the servlet
+     * (see {@link ServletMetrics} and {@link com.era7.bioinfo.servletlibraryneo4j.metrics.MetricsServlet})
+     * @return True if the phases of every request must be measured (default), false otherwise.
+     */
+    protected boolean defineMetricsFlag() {
+        return true;
+    }
+
+    /**
+     * This method can be overridden in order to accept batch requests: requests with the method
+     * {@link #BATCH_METHOD} whose parameters contain several requests sharing the session of the batch.
+     * <br>The session is checked once for the whole batch, the permissions for each request, and the
+     * responses are returned together (each one with its own status) in one response.
+     * @return True if batch requests are accepted, false otherwise (default).
+     */
+    protected boolean defineBatchFlag() {
+        return false;
+    }
+
+    /**
+     * This method can be overridden in order to run the requests of a batch in parallel in the async
+     * executor (or the shared {@link GraphWorkerPool}).
+     * @return True for parallel execution, false (default) for sequential execution in one graph
+     * transaction (rolled back for the whole batch when one of its requests fails)
+     */
+    protected boolean defineBatchParallelFlag() {
+        return false;
+    }
+
     /**
      * This method is equivalent to the method init() from the HttpServlet class
      */
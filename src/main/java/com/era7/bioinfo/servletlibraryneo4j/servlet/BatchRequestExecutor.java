@@ -0,0 +1,253 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.async.GraphWorkerPool;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorSignature;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.Phase;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.RequestTimer;
+import com.era7.bioinfo.servletlibraryneo4j.response.BinaryResponse;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jdom.Element;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Runs the requests contained in a batch request of a {@link BasicServletNeo4j} and writes
+ * their responses together in one response.
+ */
+final class BatchRequestExecutor {
+
+    static final String BATCH_TOO_LARGE_MESSAGE = "Too many requests in the batch";
+    static final String BINARY_NOT_SUPPORTED_MESSAGE = "Binary responses are not supported in batches";
+    static final String ROLLED_BACK_MESSAGE = "Rolled back: another request of the batch failed";
+    static final String NOT_EXECUTED_MESSAGE = "Not executed: another request of the batch failed";
+
+    private final BasicServletNeo4j servlet;
+
+    BatchRequestExecutor(BasicServletNeo4j servlet) {
+        this.servlet = servlet;
+    }
+
+    void execute(Request batchRequest, BasicSession session, Bio4jManager manager,
+            HttpServletRequest request, HttpServletResponse response) throws Throwable {
+
+        List<Request> items = new ArrayList<Request>();
+        Element parameters = batchRequest.getParameters();
+        if (parameters != null) {
+            for (Object child : parameters.getChildren()) {
+                items.add(new Request((Element) ((Element) child).clone()));
+            }
+        }
+
+        Response batchResponse = new Response();
+        boolean readOnly = false;
+
+        if (items.size() > BasicServletNeo4j.MAX_BATCH_SIZE) {
+            batchResponse.setStatus(Response.ERROR_RESPONSE);
+            batchResponse.setError(BATCH_TOO_LARGE_MESSAGE);
+        } else {
+            Response[] responses;
+            readOnly = isReadOnly(items);
+            if (readOnly) {
+                //--> Reads need neither the primary database nor a transaction, nor to run in order
+                Bio4jManager readOnlyManager = servlet.acquireReadOnlyManager();
+                try {
+                    responses = runParallel(items, session, readOnlyManager, request);
+                } finally {
+                    Bio4jManagerRegistry.releaseManager(readOnlyManager);
+                }
+            } else {
+                try {
+                    if (servlet.batchParallelFlag) {
+                        responses = runParallel(items, session, manager, request);
+                    } else {
+                        responses = runSequential(items, session, manager, request);
+                    }
+                } finally {
+                    if (isMutating(items)) {
+                        servlet.graphModified();
+                    }
+                }
+            }
+            batchResponse.setStatus(Response.SUCCESSFUL_RESPONSE);
+            for (Response itemResponse : responses) {
+                batchResponse.getRoot().addContent(itemResponse.getRoot().detach());
+            }
+        }
+        RequestTimer.mark(request, Phase.PROCESS);
+
+        if (readOnly) {
+            CancellationToken.check(request);
+        }
+
+        servlet.completeResponse(batchRequest, batchResponse);
+        servlet.logResponse(batchRequest, batchResponse, manager, session);
+        servlet.writeResponse(batchResponse, request, response);
+    }
+
+    /**
+     * @return Whether every request provided is read-only
+     */
+    private boolean isReadOnly(List<Request> items) {
+        for (Request item : items) {
+            if (!servlet.isReadOnlyMethod(item.getMethod())) {
+                return false;
+            }
+        }
+        return !items.isEmpty();
+    }
+
+    /**
+     * @return Whether any of the requests provided modifies the graph
+     */
+    private boolean isMutating(List<Request> items) {
+        for (Request item : items) {
+            if (servlet.isMutatingMethod(item.getMethod())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the requests one after the other in one graph transaction
+     */
+    private Response[] runSequential(List<Request> items, BasicSession session, Bio4jManager manager,
+            HttpServletRequest request) {
+
+        Response[] responses = new Response[items.size()];
+        int failed = -1;
+
+        Transaction transaction = manager.getGraphService().beginTx();
+        try {
+            for (int i = 0; i < responses.length && failed < 0; i++) {
+                try {
+                    responses[i] = runItem(items.get(i), session, manager, request);
+                } catch (Throwable e) {
+                    responses[i] = exceptionResponse(items.get(i), e, manager);
+                    failed = i;
+                }
+            }
+            if (failed < 0) {
+                transaction.success();
+            } else {
+                transaction.failure();
+            }
+        } finally {
+            try {
+                transaction.finish();
+            } catch (RuntimeException e) {
+                //--> The transaction could not be committed
+                if (failed < 0) {
+                    servlet.handleException(null, new Response(), e, manager);
+                    failed = responses.length;
+                }
+            }
+        }
+
+        if (failed >= 0) {
+            for (int i = 0; i < responses.length; i++) {
+                if (i < failed && !Response.ERROR_RESPONSE.equals(responses[i].getStatus())) {
+                    responses[i] = errorResponse(items.get(i), ROLLED_BACK_MESSAGE);
+                } else if (i > failed) {
+                    responses[i] = errorResponse(items.get(i), NOT_EXECUTED_MESSAGE);
+                }
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Runs the requests in parallel. The calling thread takes part in the work as well, so the batch
+     * completes even when no worker is available (and it never waits for a task that has not started).
+     */
+    private Response[] runParallel(final List<Request> items, final BasicSession session, final Bio4jManager manager,
+            final HttpServletRequest request) throws InterruptedException {
+
+        final Response[] responses = new Response[items.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(items.size());
+
+        Runnable worker = new Runnable() {
+
+            @Override
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < responses.length) {
+                    try {
+                        responses[i] = runItem(items.get(i), session, manager, request);
+                    } catch (Throwable e) {
+                        responses[i] = exceptionResponse(items.get(i), e, manager);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        Executor executor = servlet.asyncExecutor != null ? servlet.asyncExecutor : GraphWorkerPool.getExecutor();
+        int helpers = Math.min(items.size() - 1, GraphWorkerPool.DEFAULT_THREADS);
+        try {
+            for (int i = 0; i < helpers; i++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            //--> The pool is full, the remaining requests are run by this thread
+        }
+        worker.run();
+        done.await();
+        return responses;
+    }
+
+    private Response runItem(Request item, BasicSession session, Bio4jManager manager,
+            HttpServletRequest request) throws Throwable {
+
+        //--> The remaining requests of the batch are not run once it has been cancelled
+        CancellationToken.check(request);
+
+        Response itemResponse;
+
+        if (servlet.checkSessionFlag && servlet.checkPermissionsFlag && !servlet.hasPermission(session, item)) {
+            itemResponse = errorResponse(item, BasicServletNeo4j.ACCESS_DENIED_MESSAGE);
+        } else {
+            itemResponse = servlet.produceResponse(item, session, manager, request);
+            if (itemResponse.isBinary()) {
+                if (itemResponse instanceof BinaryResponse) {
+                    ((BinaryResponse) itemResponse).discard();
+                }
+                itemResponse = errorResponse(item, BINARY_NOT_SUPPORTED_MESSAGE);
+            } else {
+                servlet.completeResponse(item, itemResponse);
+            }
+        }
+        servlet.logResponse(item, itemResponse, manager, session);
+        return itemResponse;
+    }
+
+    private Response exceptionResponse(Request item, Throwable e, Bio4jManager manager) {
+        ErrorSignature signature = ErrorReporter.getInstance().report(e);
+        Response itemResponse = errorResponse(item, BasicServletNeo4j.INTERNAL_ERROR_MESSAGE + " (" + signature.getId() + ")");
+        servlet.logException(item, itemResponse, e, manager);
+        return itemResponse;
+    }
+
+    private Response errorResponse(Request item, String message) {
+        Response itemResponse = new Response();
+        itemResponse.setStatus(Response.ERROR_RESPONSE);
+        itemResponse.setError(message);
+        servlet.completeResponse(item, itemResponse);
+        return itemResponse;
+    }
+}
@@ -0,0 +1,72 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.Phase;
+import com.era7.bioinfo.servletlibraryneo4j.metrics.RequestTimer;
+import com.era7.bioinfo.servletlibraryneo4j.response.IncrementalResponseWriter;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Base of the servlets whose logic writes its results to an {@link IncrementalResponseWriter} instead of
+ * returning a whole {@link Response} ({@link StreamingServletNeo4j} and {@link PushServletNeo4j}).
+ * <br>The response passed to the logging methods only contains the envelope (id, method and status).
+ */
+abstract class IncrementalServletNeo4j<W extends IncrementalResponseWriter> extends BasicServletNeo4j {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    final void executeRequest(Request myRequest, BasicSession session, Bio4jManager manager,
+            HttpServletRequest request, HttpServletResponse response) throws Throwable {
+
+        Response envelope = new Response();
+        envelope.setStatus(Response.SUCCESSFUL_RESPONSE);
+        completeResponse(myRequest, envelope);
+
+        W writer = createWriter(envelope, request, response);
+
+        try {
+            processIncrementalRequest(myRequest, session, manager, request, writer);
+        } catch (Throwable e) {
+            //--> Once started, the response can only be closed with an error element (or event)
+            writer.abort(e);
+            throw e;
+        }
+
+        if (writer.getError() != null) {
+
+            Response errorResponse = new Response();
+            errorResponse.setStatus(Response.ERROR_RESPONSE);
+            errorResponse.setError(writer.getError());
+            completeResponse(myRequest, errorResponse);
+            logResponse(myRequest, errorResponse, manager, session);
+            writeResponse(errorResponse, request, response);
+
+        } else {
+
+            writer.finish();
+            RequestTimer.mark(request, Phase.PROCESS);
+            logResponse(myRequest, envelope, manager, session);
+        }
+    }
+
+    @Override
+    final boolean producesResponses() {
+        return false;
+    }
+
+    /**
+     * @return The writer the servlet logic writes the response of the request to
+     */
+    abstract W createWriter(Response envelope, HttpServletRequest request, HttpServletResponse response);
+
+    /**
+     * Runs the logic of the servlet
+     */
+    abstract void processIncrementalRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest, W writer) throws Throwable;
+}
@@ -0,0 +1,308 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.paging.CursorRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.paging.TraversalCursor;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import javax.servlet.http.HttpServletRequest;
+import org.jdom.Element;
+
+/**
+ * Abstract class for servlets returning large result sets one page at a time.
+ * <br>The servlet logic opens a {@link TraversalCursor}; each response contains one page of its results
+ * plus, when there are more, a continuation token. Requesting the next page (the same request with the token
+ * among its parameters) resumes the suspended traversal instead of running it again and skipping results.
+ * <br>Suspended traversals belong to the session that started them and are bounded by number, memory and idle
+ * time (see {@link CursorRegistry}); when the cursor of a token has been evicted, the traversal is opened
+ * again and moved to the position encoded in the token (see {@link #seekCursor}), up to a maximum position
+ * (see {@link #defineMaxSeekPosition()}) since the token comes from the client.
+ * <br>Each cursor is kept with the manager its traversal runs on: the next page runs on that manager as long
+ * as it is still open, otherwise (the manager was replaced) the traversal is opened again on the current one.
+ * <br>Session and permission checks, flags and logging work exactly as in {@link BasicServletNeo4j}.
+ * Paged methods should not be declared cacheable.
+ */
+public abstract class PagingServletNeo4j extends BasicServletNeo4j {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * Parameter (child of the request parameters) with the continuation token, and element of the
+     * response returning it
+     */
+    public static final String CONTINUATION_TOKEN_TAG = "continuation_token";
+    /**
+     * Parameter (child of the request parameters) with the number of results wished per page
+     */
+    public static final String PAGE_SIZE_TAG = "page_size";
+    /**
+     * Message used when the continuation token provided is not valid
+     */
+    public static final String INVALID_TOKEN_MESSAGE = "Invalid continuation token";
+    /**
+     * Maximum number of results of a page
+     */
+    public static int MAX_PAGE_SIZE = 10000;
+
+    private volatile CursorRegistry cursors = null;
+
+    /**
+     * Paging servlets implement {@link #openCursor} instead
+     */
+    @Override
+    protected final Response processRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest) throws Throwable {
+
+        Response response = new Response();
+        String sessionId = session == null ? null : session.getSessionId();
+        Element parameters = request.getParameters();
+        String token = parameters == null ? null : parameters.getChildTextTrim(CONTINUATION_TOKEN_TAG);
+        int pageSize = getPageSize(parameters);
+
+        ManagedCursor cursor = null;
+        Bio4jManager retained = null;
+        long position = 0;
+        if (token == null || token.length() == 0) {
+            cursor = new ManagedCursor(openCursor(request, session, manager, httpRequest), manager);
+        } else {
+            position = CursorRegistry.getPosition(token);
+            if (position < 0) {
+                response.setStatus(Response.ERROR_RESPONSE);
+                response.setError(INVALID_TOKEN_MESSAGE);
+                return response;
+            }
+            TraversalCursor taken = getCursors().take(token, sessionId, request.getMethod());
+            if (taken != null) {
+                //--> Cursors stored by subclasses themselves are assumed to run on the manager of the request
+                cursor = taken instanceof ManagedCursor ? (ManagedCursor) taken : new ManagedCursor(taken, manager);
+            }
+            if (cursor != null && cursor.manager != manager) {
+                if (Bio4jManagerRegistry.retainManager(cursor.manager)) {
+                    //--> Another manager (a replica) still open: this request holds it until the page is done
+                    retained = cursor.manager;
+                } else {
+                    //--> The manager of the traversal has been replaced since the previous page
+                    cursor.closeQuietly();
+                    cursor = null;
+                }
+            }
+            if (cursor == null) {
+                if (position > defineMaxSeekPosition()) {
+                    response.setStatus(Response.ERROR_RESPONSE);
+                    response.setError(INVALID_TOKEN_MESSAGE);
+                    return response;
+                }
+                //--> Evicted (or from another node): the traversal is opened again
+                cursor = new ManagedCursor(seekCursor(request, session, manager, httpRequest, position), manager);
+            }
+        }
+
+        try {
+            return producePage(request, response, sessionId, pageSize, cursor, position);
+        } finally {
+            Bio4jManagerRegistry.releaseManager(retained);
+        }
+    }
+
+    private Response producePage(Request request, Response response, String sessionId, int pageSize,
+            ManagedCursor cursor, long position) throws Throwable {
+
+        boolean more;
+        try {
+            int count = 0;
+            while (count < pageSize && cursor.hasNext()) {
+                response.getRoot().addContent(cursor.next());
+                count++;
+            }
+            position += count;
+            more = cursor.hasNext();
+        } catch (Throwable e) {
+            cursor.close();
+            throw e;
+        }
+
+        if (more) {
+            Element tokenElement = new Element(CONTINUATION_TOKEN_TAG);
+            tokenElement.setText(getCursors().put(sessionId, request.getMethod(), cursor, position));
+            response.getRoot().addContent(tokenElement);
+        } else {
+            cursor.close();
+        }
+        response.setStatus(Response.SUCCESSFUL_RESPONSE);
+        return response;
+    }
+
+    private int getPageSize(Element parameters) {
+        String value = parameters == null ? null : parameters.getChildTextTrim(PAGE_SIZE_TAG);
+        if (value != null && value.length() > 0) {
+            try {
+                return Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(value)));
+            } catch (NumberFormatException e) {
+                //--> Default page size
+            }
+        }
+        return defineDefaultPageSize();
+    }
+
+    /**
+     * @return The suspended traversals of the servlet
+     */
+    protected final CursorRegistry getCursors() {
+        CursorRegistry current = cursors;
+        if (current == null) {
+            synchronized (this) {
+                current = cursors;
+                if (current == null) {
+                    current = new CursorRegistry(defineMaxCursors(), defineMaxCursorsPerSession(),
+                            defineCursorMemoryLimit(), defineCursorTTL());
+                    cursors = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public void destroy() {
+        if (cursors != null) {
+            cursors.close();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Method for the logic of the servlet: starts the traversal of the request provided
+     * @return The cursor producing the results of the traversal
+     */
+    protected abstract TraversalCursor openCursor(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest) throws Throwable;
+
+    /**
+     * Re-opens the traversal of a request whose cursor is no longer available and moves it to the position
+     * provided. By default the traversal is opened and the results already returned are skipped; it can be
+     * overridden when the traversal can seek directly (for example starting after the last node returned).
+     * @param position Number of results already returned (at most {@link #defineMaxSeekPosition()})
+     * @return The cursor positioned after the results already returned
+     */
+    protected TraversalCursor seekCursor(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest, long position) throws Throwable {
+        TraversalCursor cursor = openCursor(request, session, manager, httpRequest);
+        CancellationToken token = CancellationToken.get(httpRequest);
+        try {
+            for (long i = 0; i < position && cursor.hasNext(); i++) {
+                cursor.next();
+                if (token != null && (i & 1023) == 1023) {
+                    token.check();
+                }
+            }
+        } catch (Throwable e) {
+            cursor.close();
+            throw e;
+        }
+        return cursor;
+    }
+
+    /**
+     * This method can be overridden in order to define the number of results of a page when the request
+     * does not include it
+     * @return The page size, 100 by default
+     */
+    protected int defineDefaultPageSize() {
+        return 100;
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum position a traversal whose cursor is no
+     * longer available is moved to: tokens with a higher position are rejected as invalid, so a forged token
+     * cannot make the servlet skip an unbounded number of results.
+     * @return The maximum position, 100000 by default
+     */
+    protected long defineMaxSeekPosition() {
+        return 100000;
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum number of suspended traversals
+     * @return The maximum number of cursors, 1000 by default
+     */
+    protected int defineMaxCursors() {
+        return 1000;
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum number of suspended traversals of a session
+     * @return The maximum number of cursors per session, 10 by default
+     */
+    protected int defineMaxCursorsPerSession() {
+        return 10;
+    }
+
+    /**
+     * This method can be overridden in order to define the maximum memory held by the suspended traversals
+     * @return The limit (in bytes) of the estimated memory of the cursors, 64MB by default
+     */
+    protected long defineCursorMemoryLimit() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * This method can be overridden in order to define how long a suspended traversal is kept without use
+     * @return Idle time (in milliseconds) after which a cursor is evicted, 5 minutes by default
+     */
+    protected long defineCursorTTL() {
+        return 5 * 60000;
+    }
+
+    /**
+     * Cursor stored with the manager its traversal runs on
+     */
+    private static final class ManagedCursor implements TraversalCursor {
+
+        final TraversalCursor cursor;
+        final Bio4jManager manager;
+
+        ManagedCursor(TraversalCursor cursor, Bio4jManager manager) {
+            this.cursor = cursor;
+            this.manager = manager;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public Element next() {
+            return cursor.next();
+        }
+
+        @Override
+        public long getEstimatedMemory() {
+            return cursor.getEstimatedMemory();
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+
+        void closeQuietly() {
+            try {
+                cursor.close();
+            } catch (RuntimeException e) {
+                //--> Its database has already been shut down
+            }
+        }
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Paging servlet neo4j";
+    }
+}
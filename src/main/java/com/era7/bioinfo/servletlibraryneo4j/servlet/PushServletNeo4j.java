@@ -0,0 +1,85 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.response.PushEventWriter;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Abstract class for servlets running long analyses.
+ * <br>The servlet logic pushes partial results and progress events to a {@link PushEventWriter} as the
+ * graph work produces them (server-sent events, or a chunked xml response for clients not accepting them),
+ * so clients see the analysis progressing instead of giving up and retrying.
+ * <br>Session and permission checks, flags and logging work exactly as in {@link BasicServletNeo4j};
+ * the response passed to the logging methods only contains the envelope (id, method and status).
+ * When the client disconnects, the next write (or poll of the {@link com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken})
+ * stops the work.
+ * <br>Batches, single-flight and the response cache need whole responses, so they cannot be enabled.
+ */
+public abstract class PushServletNeo4j extends IncrementalServletNeo4j<PushEventWriter> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    final PushEventWriter createWriter(Response envelope, HttpServletRequest request, HttpServletResponse response) {
+        return new PushEventWriter(envelope, request, response, defineProgressInterval(),
+                defineHeartbeatInterval());
+    }
+
+    @Override
+    final void processIncrementalRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest, PushEventWriter writer) throws Throwable {
+        processPushRequest(request, session, manager, httpRequest, writer);
+    }
+
+    /**
+     * Push servlets implement {@link #processPushRequest} instead.
+     * <br>It is never called: requests are run by {@link #executeRequest} and the features needing whole
+     * responses (batches, single-flight and the response cache) are rejected when the servlet is initialized.
+     */
+    @Override
+    protected final Response processRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest) throws Throwable {
+        throw new IllegalStateException("Push servlets only run processPushRequest");
+    }
+
+    /**
+     * Method for the logic of the servlet.
+     * <br>Partial results must be pushed with {@link PushEventWriter#writeResult} as soon as they are
+     * available and the progress reported with {@link PushEventWriter#progress} as often as convenient
+     * (it is throttled). Use {@link PushEventWriter#setError(String)} (before pushing anything) to answer
+     * with an error.
+     */
+    protected abstract void processPushRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest, PushEventWriter writer) throws Throwable;
+
+    /**
+     * This method can be overridden in order to define how often progress events are sent
+     * @return Minimum time (in milliseconds) between two progress events, 250 by default
+     */
+    protected long defineProgressInterval() {
+        return 250;
+    }
+
+    /**
+     * This method can be overridden in order to define how often idle connections get a heartbeat once
+     * something has been pushed (needed to detect that the client is gone while the graph work is silent)
+     * @return Time (in milliseconds) without writes after which a heartbeat is sent, 15 seconds by default
+     * (0 disables heartbeats)
+     */
+    protected long defineHeartbeatInterval() {
+        return 15000;
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Push servlet neo4j";
+    }
+}
@@ -0,0 +1,63 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseStreamWriter;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Abstract class for servlets returning large result sets.
+ * <br>Instead of returning a fully built {@link Response}, the servlet logic writes the result
+ * elements to a {@link ResponseStreamWriter} as the traversal produces them, so they are sent to the
+ * client straight away and memory usage stays flat.
+ * <br>Session and permission checks, flags and logging work exactly as in {@link BasicServletNeo4j};
+ * the response passed to the logging methods only contains the envelope (id, method and status).
+ * Batches, single-flight and the response cache need whole responses, so they cannot be enabled.
+ */
+public abstract class StreamingServletNeo4j extends IncrementalServletNeo4j<ResponseStreamWriter> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    final ResponseStreamWriter createWriter(Response envelope, HttpServletRequest request,
+            HttpServletResponse response) {
+        return new ResponseStreamWriter(envelope, request, response);
+    }
+
+    @Override
+    final void processIncrementalRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest, ResponseStreamWriter writer) throws Throwable {
+        processStreamingRequest(request, session, manager, httpRequest, writer);
+    }
+
+    /**
+     * Streaming servlets implement {@link #processStreamingRequest} instead.
+     * <br>It is never called: requests are run by {@link #executeRequest} and the features needing whole
+     * responses (batches, single-flight and the response cache) are rejected when the servlet is initialized.
+     */
+    @Override
+    protected final Response processRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest) throws Throwable {
+        throw new IllegalStateException("Streaming servlets only run processStreamingRequest");
+    }
+
+    /**
+     * Method for the logic of the servlet.
+     * <br>Result elements must be written to the writer provided as soon as they are available.
+     * Use {@link ResponseStreamWriter#setError(String)} (before writing anything) to answer with an error.
+     */
+    protected abstract void processStreamingRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest, ResponseStreamWriter writer) throws Throwable;
+
+    /**
+     * Returns a short description of the servlet.
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Streaming servlet neo4j";
+    }
+}
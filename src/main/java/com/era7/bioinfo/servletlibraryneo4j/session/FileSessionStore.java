@@ -0,0 +1,203 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Session store keeping one file per session in a folder shared by the nodes of the application
+ * (for example a network file system; a local folder works as a stand-in on one machine).
+ * <br>Each file holds the version of the session followed by the serialized session; files are written
+ * to a temporary file and renamed so that readers never see half-written sessions. The modification time
+ * of the file is the last access to the session.
+ * <br>On platforms where renaming does not replace an existing file, the previous file is renamed aside
+ * first and read in its place until the new one is in place, so the session never seems to be missing.
+ */
+public class FileSessionStore implements SessionStore {
+
+    private static final String SUFFIX = ".session";
+    private static final String REPLACED_SUFFIX = ".replaced";
+
+    private final File folder;
+
+    /**
+     * @param folder Shared folder (it is created if it does not exist)
+     */
+    public FileSessionStore(File folder) throws IOException {
+        this.folder = folder;
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create the session store folder " + folder);
+        }
+    }
+
+    @Override
+    public void save(StoredSession session) throws IOException {
+        File file = getFile(session.getSessionId());
+        if (file == null) {
+            throw new IOException("Invalid session id " + session.getSessionId());
+        }
+        File temp = File.createTempFile("session", ".tmp", folder);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeLong(session.getVersion());
+                ObjectOutputStream objectOut = new ObjectOutputStream(out);
+                objectOut.writeObject(session);
+                objectOut.flush();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                //--> Some platforms do not replace existing files when renaming
+                File replaced = getReplacedFile(file);
+                replaced.delete();
+                boolean movedAside = file.renameTo(replaced);
+                if (!temp.renameTo(file)) {
+                    if (movedAside) {
+                        replaced.renameTo(file);
+                    }
+                    throw new IOException("Unable to write " + file);
+                }
+                replaced.delete();
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Override
+    public StoredSession load(String sessionId) throws IOException {
+        File file = getFile(sessionId);
+        if (file == null) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(open(file)));
+            in.readLong();
+            return (StoredSession) new ObjectInputStream(in).readObject();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to read " + file + ": " + e.getMessage());
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    @Override
+    public long getVersion(String sessionId) throws IOException {
+        File file = getFile(sessionId);
+        if (file == null) {
+            return -1;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(open(file));
+            return in.readLong();
+        } catch (FileNotFoundException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    @Override
+    public void touch(String sessionId) {
+        File file = getFile(sessionId);
+        if (file != null) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public long getLastAccess(String sessionId) {
+        File file = getFile(sessionId);
+        long lastModified = file == null ? 0 : file.lastModified();
+        return lastModified == 0 ? -1 : lastModified;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        File file = getFile(sessionId);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Removes the sessions not accessed (by any node) for the time provided
+     * @param timeout Idle time (in milliseconds)
+     * @return Number of sessions removed
+     */
+    public int purgeExpired(long timeout) {
+        int removed = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            long limit = System.currentTimeMillis() - timeout;
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX) && file.lastModified() < limit && file.delete()) {
+                    removed++;
+                } else if (file.getName().endsWith(REPLACED_SUFFIX) && file.lastModified() < limit) {
+                    //--> Left behind by a node that stopped while replacing a session
+                    file.delete();
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Opens the file of a session, or the previous one while it is being replaced (see {@link #save})
+     * @throws FileNotFoundException if the session is not stored
+     */
+    private InputStream open(File file) throws FileNotFoundException {
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            try {
+                return new FileInputStream(getReplacedFile(file));
+            } catch (FileNotFoundException ex) {
+                //--> The replacement may have just finished
+                return new FileInputStream(file);
+            }
+        }
+    }
+
+    private static File getReplacedFile(File file) {
+        return new File(file.getParentFile(), file.getName() + REPLACED_SUFFIX);
+    }
+
+    /**
+     * @return The file of the session provided or null if the id is not valid (ids come from the clients)
+     */
+    private File getFile(String sessionId) {
+        if (sessionId == null || sessionId.length() == 0 || sessionId.length() > 128) {
+            return null;
+        }
+        for (int i = 0; i < sessionId.length(); i++) {
+            char c = sessionId.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '_')) {
+                return null;
+            }
+        }
+        return new File(folder, sessionId + SUFFIX);
+    }
+}
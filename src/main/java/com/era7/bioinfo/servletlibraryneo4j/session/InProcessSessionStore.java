@@ -0,0 +1,62 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session store kept in the heap of this JVM (one node, or a stand-in for a shared store)
+ */
+public class InProcessSessionStore implements SessionStore {
+
+    private final ConcurrentHashMap<String, Entry> sessions = new ConcurrentHashMap<String, Entry>();
+
+    @Override
+    public void save(StoredSession session) {
+        sessions.put(session.getSessionId(), new Entry(session));
+    }
+
+    @Override
+    public StoredSession load(String sessionId) {
+        Entry entry = sessions.get(sessionId);
+        return entry == null ? null : entry.session;
+    }
+
+    @Override
+    public long getVersion(String sessionId) {
+        Entry entry = sessions.get(sessionId);
+        return entry == null ? -1 : entry.session.getVersion();
+    }
+
+    @Override
+    public void touch(String sessionId) {
+        Entry entry = sessions.get(sessionId);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public long getLastAccess(String sessionId) {
+        Entry entry = sessions.get(sessionId);
+        return entry == null ? -1 : entry.lastAccess;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    @Override
+    public void close() {
+        sessions.clear();
+    }
+
+    private static final class Entry {
+
+        final StoredSession session;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Entry(StoredSession session) {
+            this.session = session;
+        }
+    }
+}
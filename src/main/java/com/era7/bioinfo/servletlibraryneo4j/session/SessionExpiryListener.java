@@ -0,0 +1,13 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+/**
+ * Callback invoked by {@link SessionExpiryWheel} when a session has been idle for too long
+ */
+public interface SessionExpiryListener {
+
+    /**
+     * Method called when the session provided has expired
+     * @param sessionId Id of the expired session
+     */
+    public void sessionExpired(String sessionId);
+}
@@ -0,0 +1,194 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel expiring idle sessions.
+ * <br>Touching a session only updates its last access time (O(1), no locking); every tick only the
+ * slot whose time has come is processed. Sessions found in that slot that were touched in the meantime
+ * are moved to the slot of their new deadline, the rest are expired. Thus there is no periodic scan of
+ * every active session and sessions expire at most one tick late.
+ */
+public class SessionExpiryWheel {
+
+    private static volatile SessionExpiryWheel INSTANCE = null;
+
+    private final long timeout;
+    private final long tick;
+    private final SessionExpiryListener listener;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentLinkedQueue<Entry>[] wheel;
+    private long lastProcessedTick;
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * @param timeout Idle time (in milliseconds) after which a session expires
+     * @param tick Granularity of the wheel (in milliseconds)
+     * @param listener Listener called for each expired session
+     */
+    @SuppressWarnings("unchecked")
+    public SessionExpiryWheel(long timeout, long tick, SessionExpiryListener listener) {
+        if (timeout <= 0 || tick <= 0) {
+            throw new IllegalArgumentException("Timeout and tick must be positive");
+        }
+        this.timeout = timeout;
+        this.tick = tick;
+        this.listener = listener;
+        int size = (int) ((timeout + tick - 1) / tick) + 1;
+        this.wheel = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<Entry>();
+        }
+        this.lastProcessedTick = System.currentTimeMillis() / tick;
+    }
+
+    /**
+     * @return The wheel started by the application (see {@link #start()}) or null
+     */
+    public static SessionExpiryWheel getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the background ticking and makes this wheel the one returned by {@link #getInstance()}
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "session-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    advance(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    ErrorReporter.getInstance().report(e);
+                }
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+        INSTANCE = this;
+    }
+
+    /**
+     * Stops the background ticking
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (INSTANCE == this) {
+            INSTANCE = null;
+        }
+    }
+
+    /**
+     * Registers an access to the session provided (the session is added if it was not already known)
+     * @param sessionId Session id
+     */
+    public void touch(String sessionId) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(sessionId);
+        if (entry != null) {
+            entry.lastAccess = now;
+            return;
+        }
+        Entry newEntry = new Entry(sessionId, now);
+        entry = entries.putIfAbsent(sessionId, newEntry);
+        if (entry == null) {
+            schedule(newEntry, now + timeout);
+        } else {
+            entry.lastAccess = now;
+        }
+    }
+
+    /**
+     * Stops tracking the session provided (for example when the user logs out)
+     * @param sessionId Session id
+     */
+    public void remove(String sessionId) {
+        entries.remove(sessionId);
+    }
+
+    /**
+     * @return Number of sessions being tracked
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Processes every slot whose time has come up to the time provided
+     * @param now Current time
+     */
+    synchronized void advance(long now) {
+        long currentTick = now / tick;
+        //--> Never process more than one full turn, the rest of slots are already due
+        long firstTick = Math.max(lastProcessedTick + 1, currentTick - wheel.length + 1);
+        for (long t = firstTick; t <= currentTick; t++) {
+            processSlot(wheel[(int) (t % wheel.length)], now);
+        }
+        lastProcessedTick = currentTick;
+    }
+
+    private void processSlot(ConcurrentLinkedQueue<Entry> slot, long now) {
+        //--> Entries rescheduled into this same slot are handled on the next turn
+        int pending = slot.size();
+        Entry entry;
+        while (pending-- > 0 && (entry = slot.poll()) != null) {
+            if (entries.get(entry.sessionId) != entry) {
+                //--> Removed (or replaced) in the meantime
+                continue;
+            }
+            long deadline = entry.lastAccess + timeout;
+            if (deadline <= now) {
+                if (entries.remove(entry.sessionId, entry) && listener != null) {
+                    listener.sessionExpired(entry.sessionId);
+                }
+            } else {
+                schedule(entry, deadline);
+            }
+        }
+    }
+
+    private void schedule(Entry entry, long deadline) {
+        //--> Rounded up so that an entry is never processed before its deadline
+        long deadlineTick = (deadline + tick - 1) / tick;
+        wheel[(int) (deadlineTick % wheel.length)].offer(entry);
+    }
+
+    private static final class Entry {
+
+        final String sessionId;
+        volatile long lastAccess;
+
+        Entry(String sessionId, long lastAccess) {
+            this.sessionId = sessionId;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
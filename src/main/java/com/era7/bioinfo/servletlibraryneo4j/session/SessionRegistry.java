@@ -0,0 +1,272 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.util.SessionAttributes;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the active sessions of the application (it replaces <code>ActiveSessions</code>).
+ * <br>Sessions are spread over independent concurrent maps (shards) by the hash of their id, and each
+ * thread generates ids with its own <code>SecureRandom</code>, so creating, looking up and removing
+ * sessions never contend on a shared lock or generator.
+ * <br>Ids are 128 random bits written in hexadecimal.
+ * <br>When a {@link SessionStore} is set the registry works as a near-cache of it: sessions not known
+ * by this node are loaded from the store, and the ones known are validated against the store (version
+ * and existence) at most once every validation interval, registering the access in the store at the same time.
+ * If the store is not available the sessions already known keep being served.
+ */
+public final class SessionRegistry {
+
+    /**
+     * Number of shards (a power of two)
+     */
+    public static final int SHARDS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    /**
+     * Default time (in milliseconds) during which a session of the near-cache is not validated against the store
+     */
+    public static final long DEFAULT_VALIDATION_INTERVAL = 1000;
+
+    private static final int ID_BYTES = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ConcurrentHashMap<String, Entry>[] SESSIONS = createShards();
+
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    private static volatile SessionStore STORE = null;
+    private static volatile long VALIDATION_INTERVAL = DEFAULT_VALIDATION_INTERVAL;
+
+    private SessionRegistry() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<String, Entry>[] createShards() {
+        ConcurrentHashMap<String, Entry>[] shards = new ConcurrentHashMap[SHARDS];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new ConcurrentHashMap<String, Entry>(64, 0.75f, 4);
+        }
+        return shards;
+    }
+
+    /**
+     * Removes every session (from this node)
+     */
+    public static void init() {
+        for (ConcurrentHashMap<String, Entry> shard : SESSIONS) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Sets the store shared by the nodes of the application
+     * @param store Store (null for none)
+     * @param validationInterval Time (in milliseconds) during which a session of the near-cache is not
+     * validated against the store
+     */
+    public static void setStore(SessionStore store, long validationInterval) {
+        STORE = store;
+        VALIDATION_INTERVAL = validationInterval;
+    }
+
+    /**
+     * @return The session store or null
+     */
+    public static SessionStore getStore() {
+        return STORE;
+    }
+
+    /**
+     * @param sessionId Session id (it may be null)
+     * @return The session or null if there is no active session with the id provided
+     */
+    public static BasicSession getSession(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        Entry entry = shard(sessionId).get(sessionId);
+        SessionStore store = STORE;
+        if (store == null) {
+            return entry == null ? null : entry.session;
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.validated < VALIDATION_INTERVAL) {
+            return entry.session;
+        }
+        try {
+            if (entry != null) {
+                long version = store.getVersion(sessionId);
+                if (version == entry.version) {
+                    store.touch(sessionId);
+                    entry.validated = now;
+                    return entry.session;
+                }
+                //--> Removed (logged out or expired) or saved again by another node
+                shard(sessionId).remove(sessionId, entry);
+                if (version < 0) {
+                    return null;
+                }
+            }
+            StoredSession stored = store.load(sessionId);
+            if (stored == null) {
+                return null;
+            }
+            store.touch(sessionId);
+            Entry loaded = new Entry(stored.toSession(), stored.getVersion(), now);
+            Entry previous = shard(sessionId).putIfAbsent(sessionId, loaded);
+            return previous == null ? loaded.session : previous.session;
+        } catch (IOException e) {
+            //--> Store not available, the near-cache keeps serving the sessions it knows
+            ErrorReporter.getInstance().report(e);
+            return entry == null ? null : entry.session;
+        }
+    }
+
+    /**
+     * Creates and registers a new session with a new random id
+     * @return The session
+     */
+    public static BasicSession createNewSession() {
+        while (true) {
+            String sessionId = generateId();
+            Entry entry = new Entry(new BasicSession(sessionId), 0, System.currentTimeMillis());
+            if (shard(sessionId).putIfAbsent(sessionId, entry) == null) {
+                return entry.session;
+            }
+        }
+    }
+
+    /**
+     * Writes the session provided to the session store (if there is one): its id and permissions plus
+     * the serializable values of the attributes provided
+     * @param session Session
+     * @param attributes Names of the other attributes to be stored (it may be null)
+     */
+    public static void saveSession(BasicSession session, String[] attributes) throws IOException {
+        SessionStore store = STORE;
+        if (store == null) {
+            return;
+        }
+        String sessionId = session.getSessionId();
+        HashMap<String, Serializable> values = new HashMap<String, Serializable>();
+        putAttribute(values, session, SessionAttributes.SESSION_ID_ATTRIBUTE);
+        putAttribute(values, session, SessionAttributes.PERMISSIONS_ATTRIBUTE);
+        if (attributes != null) {
+            for (String attribute : attributes) {
+                putAttribute(values, session, attribute);
+            }
+        }
+        Entry entry = shard(sessionId).get(sessionId);
+        long version = Math.max(System.currentTimeMillis(), entry == null ? 0 : entry.version + 1);
+        store.save(new StoredSession(sessionId, version, values));
+        if (entry != null && entry.session == session) {
+            entry.version = version;
+            entry.validated = System.currentTimeMillis();
+        }
+    }
+
+    private static void putAttribute(HashMap<String, Serializable> values, BasicSession session, String attribute) {
+        Object value = session.getAttribute(attribute);
+        if (value instanceof Serializable) {
+            values.put(attribute, (Serializable) value);
+        }
+    }
+
+    /**
+     * Removes the session provided from this node, the session expiry wheel and the session store
+     * @param sessionId Session id
+     * @return The session removed or null if it was not active in this node
+     */
+    public static BasicSession removeSession(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        SessionExpiryWheel expiry = SessionExpiryWheel.getInstance();
+        if (expiry != null) {
+            expiry.remove(sessionId);
+        }
+        SessionStore store = STORE;
+        if (store != null) {
+            try {
+                store.remove(sessionId);
+            } catch (IOException e) {
+                ErrorReporter.getInstance().report(e);
+            }
+        }
+        Entry entry = shard(sessionId).remove(sessionId);
+        return entry == null ? null : entry.session;
+    }
+
+    /**
+     * Removes from this node a session that has been idle for the timeout provided. It is removed from
+     * the session store too unless another node accessed it in the meantime.
+     * @param sessionId Session id
+     * @param timeout Idle time (in milliseconds) after which sessions expire
+     */
+    public static void expireSession(String sessionId, long timeout) {
+        shard(sessionId).remove(sessionId);
+        SessionStore store = STORE;
+        if (store != null) {
+            try {
+                long lastAccess = store.getLastAccess(sessionId);
+                if (lastAccess >= 0 && System.currentTimeMillis() - lastAccess >= timeout) {
+                    store.remove(sessionId);
+                }
+            } catch (IOException e) {
+                ErrorReporter.getInstance().report(e);
+            }
+        }
+    }
+
+    /**
+     * @return Number of active sessions (in this node)
+     */
+    public static int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Entry> shard : SESSIONS) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private static ConcurrentHashMap<String, Entry> shard(String sessionId) {
+        int hash = sessionId.hashCode();
+        //--> Spreads the high bits as the maps use the low ones
+        hash ^= (hash >>> 16);
+        return SESSIONS[(hash >>> 4) & (SHARDS - 1)];
+    }
+
+    private static String generateId() {
+        byte[] bytes = new byte[ID_BYTES];
+        RANDOM.get().nextBytes(bytes);
+        char[] chars = new char[ID_BYTES * 2];
+        for (int i = 0; i < ID_BYTES; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static final class Entry {
+
+        final BasicSession session;
+        volatile long version;
+        volatile long validated;
+
+        Entry(BasicSession session, long version, long validated) {
+            this.session = session;
+            this.version = version;
+            this.validated = validated;
+        }
+    }
+}
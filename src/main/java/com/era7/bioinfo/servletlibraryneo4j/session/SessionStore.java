@@ -0,0 +1,53 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import java.io.IOException;
+
+/**
+ * Storage of the sessions shared by the nodes of the application, so that any node can serve the
+ * requests of a session created in another one (and sessions survive the failure of a node).
+ * <br>Login servlets write the sessions to the store and {@link SessionRegistry} keeps a near-cache of them
+ * in every node, validated against their version in the store (see {@link SessionRegistry#setStore}).
+ */
+public interface SessionStore {
+
+    /**
+     * Saves (or replaces) a session
+     * @param session Session
+     */
+    public void save(StoredSession session) throws IOException;
+
+    /**
+     * @param sessionId Session id
+     * @return The session or null if it is not stored
+     */
+    public StoredSession load(String sessionId) throws IOException;
+
+    /**
+     * @param sessionId Session id
+     * @return Version of the stored session or -1 if it is not stored
+     */
+    public long getVersion(String sessionId) throws IOException;
+
+    /**
+     * Registers an access to the session provided
+     * @param sessionId Session id
+     */
+    public void touch(String sessionId) throws IOException;
+
+    /**
+     * @param sessionId Session id
+     * @return Time (in milliseconds) of the last access registered or -1 if the session is not stored
+     */
+    public long getLastAccess(String sessionId) throws IOException;
+
+    /**
+     * Removes a session
+     * @param sessionId Session id
+     */
+    public void remove(String sessionId) throws IOException;
+
+    /**
+     * Releases the resources of the store
+     */
+    public void close();
+}
@@ -0,0 +1,52 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import com.era7.lib.communication.model.BasicSession;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of a session as it is kept in a {@link SessionStore}: its id, version and serializable attributes
+ */
+public final class StoredSession implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String sessionId;
+    private final long version;
+    private final HashMap<String, Serializable> attributes;
+
+    /**
+     * @param sessionId Session id
+     * @param version Version (it must grow every time the session is saved)
+     * @param attributes Attributes of the session
+     */
+    public StoredSession(String sessionId, long version, Map<String, Serializable> attributes) {
+        this.sessionId = sessionId;
+        this.version = version;
+        this.attributes = new HashMap<String, Serializable>(attributes);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Serializable> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return A new session with the id and attributes of the stored one
+     */
+    public BasicSession toSession() {
+        BasicSession session = new BasicSession(sessionId);
+        for (Map.Entry<String, Serializable> entry : attributes.entrySet()) {
+            session.setAttribute(entry.getKey(), entry.getValue());
+        }
+        return session;
+    }
+}
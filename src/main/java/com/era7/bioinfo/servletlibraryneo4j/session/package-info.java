@@ -0,0 +1,4 @@
+/**
+ * Session management (expiry, registry and storage of the sessions of the App)
+ */
+package com.era7.bioinfo.servletlibraryneo4j.session;
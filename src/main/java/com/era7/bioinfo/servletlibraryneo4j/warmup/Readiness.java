@@ -0,0 +1,35 @@
+package com.era7.bioinfo.servletlibraryneo4j.warmup;
+
+/**
+ * Readiness of the application to receive traffic (see {@link ReadinessServlet})
+ */
+public final class Readiness {
+
+    /**
+     * States of the application
+     */
+    public static enum State {
+
+        STARTING, WARMING_UP, READY, STOPPING
+    }
+
+    private static volatile State STATE = State.STARTING;
+
+    private Readiness() {
+    }
+
+    public static State getState() {
+        return STATE;
+    }
+
+    public static void setState(State state) {
+        STATE = state;
+    }
+
+    /**
+     * @return Whether the application has finished its warm-up and is not stopping
+     */
+    public static boolean isReady() {
+        return STATE == State.READY;
+    }
+}
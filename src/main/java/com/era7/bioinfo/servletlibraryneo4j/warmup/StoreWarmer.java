@@ -0,0 +1,92 @@
+package com.era7.bioinfo.servletlibraryneo4j.warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+
+/**
+ * Warm-up of the store of a database: its files are read so that they are in the page cache of the
+ * operating system, and nodes are loaded so that they are in the cache of neo4j.
+ */
+public final class StoreWarmer {
+
+    /**
+     * Prefix of the store files of neo4j
+     */
+    public static final String STORE_FILE_PREFIX = "neostore";
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private StoreWarmer() {
+    }
+
+    /**
+     * Reads the store files of the database folder provided, smallest first (record stores before the
+     * large property and string stores), up to the number of bytes provided
+     * @param folder Database folder
+     * @param maxBytes Maximum number of bytes read
+     * @return Number of bytes read
+     */
+    public static long pageIn(File folder, long maxBytes) throws IOException {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File a, File b) {
+                return a.length() < b.length() ? -1 : (a.length() == b.length() ? 0 : 1);
+            }
+        });
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long read = 0;
+        for (File file : files) {
+            if (read >= maxBytes) {
+                break;
+            }
+            if (!file.isFile() || !file.getName().startsWith(STORE_FILE_PREFIX)) {
+                continue;
+            }
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                int count;
+                while (read < maxBytes && (count = channel.read(buffer)) > 0) {
+                    read += count;
+                    buffer.clear();
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Loads nodes (with their properties and relationships) into the cache of the database
+     * @param graph Database
+     * @param maxNodes Maximum number of nodes loaded
+     * @return Number of nodes loaded
+     */
+    public static int loadNodes(GraphDatabaseService graph, int maxNodes) {
+        int loaded = 0;
+        for (Node node : graph.getAllNodes()) {
+            if (loaded >= maxNodes) {
+                break;
+            }
+            for (String key : node.getPropertyKeys()) {
+                node.getProperty(key);
+            }
+            node.hasRelationship();
+            loaded++;
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,254 @@
+package com.era7.bioinfo.servletlibraryneo4j.warmup;
+
+import com.era7.bioinfo.servletlibraryneo4j.errors.ErrorReporter;
+import com.era7.bioinfo.servletlibraryneo4j.permissions.PermissionSet;
+import com.era7.bioinfo.servletlibraryneo4j.servlet.BasicServletNeo4j;
+import com.era7.bioinfo.servletlibraryneo4j.session.SessionRegistry;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.util.SessionAttributes;
+import com.era7.lib.communication.xml.Request;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Replays recorded requests through the servlets of the application when it starts, so that the code is
+ * compiled by the JIT, the traversals warm up the caches of the database and the response caches are filled
+ * before real traffic arrives.
+ * <br>Servlets register themselves when they are initialized (see {@link #register}). Recorded requests are
+ * read from a text file with one request per line: the name of the servlet, a space and the xml of the request
+ * (empty lines and lines starting with <code>#</code> are ignored). They run with a warm-up session holding the
+ * permissions provided, and their responses are discarded.
+ * <br>Only requests of read-only methods are replayed (see {@link BasicServletNeo4j#isReadOnlyMethod}), so the
+ * warm-up never modifies the data, and warm-up requests are not logged as operations of the users
+ * (see {@link #isWarmUpRequest}).
+ */
+public final class WarmUpReplayer {
+
+    private static final ConcurrentHashMap<String, HttpServlet> SERVLETS = new ConcurrentHashMap<String, HttpServlet>();
+    /**
+     * Ids of the sessions of the warm-ups in progress
+     */
+    private static final Set<String> SESSIONS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private WarmUpReplayer() {
+    }
+
+    /**
+     * Registers a servlet whose recorded requests can be replayed
+     * @param name Servlet name
+     * @param servlet Servlet
+     */
+    public static void register(String name, HttpServlet servlet) {
+        SERVLETS.put(name, servlet);
+    }
+
+    public static void unregister(String name, HttpServlet servlet) {
+        SERVLETS.remove(name, servlet);
+    }
+
+    /**
+     * @param request Request (may be null)
+     * @return Whether the request provided is being replayed by the warm-up
+     */
+    public static boolean isWarmUpRequest(Request request) {
+        if (request == null || SESSIONS.isEmpty()) {
+            return false;
+        }
+        String sessionId = request.getSessionID();
+        return sessionId != null && SESSIONS.contains(sessionId);
+    }
+
+    /**
+     * Reads recorded requests
+     * @param in Stream of the recording
+     * @return Pairs of servlet name and request xml
+     */
+    public static List<String[]> read(InputStream in) throws IOException {
+        List<String[]> requests = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int separator = line.indexOf(' ');
+                if (line.length() == 0 || line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+                requests.add(new String[]{line.substring(0, separator), line.substring(separator + 1).trim()});
+            }
+        } finally {
+            reader.close();
+        }
+        return requests;
+    }
+
+    /**
+     * Replays the requests provided once their servlets have been registered
+     * @param requests Pairs of servlet name and request xml
+     * @param permissions Permissions of the warm-up session
+     * @param iterations Number of times every request is replayed
+     * @param timeout Maximum time (in milliseconds) to wait for the servlets to be registered
+     * @param skipped List where the requests not replayed because their methods are not read-only
+     * (servlet name and method) are added
+     * @return Number of requests replayed
+     */
+    public static int replay(List<String[]> requests, ArrayList<?> permissions, int iterations, long timeout,
+            List<String> skipped) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+        for (String[] request : requests) {
+            while (!SERVLETS.containsKey(request[0]) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        }
+
+        BasicSession session = SessionRegistry.createNewSession();
+        session.setAttribute(SessionAttributes.SESSION_ID_ATTRIBUTE, session.getSessionId());
+        session.setAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE, permissions);
+        session.setAttribute(PermissionSet.SESSION_ATTRIBUTE, PermissionSet.compile(permissions));
+
+        List<Object[]> readOnly = new ArrayList<Object[]>(requests.size());
+        for (String[] recorded : requests) {
+            HttpServlet servlet = SERVLETS.get(recorded[0]);
+            if (servlet == null) {
+                continue;
+            }
+            try {
+                Request request = new Request(recorded[1]);
+                if (servlet instanceof BasicServletNeo4j
+                        && ((BasicServletNeo4j) servlet).isReadOnlyMethod(request.getMethod())) {
+                    readOnly.add(new Object[]{servlet, request});
+                } else {
+                    skipped.add(recorded[0] + " " + request.getMethod());
+                }
+            } catch (Exception e) {
+                ErrorReporter.getInstance().report(e);
+            }
+        }
+
+        int replayed = 0;
+        SESSIONS.add(session.getSessionId());
+        try {
+            for (int i = 0; i < iterations; i++) {
+                for (Object[] recorded : readOnly) {
+                    HttpServlet servlet = (HttpServlet) recorded[0];
+                    try {
+                        Request request = new Request(((Request) recorded[1]).toString());
+                        request.setSessionID(session.getSessionId());
+                        servlet.service(newRequest(request.toString()), newResponse());
+                        replayed++;
+                    } catch (Exception e) {
+                        //--> A failed warm-up request does not prevent the application from starting
+                        ErrorReporter.getInstance().report(e);
+                    }
+                }
+            }
+        } finally {
+            SESSIONS.remove(session.getSessionId());
+            SessionRegistry.removeSession(session.getSessionId());
+        }
+        return replayed;
+    }
+
+    private static HttpServletRequest newRequest(final String xml) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        return (HttpServletRequest) Proxy.newProxyInstance(WarmUpReplayer.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getParameter")) {
+                            return xml;
+                        } else if (name.equals("getAttribute")) {
+                            return attributes.get((String) args[0]);
+                        } else if (name.equals("setAttribute")) {
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        } else if (name.equals("removeAttribute")) {
+                            attributes.remove((String) args[0]);
+                            return null;
+                        } else if (name.equals("getMethod")) {
+                            return "POST";
+                        } else if (name.equals("getProtocol")) {
+                            return "HTTP/1.1";
+                        } else if (name.equals("getHeaders") || name.equals("getHeaderNames")
+                                || name.equals("getAttributeNames") || name.equals("getParameterNames")) {
+                            return Collections.enumeration(Collections.emptyList());
+                        } else if (name.equals("getDateHeader") || name.equals("getContentLength")
+                                || name.equals("getIntHeader")) {
+                            return method.getReturnType() == long.class ? (Object) (-1L) : (Object) (-1);
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+    }
+
+    private static HttpServletResponse newResponse() {
+        final ServletOutputStream out = new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        final PrintWriter writer = new PrintWriter(new OutputStreamWriter((OutputStream) out));
+        return (HttpServletResponse) Proxy.newProxyInstance(WarmUpReplayer.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getOutputStream")) {
+                            return out;
+                        } else if (name.equals("getWriter")) {
+                            return writer;
+                        } else if (name.equals("getCharacterEncoding")) {
+                            return "UTF-8";
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        Class<?> type = method.getReturnType();
+        if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("toString")) {
+            return "warm-up";
+        } else if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
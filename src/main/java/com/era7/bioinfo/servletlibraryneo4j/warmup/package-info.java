@@ -0,0 +1,4 @@
+/**
+ * Warm-up of the application on startup (store files, caches, recorded requests) and readiness
+ */
+package com.era7.bioinfo.servletlibraryneo4j.warmup;
@@ -0,0 +1,87 @@
+package com.era7.bioinfo.servletlibraryneo4j.admission;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ConcurrencyLimiter}
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long THRESHOLD = 100;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(THRESHOLD * 2);
+
+    @Test
+    public void fixedLimitAdmitsUpToTheLimit() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.fixed(2);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release(SLOW);
+        assertTrue(limiter.tryAcquire());
+        assertEquals(2, limiter.getLimit());
+        assertFalse(limiter.isAdaptive());
+    }
+
+    @Test
+    public void slowRequestsDecreaseTheLimitOncePerRound() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(100, 1, 200, THRESHOLD);
+        acquire(limiter, 50);
+        //--> A burst of slow requests already in flight only counts once
+        for (int i = 0; i < 50; i++) {
+            limiter.release(SLOW);
+        }
+        assertEquals(90, limiter.getLimit());
+
+        //--> The next round of completions may decrease it again
+        for (int i = 0; i < 90; i++) {
+            acquire(limiter, 1);
+            limiter.release(SLOW);
+        }
+        assertEquals(81, limiter.getLimit());
+    }
+
+    @Test
+    public void theLimitNeverGoesBelowTheMinimum() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(10, 5, 20, THRESHOLD);
+        for (int i = 0; i < 1000; i++) {
+            acquire(limiter, 1);
+            limiter.release(SLOW);
+        }
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void fastRequestsGrowTheLimitWhileItIsUsed() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(10, 1, 20, THRESHOLD);
+        for (int round = 0; round < 5; round++) {
+            int limit = limiter.getLimit();
+            acquire(limiter, limit);
+            for (int i = 0; i < limit; i++) {
+                limiter.release(FAST);
+            }
+        }
+        assertTrue(limiter.getLimit() > 10);
+        assertTrue(limiter.getLimit() <= 20);
+    }
+
+    @Test
+    public void fastRequestsDoNotGrowAnUnusedLimit() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(10, 1, 20, THRESHOLD);
+        for (int i = 0; i < 1000; i++) {
+            acquire(limiter, 1);
+            limiter.release(FAST);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    private static void acquire(ConcurrencyLimiter limiter, int permits) {
+        for (int i = 0; i < permits; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the manager lease held by each {@link AuditEvent} until its delivery
+ */
+public class AuditEventTest {
+
+    private static final AuditSink NO_SINK = new AuditSink() {
+
+        @Override
+        public void write(List<AuditEvent> events) {
+        }
+    };
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("audit-event-test", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void theManagerIsNotReplacedUntilTheEventIsReleased() throws Exception {
+        Bio4jManager manager = Bio4jManagerRegistry.acquireManager(folder.getPath());
+        AuditEvent event = new AuditEvent(NO_SINK, null, null, manager, null);
+        //--> The request finishes before the event is delivered
+        Bio4jManagerRegistry.releaseManager(manager);
+        assertSame(manager, event.getManager());
+
+        manager.shutDown();
+        Bio4jManagerRegistry.reportFailure(folder.getPath());
+        final CountDownLatch reopened = new CountDownLatch(1);
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                Bio4jManagerRegistry.releaseManager(Bio4jManagerRegistry.acquireManager(folder.getPath()));
+                reopened.countDown();
+            }
+        };
+        thread.start();
+
+        assertFalse(reopened.await(300, TimeUnit.MILLISECONDS));
+        event.release();
+        event.release();
+        assertTrue(reopened.await(Bio4jManagerRegistry.RELEASE_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void aManagerThatIsNotCurrentIsNotHandedToTheSinks() {
+        Bio4jManager manager = Bio4jManagerRegistry.acquireManager(folder.getPath());
+        Bio4jManagerRegistry.releaseManager(manager);
+        Bio4jManagerRegistry.close(folder.getPath());
+
+        AuditEvent event = new AuditEvent(NO_SINK, null, null, manager, null);
+        assertNull(event.getManager());
+        event.release();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,118 @@
+package com.era7.bioinfo.servletlibraryneo4j.audit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link AuditRingBuffer}
+ */
+public class AuditRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new AuditRingBuffer<Integer>(5).capacity());
+        assertEquals(8, new AuditRingBuffer<Integer>(8).capacity());
+        assertEquals(4, new AuditRingBuffer<Integer>(1).capacity());
+    }
+
+    @Test
+    public void rejectsElementsWhenFull() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    public void drainsInOrderAcrossLaps() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(4);
+        List<Integer> drained = new ArrayList<Integer>();
+        int next = 0;
+        for (int lap = 0; lap < 5; lap++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(buffer.offer(next++));
+            }
+            assertEquals(3, buffer.drainTo(drained, Integer.MAX_VALUE));
+        }
+
+        assertEquals(15, drained.size());
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(Integer.valueOf(i), drained.get(i));
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(buffer.getTail(), buffer.getHead());
+    }
+
+    @Test
+    public void drainHonoursTheMaximum() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(8);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(i);
+        }
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(Arrays.asList(0, 1, 2), drained);
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void everyElementOfConcurrentProducersIsDrainedOnce() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final AuditRingBuffer<Integer> buffer = new AuditRingBuffer<Integer>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(producer * perProducer + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        start.countDown();
+
+        boolean[] seen = new boolean[producers * perProducer];
+        int[] lastOfProducer = new int[producers];
+        Arrays.fill(lastOfProducer, -1);
+        List<Integer> drained = new ArrayList<Integer>();
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < seen.length && System.currentTimeMillis() < deadline) {
+            drained.clear();
+            buffer.drainTo(drained, 32);
+            for (Integer element : drained) {
+                assertFalse(seen[element]);
+                seen[element] = true;
+                //--> The elements of one producer keep their order
+                int producer = element / perProducer;
+                assertTrue(element % perProducer > lastOfProducer[producer]);
+                lastOfProducer[producer] = element % perProducer;
+                received++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(seen.length, received);
+        assertTrue(buffer.isEmpty());
+    }
+}
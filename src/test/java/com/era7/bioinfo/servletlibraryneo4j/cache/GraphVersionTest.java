@@ -0,0 +1,62 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import com.era7.lib.communication.xml.Response;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link GraphVersion} and of the entity tags built from it
+ */
+public class GraphVersionTest {
+
+    @Test
+    public void writesChangeOnlyTheVersionOfTheirDatabase() {
+        String first = GraphVersion.get("graph-version-test-1");
+        String second = GraphVersion.get("graph-version-test-2");
+
+        GraphVersion.increment("graph-version-test-1");
+
+        assertFalse(first.equals(GraphVersion.get("graph-version-test-1")));
+        assertEquals(second, GraphVersion.get("graph-version-test-2"));
+    }
+
+    @Test
+    public void reloadChangesEveryVersionAndEmptiesTheCaches() {
+        String version = GraphVersion.get("graph-version-test-3");
+        ResponseCache cache = new ResponseCache("graph-version-test", 10, 60000);
+        try {
+            cache.put("method|a", new Response(), version);
+
+            GraphVersion.reload();
+
+            assertFalse(version.equals(GraphVersion.get("graph-version-test-3")));
+            assertEquals(0, cache.size());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void etagsDependOnTheVersionAndTheRequest() {
+        String etag = GraphVersion.buildETag("v1", "method|a");
+
+        assertTrue(etag.startsWith("\"v1-"));
+        assertTrue(etag.endsWith("\""));
+        assertEquals(etag, GraphVersion.buildETag("v1", "method|a"));
+        assertFalse(etag.equals(GraphVersion.buildETag("v2", "method|a")));
+        assertFalse(etag.equals(GraphVersion.buildETag("v1", "method|b")));
+    }
+
+    @Test
+    public void matchesIfNoneMatchHeaders() {
+        String etag = GraphVersion.buildETag("v1", "method|a");
+        String other = GraphVersion.buildETag("v2", "method|a");
+
+        assertTrue(GraphVersion.matches(etag, etag));
+        assertTrue(GraphVersion.matches(other + ", " + etag, etag));
+        assertTrue(GraphVersion.matches("W/" + etag, etag));
+        assertTrue(GraphVersion.matches("*", etag));
+        assertFalse(GraphVersion.matches(other, etag));
+        assertFalse(GraphVersion.matches(null, etag));
+    }
+}
@@ -0,0 +1,91 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import com.era7.lib.communication.xml.Response;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ResponseCache}
+ */
+public class ResponseCacheTest {
+
+    private ResponseCache cache = new ResponseCache("response-cache-test", 2, 60000);
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void returnsCopiesOfTheCachedResponses() {
+        cache.put("method|a", response("a"), "v1");
+
+        Response first = cache.get("method|a", "v1");
+        assertNotNull(first);
+        first.getRoot().addContent(new Element("added"));
+
+        Response second = cache.get("method|a", "v1");
+        assertNotNull(second.getRoot().getChild("a"));
+        assertNull(second.getRoot().getChild("added"));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void responsesOfAnotherGraphVersionAreMisses() {
+        cache.put("method|a", response("a"), "v1");
+
+        assertNull(cache.get("method|a", "v2"));
+        assertEquals(1, cache.getMisses());
+        //--> The stale entry is dropped
+        assertEquals(0, cache.size());
+        assertNull(cache.get("method|a", "v1"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResponse() {
+        cache.put("method|a", response("a"), "v1");
+        cache.put("method|b", response("b"), "v1");
+        assertNotNull(cache.get("method|a", "v1"));
+        cache.put("method|c", response("c"), "v1");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("method|b", "v1"));
+        assertNotNull(cache.get("method|a", "v1"));
+        assertNotNull(cache.get("method|c", "v1"));
+    }
+
+    @Test
+    public void expiredResponsesAreMisses() {
+        cache.close();
+        cache = new ResponseCache("response-cache-test", 2, -1);
+        cache.put("method|a", response("a"), "v1");
+        assertNull(cache.get("method|a", "v1"));
+    }
+
+    @Test
+    public void invalidatesTheResponsesOfOneMethod() {
+        cache.put("method|a", response("a"), "v1");
+        cache.put("other|a", response("a"), "v1");
+        cache.invalidateMethod("method");
+
+        assertNull(cache.get("method|a", "v1"));
+        assertNotNull(cache.get("other|a", "v1"));
+    }
+
+    @Test
+    public void closedCachesAreUnregistered() {
+        assertSame(cache, ResponseCache.getCache("response-cache-test"));
+        cache.close();
+        assertNull(ResponseCache.getCache("response-cache-test"));
+    }
+
+    private static Response response(String child) {
+        Response response = new Response();
+        response.setStatus(Response.SUCCESSFUL_RESPONSE);
+        response.getRoot().addContent(new Element(child));
+        return response;
+    }
+}
@@ -0,0 +1,169 @@
+package com.era7.bioinfo.servletlibraryneo4j.cache;
+
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import com.era7.lib.communication.xml.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link SingleFlight}
+ */
+public class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight("single-flight-test");
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        singleFlight.close();
+    }
+
+    @Test
+    public void identicalConcurrentRequestsShareOneComputation() throws Exception {
+        final int requests = 8;
+        final List<Response> responses = new ArrayList<Response>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread leader = execute("key", null, responses, errors);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<Thread> followers = new ArrayList<Thread>();
+        for (int i = 1; i < requests; i++) {
+            followers.add(execute("key", null, responses, errors));
+        }
+        //--> Gives the followers time to join the flight
+        Thread.sleep(500);
+        release.countDown();
+        leader.join();
+        for (Thread follower : followers) {
+            follower.join();
+        }
+
+        assertTrue(errors.isEmpty());
+        assertEquals(1, runs.get());
+        assertEquals(1, singleFlight.getExecuted());
+        assertEquals(requests - 1, singleFlight.getCoalesced());
+        assertEquals(requests, responses.size());
+        for (Response response : responses) {
+            assertNotNull(response.getRoot().getChild("result"));
+        }
+        //--> Every request gets its own copy
+        assertNotSame(responses.get(0).getRoot(), responses.get(1).getRoot());
+    }
+
+    @Test
+    public void failuresAreSharedWithTheWaitingRequests() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("failed");
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread leader = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("key", new SingleFlight.Computation() {
+
+                        @Override
+                        public Response run() throws Throwable {
+                            started.countDown();
+                            release.await();
+                            throw failure;
+                        }
+                    });
+                } catch (Throwable e) {
+                    add(errors, e);
+                }
+            }
+        };
+        leader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread follower = execute("key", null, new ArrayList<Response>(), errors);
+        Thread.sleep(500);
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        assertEquals(2, errors.size());
+        assertSame(failure, errors.get(0));
+        assertSame(failure, errors.get(1));
+    }
+
+    @Test
+    public void waitingRequestsStopAtTheirDeadline() throws Throwable {
+        Thread leader = execute("key", null, new ArrayList<Response>(), new ArrayList<Throwable>());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        long start = System.currentTimeMillis();
+        try {
+            singleFlight.execute("key", new CancellationToken(200), computation());
+            fail("The wait should have been cancelled");
+        } catch (RequestCancelledException e) {
+            assertEquals(CancellationToken.Reason.DEADLINE, e.getReason());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        release.countDown();
+        leader.join();
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void differentKeysAreComputedSeparately() throws Throwable {
+        release.countDown();
+        singleFlight.execute("a", computation());
+        singleFlight.execute("b", computation());
+        assertEquals(2, runs.get());
+        assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    private SingleFlight.Computation computation() {
+        return new SingleFlight.Computation() {
+
+            @Override
+            public Response run() throws Throwable {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await();
+                Response response = new Response();
+                response.setStatus(Response.SUCCESSFUL_RESPONSE);
+                response.getRoot().addContent(new Element("result"));
+                return response;
+            }
+        };
+    }
+
+    private Thread execute(final String key, final CancellationToken token, final List<Response> responses,
+            final List<Throwable> errors) {
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Response response = singleFlight.execute(key, token, computation());
+                    synchronized (responses) {
+                        responses.add(response);
+                    }
+                } catch (Throwable e) {
+                    add(errors, e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static void add(List<Throwable> errors, Throwable e) {
+        synchronized (errors) {
+            errors.add(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.era7.bioinfo.servletlibraryneo4j.manager;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the reopening of failed managers by {@link Bio4jManagerRegistry}
+ */
+public class Bio4jManagerRegistryTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("registry-test", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void aFailedManagerIsReplaced() {
+        Bio4jManager first = acquireAndRelease();
+        breakManager(first);
+
+        Bio4jManager second = acquireAndRelease();
+        assertNotSame(first, second);
+        assertNotNull(second.getGraphService().getReferenceNode());
+    }
+
+    @Test
+    public void aReopenThatCannotOpenTheStoreFailsAndIsRetried() throws IOException {
+        Bio4jManager first = acquireAndRelease();
+        breakManager(first);
+        //--> The store cannot be opened while the folder is a plain file
+        delete(folder);
+        assertTrue(folder.createNewFile());
+
+        for (int i = 0; i < 2; i++) {
+            long start = System.currentTimeMillis();
+            try {
+                Bio4jManagerRegistry.acquireManager(folder.getPath());
+                fail("The manager should not have been opened");
+            } catch (RuntimeException e) {
+                //--> Expected, and without waiting for anything
+                assertTrue(System.currentTimeMillis() - start < Bio4jManagerRegistry.RELEASE_TIMEOUT);
+            }
+        }
+
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdirs());
+        Bio4jManager reopened = acquireAndRelease();
+        assertNotSame(first, reopened);
+        assertNotNull(reopened.getGraphService().getReferenceNode());
+    }
+
+    @Test
+    public void theReopenWaitsForTheUsersOfTheFailedManager() throws Exception {
+        final Bio4jManager first = Bio4jManagerRegistry.acquireManager(folder.getPath());
+        breakManager(first);
+
+        final AtomicReference<Bio4jManager> second = new AtomicReference<Bio4jManager>();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                second.set(Bio4jManagerRegistry.acquireManager(folder.getPath()));
+                acquired.countDown();
+            }
+        };
+        thread.start();
+
+        assertFalse(acquired.await(300, TimeUnit.MILLISECONDS));
+        Bio4jManagerRegistry.releaseManager(first);
+        assertTrue(acquired.await(Bio4jManagerRegistry.RELEASE_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNotSame(first, second.get());
+        assertFalse(Bio4jManagerRegistry.retainManager(first));
+        Bio4jManagerRegistry.releaseManager(second.get());
+    }
+
+    private Bio4jManager acquireAndRelease() {
+        Bio4jManager manager = Bio4jManagerRegistry.acquireManager(folder.getPath());
+        Bio4jManagerRegistry.releaseManager(manager);
+        return manager;
+    }
+
+    /**
+     * Makes the health check of the manager provided fail and forces it
+     */
+    private void breakManager(Bio4jManager manager) {
+        manager.shutDown();
+        Bio4jManagerRegistry.reportFailure(folder.getPath());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,171 @@
+package com.era7.bioinfo.servletlibraryneo4j.manager;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the grouping, retries and deadlines of {@link GroupCommitter}
+ */
+public class GroupCommitterTest {
+
+    /**
+     * Creates a node in a transaction of its own, as the servlet logic does
+     */
+    private static final GroupCommitter.Operation<Long> CREATE_NODE = new GroupCommitter.Operation<Long>() {
+
+        @Override
+        public Long run(Bio4jManager manager) {
+            Transaction transaction = manager.getGraphService().beginTx();
+            try {
+                long id = manager.getGraphService().createNode().getId();
+                transaction.success();
+                return id;
+            } finally {
+                transaction.finish();
+            }
+        }
+    };
+
+    private File folder;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("group-commit-test", "");
+        folder.delete();
+        folder.mkdirs();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        GroupCommitter.closeAll();
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void concurrentOperationsAreCommittedTogetherOnTheManagerOfTheGroup() throws Exception {
+        GroupCommitter committer = GroupCommitter.getCommitter(folder.getPath(), 500, 3);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (int i = 0; i < 3; i++) {
+            results.add(submit(committer, CREATE_NODE, null));
+        }
+
+        Bio4jManager manager = Bio4jManagerRegistry.getManager(folder.getPath());
+        for (Future<Long> result : results) {
+            assertNotNull(manager.getGraphService().getNodeById(result.get(10, TimeUnit.SECONDS)));
+        }
+        assertEquals(1, committer.getGroupCount());
+        assertEquals(3, committer.getOperationCount());
+        assertEquals(0, committer.getRetriedGroupCount());
+    }
+
+    @Test
+    public void aFailingOperationDoesNotFailTheRestOfItsGroup() throws Exception {
+        GroupCommitter committer = GroupCommitter.getCommitter(folder.getPath(), 500, 2);
+        Future<Long> created = submit(committer, CREATE_NODE, null);
+        Future<Long> failed = submit(committer, new GroupCommitter.Operation<Long>() {
+
+            @Override
+            public Long run(Bio4jManager manager) {
+                throw new IllegalStateException("bad operation");
+            }
+        }, null);
+
+        long id = created.get(10, TimeUnit.SECONDS);
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("The operation should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, committer.getRetriedGroupCount());
+        assertNotNull(Bio4jManagerRegistry.getManager(folder.getPath()).getGraphService().getNodeById(id));
+    }
+
+    @Test
+    public void anOperationStillQueuedAtItsDeadlineIsWithdrawn() throws Throwable {
+        GroupCommitter committer = GroupCommitter.getCommitter(folder.getPath(), 0, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Long> blocking = submit(committer, new GroupCommitter.Operation<Long>() {
+
+            @Override
+            public Long run(Bio4jManager manager) throws Throwable {
+                started.countDown();
+                release.await();
+                return 0L;
+            }
+        }, null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        long start = System.currentTimeMillis();
+        try {
+            committer.execute(new GroupCommitter.Operation<Long>() {
+
+                @Override
+                public Long run(Bio4jManager manager) {
+                    ran.set(true);
+                    return 0L;
+                }
+            }, new CancellationToken(100));
+            fail("The operation should have been withdrawn");
+        } catch (RequestCancelledException e) {
+            assertEquals(CancellationToken.Reason.DEADLINE, e.getReason());
+        }
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        GroupCommitter.closeAll();
+        assertFalse(ran.get());
+    }
+
+    private <T> Future<T> submit(final GroupCommitter committer, final GroupCommitter.Operation<T> operation,
+            final CancellationToken token) {
+        return executor.submit(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                try {
+                    return committer.execute(operation, token);
+                } catch (Exception e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new Exception(e);
+                }
+            }
+        });
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
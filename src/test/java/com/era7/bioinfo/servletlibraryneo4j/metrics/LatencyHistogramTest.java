@@ -0,0 +1,69 @@
+package com.era7.bioinfo.servletlibraryneo4j.metrics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the buckets and statistics of {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void anEmptyHistogramReportsZeros() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+        assertTrue(histogram.getMean() == 0);
+    }
+
+    @Test
+    public void everyValueFallsInABucketThatContainsIt() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void bucketsKeepTheRelativeErrorBelowOneSixteenth() {
+        for (long value = 16; value < 1L << 40; value = value * 3 + 7) {
+            long bound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue((bound - value) * 16 <= value);
+        }
+    }
+
+    @Test
+    public void percentilesAreBoundedByTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertTrue(histogram.getMean() == 50500);
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 50000 && median <= 50000 + 50000 / 16);
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesAreCountedAsZeroAndResetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(2000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,137 @@
+package com.era7.bioinfo.servletlibraryneo4j.paging;
+
+import org.jdom.Element;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link CursorRegistry}
+ */
+public class CursorRegistryTest {
+
+    @Test
+    public void storedCursorsAreResumed() {
+        CursorRegistry registry = new CursorRegistry(10, 10, 1000, 60000);
+        TestCursor cursor = new TestCursor(10);
+        String token = registry.put("session", "method", cursor, 20);
+
+        assertEquals(20, CursorRegistry.getPosition(token));
+        assertEquals(10, registry.getMemory());
+        assertSame(cursor, registry.take(token, "session", "method"));
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getMemory());
+        assertEquals(1, registry.getResumedCount());
+        //--> A cursor can only be taken once
+        assertNull(registry.take(token, "session", "method"));
+        assertEquals(1, registry.getReseekCount());
+        assertFalse(cursor.closed);
+    }
+
+    @Test
+    public void cursorsAreOnlyGivenToTheirSessionAndMethod() {
+        CursorRegistry registry = new CursorRegistry(10, 10, 1000, 60000);
+        TestCursor cursor = new TestCursor(10);
+        String token = registry.put("session", "method", cursor, 20);
+
+        assertNull(registry.take(token, "other", "method"));
+        assertNull(registry.take(token, null, "method"));
+        assertNull(registry.take(token, "session", "other"));
+        assertSame(cursor, registry.take(token, "session", "method"));
+    }
+
+    @Test
+    public void theOldestCursorsOfASessionAreEvictedAndClosed() {
+        CursorRegistry registry = new CursorRegistry(10, 2, 1000, 60000);
+        TestCursor first = new TestCursor(1);
+        TestCursor second = new TestCursor(1);
+        TestCursor third = new TestCursor(1);
+        String firstToken = registry.put("session", "method", first, 1);
+        registry.put("session", "method", second, 1);
+        registry.put("other", "method", new TestCursor(1), 1);
+        registry.put("session", "method", third, 1);
+
+        assertTrue(first.closed);
+        assertFalse(second.closed);
+        assertFalse(third.closed);
+        assertEquals(3, registry.size());
+        assertEquals(1, registry.getEvictions());
+        assertNull(registry.take(firstToken, "session", "method"));
+    }
+
+    @Test
+    public void cursorsOverTheMemoryLimitAreEvicted() {
+        CursorRegistry registry = new CursorRegistry(10, 10, 100, 60000);
+        TestCursor first = new TestCursor(60);
+        TestCursor second = new TestCursor(60);
+        registry.put("a", "method", first, 1);
+        registry.put("b", "method", second, 1);
+
+        assertTrue(first.closed);
+        assertFalse(second.closed);
+        assertEquals(60, registry.getMemory());
+    }
+
+    @Test
+    public void expiredCursorsAreEvicted() throws InterruptedException {
+        CursorRegistry registry = new CursorRegistry(10, 10, 1000, 10);
+        TestCursor cursor = new TestCursor(1);
+        String token = registry.put("session", "method", cursor, 1);
+        Thread.sleep(50);
+
+        assertNull(registry.take(token, "session", "method"));
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    public void closeClosesEveryCursor() {
+        CursorRegistry registry = new CursorRegistry(10, 10, 1000, 60000);
+        TestCursor first = new TestCursor(1);
+        TestCursor second = new TestCursor(1);
+        registry.put("a", "method", first, 1);
+        registry.put("b", "method", second, 1);
+        registry.close();
+
+        assertTrue(first.closed);
+        assertTrue(second.closed);
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getMemory());
+    }
+
+    @Test
+    public void invalidTokensHaveNoPosition() {
+        assertEquals(-1, CursorRegistry.getPosition(null));
+        assertEquals(-1, CursorRegistry.getPosition("nodash"));
+        assertEquals(-1, CursorRegistry.getPosition("abc-def"));
+        assertEquals(42, CursorRegistry.getPosition("abc-42"));
+    }
+
+    private static final class TestCursor implements TraversalCursor {
+
+        private final long memory;
+        private boolean closed = false;
+
+        TestCursor(long memory) {
+            this.memory = memory;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public Element next() {
+            return null;
+        }
+
+        @Override
+        public long getEstimatedMemory() {
+            return memory;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.era7.bioinfo.servletlibraryneo4j.permissions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link PermissionSet}
+ */
+public class PermissionSetTest {
+
+    @Test
+    public void containsOnlyTheCompiledPermissions() {
+        PermissionSet set = PermissionSet.compile(Arrays.asList("set.read", "set.write"));
+        assertTrue(set.contains("set.read"));
+        assertTrue(set.contains("set.write"));
+        assertFalse(set.contains("set.admin"));
+        assertFalse(set.contains("never.registered.permission"));
+    }
+
+    @Test
+    public void nullAndEmptyPermissionsCompileToTheEmptySet() {
+        assertSame(PermissionSet.EMPTY, PermissionSet.compile(null));
+        assertSame(PermissionSet.EMPTY, PermissionSet.compile(new ArrayList<String>()));
+        assertFalse(PermissionSet.EMPTY.contains("set.read"));
+        assertFalse(PermissionSet.EMPTY.contains(-1));
+    }
+
+    @Test
+    public void signaturesDependOnlyOnThePermissions() {
+        PermissionSet first = PermissionSet.compile(Arrays.asList("sig.a", "sig.b"));
+        PermissionSet second = PermissionSet.compile(Arrays.asList("sig.b", "sig.a", "sig.a"));
+        PermissionSet other = PermissionSet.compile(Arrays.asList("sig.a"));
+        assertEquals(first.getSignature(), second.getSignature());
+        assertFalse(first.getSignature().equals(other.getSignature()));
+    }
+
+    @Test
+    public void supportsMoreThanOneWordOfPermissions() {
+        List<String> permissions = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            permissions.add("many." + i);
+        }
+        PermissionSet set = PermissionSet.compile(permissions.subList(100, 200));
+        for (int i = 0; i < 200; i++) {
+            assertEquals("many." + i, i >= 100, set.contains("many." + i));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.bioinfo.servletlibraryneo4j.servlet.StubServletRequest;
+import com.era7.bioinfo.servletlibraryneo4j.servlet.StubServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the Range header support of {@link BinaryResponseWriter}
+ */
+public class BinaryResponseWriterTest {
+
+    private static final long[] WHOLE = new long[0];
+    private static final byte[] DATA = "0123456789".getBytes();
+
+    @Test
+    public void withoutRangeTheWholeContentIsSent() {
+        assertArrayEquals(WHOLE, BinaryResponseWriter.parseRange(null, 10));
+        assertArrayEquals(WHOLE, BinaryResponseWriter.parseRange("items=0-5", 10));
+        assertArrayEquals(WHOLE, BinaryResponseWriter.parseRange("bytes=a-b", 10));
+    }
+
+    @Test
+    public void closedRanges() {
+        assertArrayEquals(new long[]{2, 5}, BinaryResponseWriter.parseRange("bytes=2-5", 10));
+        assertArrayEquals(new long[]{3, 3}, BinaryResponseWriter.parseRange("bytes=3-3", 10));
+        //--> The end is limited to the last byte
+        assertArrayEquals(new long[]{8, 9}, BinaryResponseWriter.parseRange("bytes=8-100", 10));
+    }
+
+    @Test
+    public void openEndedRanges() {
+        assertArrayEquals(new long[]{4, 9}, BinaryResponseWriter.parseRange("bytes=4-", 10));
+        assertArrayEquals(new long[]{0, 9}, BinaryResponseWriter.parseRange("bytes=0-", 10));
+    }
+
+    @Test
+    public void suffixRanges() {
+        assertArrayEquals(new long[]{7, 9}, BinaryResponseWriter.parseRange("bytes=-3", 10));
+        assertArrayEquals(new long[]{0, 9}, BinaryResponseWriter.parseRange("bytes=-30", 10));
+        assertNull(BinaryResponseWriter.parseRange("bytes=-0", 10));
+    }
+
+    @Test
+    public void invertedRangesAreIgnored() {
+        assertArrayEquals(WHOLE, BinaryResponseWriter.parseRange("bytes=5-3", 10));
+        assertArrayEquals(WHOLE, BinaryResponseWriter.parseRange("bytes=50-3", 10));
+    }
+
+    @Test
+    public void multipleRangesAreIgnored() {
+        assertArrayEquals(WHOLE, BinaryResponseWriter.parseRange("bytes=0-1,4-5", 10));
+    }
+
+    @Test
+    public void rangesBeyondTheContentCannotBeSatisfied() {
+        assertNull(BinaryResponseWriter.parseRange("bytes=10-", 10));
+        assertNull(BinaryResponseWriter.parseRange("bytes=20-30", 10));
+        assertNull(BinaryResponseWriter.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    public void aRangeIsSentAsPartialContent() throws Exception {
+        StubServletResponse response = write("bytes=2-5");
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        assertEquals("bytes 2-5/10", response.getHeader("Content-Range"));
+        assertEquals("4", response.getHeader("Content-Length"));
+        assertEquals("2345", response.getBodyText());
+    }
+
+    @Test
+    public void anInvertedRangeIsSentWhole() throws Exception {
+        StubServletResponse response = write("bytes=5-3");
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNull(response.getHeader("Content-Range"));
+        assertEquals("0123456789", response.getBodyText());
+    }
+
+    @Test
+    public void anUnsatisfiableRangeIsRejected() throws Exception {
+        StubServletResponse response = write("bytes=10-");
+
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        assertEquals("bytes */10", response.getHeader("Content-Range"));
+        assertEquals(0, response.getBody().length);
+    }
+
+    private static StubServletResponse write(String range) throws Exception {
+        StubServletRequest request = new StubServletRequest();
+        request.setHeader("Range", range);
+        StubServletResponse response = new StubServletResponse();
+        BinaryResponse binaryResponse = new BinaryResponse("data.txt", new InputStreamSource() {
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(DATA);
+            }
+        }, DATA.length);
+        BinaryResponseWriter.write(binaryResponse, request, response);
+        return response;
+    }
+}
@@ -0,0 +1,73 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.bioinfo.servletlibraryneo4j.servlet.StubServletRequest;
+import com.era7.bioinfo.servletlibraryneo4j.servlet.StubServletResponse;
+import com.era7.lib.communication.xml.Response;
+import org.jdom.Element;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the events and heartbeats written by {@link PushEventWriter}
+ */
+public class PushEventWriterTest {
+
+    private StubServletRequest request;
+    private StubServletResponse response;
+
+    @Before
+    public void setUp() {
+        request = new StubServletRequest();
+        request.setHeader("Accept", PushEventWriter.EVENT_STREAM_CONTENT_TYPE);
+        response = new StubServletResponse();
+    }
+
+    @Test
+    public void anErrorCanBeSetAfterASilentPeriod() throws Exception {
+        PushEventWriter writer = new PushEventWriter(envelope(), request, response, 0, 10);
+        Thread.sleep(200);
+
+        assertFalse(writer.isStarted());
+        writer.setError("nothing found");
+        assertEquals("nothing found", writer.getError());
+        assertEquals(0, response.getBody().length);
+        writer.abort(new IllegalStateException());
+    }
+
+    @Test
+    public void heartbeatsAreSentOnceTheResponseHasStarted() throws Exception {
+        PushEventWriter writer = new PushEventWriter(envelope(), request, response, 0, 10);
+        writer.writeResult(new Element("protein").setText("P12345"));
+        Thread.sleep(200);
+        writer.finish();
+
+        String body = response.getBodyText();
+        assertEquals(PushEventWriter.EVENT_STREAM_CONTENT_TYPE, response.getContentType());
+        assertTrue(body.startsWith("event: start\n"));
+        assertTrue(body.contains("event: result\ndata: <protein>P12345</protein>\n\n"));
+        assertTrue(body.contains(": keep-alive\n\n"));
+        assertTrue(body.endsWith("event: end\ndata: \n\n"));
+    }
+
+    @Test
+    public void progressEventsAreThrottled() throws Exception {
+        PushEventWriter writer = new PushEventWriter(envelope(), request, response, 60000, 0);
+        for (int i = 1; i <= 10; i++) {
+            writer.progress(i, 10, null);
+        }
+        writer.finish();
+
+        String body = response.getBodyText();
+        assertTrue(body.contains("<progress done=\"1\" total=\"10\" />"));
+        assertFalse(body.contains("done=\"5\""));
+        //--> The latest one is sent when the response ends
+        assertTrue(body.contains("<progress done=\"10\" total=\"10\" />"));
+    }
+
+    private static Response envelope() {
+        Response envelope = new Response();
+        envelope.setStatus(Response.SUCCESSFUL_RESPONSE);
+        return envelope;
+    }
+}
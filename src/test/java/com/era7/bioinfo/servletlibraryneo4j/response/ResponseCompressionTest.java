@@ -0,0 +1,121 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.bioinfo.servletlibraryneo4j.servlet.StubServletRequest;
+import com.era7.bioinfo.servletlibraryneo4j.servlet.StubServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the negotiation of {@link ResponseCompression} and of the data written by
+ * {@link CompressingOutputStream}
+ */
+public class ResponseCompressionTest {
+
+    @Test
+    public void gzipIsPreferred() {
+        assertEquals(ResponseCompression.GZIP, negotiate("gzip, deflate"));
+        assertEquals(ResponseCompression.GZIP, negotiate("deflate, GZIP"));
+        assertEquals(ResponseCompression.GZIP, negotiate("*"));
+    }
+
+    @Test
+    public void deflateIsUsedWhenGzipIsNotAccepted() {
+        assertEquals(ResponseCompression.DEFLATE, negotiate("deflate"));
+        assertEquals(ResponseCompression.DEFLATE, negotiate("gzip;q=0, deflate;q=0.5"));
+    }
+
+    @Test
+    public void nothingIsNegotiatedWithoutAnAcceptedCoding() {
+        assertNull(negotiate(null));
+        assertNull(negotiate("identity"));
+        assertNull(negotiate("gzip;q=0.0, br"));
+        assertNull(ResponseCompression.negotiate(null));
+    }
+
+    @Test
+    public void gzipStreamsCanBeDecompressed() throws IOException {
+        byte[] data = data();
+        for (int i = 0; i < 3; i++) {
+            //--> The pooled deflaters are reused by the next streams
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            OutputStream out = new CompressingOutputStream(compressed, true);
+            out.write(data, 0, 100);
+            out.write(data[100]);
+            out.write(data, 101, data.length - 101);
+            out.close();
+
+            assertTrue(compressed.size() < data.length);
+            assertArrayEquals(data, read(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+        }
+    }
+
+    @Test
+    public void deflateStreamsCanBeDecompressed() throws IOException {
+        byte[] data = data();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(compressed, false);
+        out.write(data);
+        out.finish();
+        //--> Finishing twice does not write the trailer again
+        out.finish();
+        out.close();
+
+        assertArrayEquals(data, read(new InflaterInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+    }
+
+    @Test
+    public void theOpenedStreamFollowsTheNegotiation() throws IOException {
+        StubServletRequest request = new StubServletRequest();
+        request.setHeader("Accept-Encoding", "gzip");
+        StubServletResponse response = new StubServletResponse();
+        OutputStream out = ResponseCompression.openStream(request, response);
+        out.write(data());
+        out.close();
+
+        assertEquals(ResponseCompression.GZIP, response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertArrayEquals(data(), read(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+
+        response = new StubServletResponse();
+        out = ResponseCompression.openStream(new StubServletRequest(), response);
+        out.write(data());
+        out.close();
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(data(), response.getBody());
+    }
+
+    private static String negotiate(String acceptEncoding) {
+        StubServletRequest request = new StubServletRequest();
+        if (acceptEncoding != null) {
+            request.setHeader("Accept-Encoding", acceptEncoding);
+        }
+        return ResponseCompression.negotiate(request);
+    }
+
+    private static byte[] data() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("<accession>P").append(10000 + i % 50).append("</accession>");
+        }
+        return builder.toString().getBytes();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
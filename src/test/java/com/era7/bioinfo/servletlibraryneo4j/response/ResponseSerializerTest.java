@@ -0,0 +1,115 @@
+package com.era7.bioinfo.servletlibraryneo4j.response;
+
+import com.era7.lib.communication.xml.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.EntityRef;
+import org.jdom.Namespace;
+import org.jdom.ProcessingInstruction;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link ResponseSerializer} writes the bytes of the JDOM <code>XMLOutputter</code>
+ */
+public class ResponseSerializerTest {
+
+    @Test
+    public void responseEnvelopes() throws IOException {
+        Response response = new Response();
+        response.setId("7");
+        response.setMethod("get_protein");
+        response.setStatus(Response.SUCCESSFUL_RESPONSE);
+        response.getRoot().addContent(new Element("protein").addContent(new Element("accession").setText("P69905")));
+        response.getRoot().addContent(new Element("empty"));
+
+        assertSerialized(response.getRoot());
+    }
+
+    @Test
+    public void textsAndAttributesAreEscaped() throws IOException {
+        Element root = new Element("root");
+        root.setAttribute("value", "a & b < c > d \"e\" \t \n \r");
+        root.addContent(new Element("text").setText("a & b < c > d \"e\" \t \n \r"));
+
+        assertSerialized(root);
+    }
+
+    @Test
+    public void nonAsciiCharactersAreEncodedInUtf8() throws IOException {
+        Element root = new Element("root");
+        root.setAttribute("name", "Prot\u00e9ine");
+        root.addContent(new Element("organism").setText("\u03b1-\u4e2d\u6587 \ud83e\uddec"));
+
+        assertSerialized(root);
+    }
+
+    @Test
+    public void namespacesAreDeclaredOncePerScope() throws IOException {
+        Namespace uniprot = Namespace.getNamespace("up", "http://uniprot.org/uniprot");
+        Element root = new Element("entry", "http://era7.com/default");
+        root.addNamespaceDeclaration(uniprot);
+        Element child = new Element("accession", uniprot);
+        child.setAttribute("type", "primary", uniprot);
+        root.addContent(child);
+        root.addContent(new Element("plain"));
+        root.addContent(new Element("other", Namespace.getNamespace("http://era7.com/other")));
+
+        assertSerialized(root);
+    }
+
+    @Test
+    public void otherContentsAreWritten() throws IOException {
+        Element root = new Element("root");
+        root.addContent(new CDATA("<raw & data>"));
+        root.addContent(new Comment(" a comment "));
+        root.addContent(new ProcessingInstruction("target", "data"));
+        root.addContent(new EntityRef("nbsp"));
+
+        assertSerialized(root);
+    }
+
+    @Test
+    public void namesAreWrittenAlsoWhenTheyAreNotCached() throws IOException {
+        int maxCachedNames = ResponseSerializer.MAX_CACHED_NAMES;
+        ResponseSerializer.MAX_CACHED_NAMES = 0;
+        try {
+            Element root = new Element("uncached_root");
+            root.setAttribute("uncached_attribute", "value");
+            root.addContent(new Element("uncached_child"));
+            assertSerialized(root);
+        } finally {
+            ResponseSerializer.MAX_CACHED_NAMES = maxCachedNames;
+        }
+    }
+
+    @Test
+    public void largeResponsesSpanSeveralChunks() throws IOException {
+        Element root = new Element("proteins");
+        for (int i = 0; i < 20000; i++) {
+            root.addContent(new Element("accession").setText("P" + i));
+        }
+
+        assertSerialized(root);
+    }
+
+    private static void assertSerialized(Element root) throws IOException {
+        String expected = new XMLOutputter(Format.getRawFormat()).outputString(root)
+                + System.getProperty("line.separator");
+        SerializedResponse serialized = ResponseSerializer.serialize(root);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            serialized.writeTo(out);
+        } finally {
+            serialized.release();
+        }
+
+        assertEquals(expected, new String(out.toByteArray(), "UTF-8"));
+        assertEquals(out.size(), serialized.size());
+    }
+}
@@ -0,0 +1,129 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.servletlibraryneo4j.deadline.CancellationToken;
+import com.era7.bioinfo.servletlibraryneo4j.deadline.RequestCancelledException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the request and response wrappers handed to async workers by {@link AsyncRequestGuard}
+ */
+public class AsyncRequestGuardTest {
+
+    private final CancellationToken token = new CancellationToken(0);
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @Test
+    public void callsFailOnceTheGuardIsClosed() throws Exception {
+        StubServletRequest request = new StubServletRequest();
+        request.setHeader("Accept", "text/xml");
+        AsyncRequestGuard guard = new AsyncRequestGuard(request, new StubServletResponse(), token, null);
+
+        assertEquals("text/xml", guard.getRequest().getHeader("Accept"));
+        guard.getResponse().setStatus(200);
+        assertTrue(guard.close(0));
+
+        //--> The token is kept by the guard, never read back from the (recycled) request
+        assertSame(token, CancellationToken.get(guard.getRequest()));
+        try {
+            guard.getRequest().getHeader("Accept");
+            fail("The request should be closed");
+        } catch (RequestCancelledException e) {
+            assertEquals(CancellationToken.Reason.DEADLINE, e.getReason());
+        }
+        try {
+            guard.getResponse().getOutputStream().write(1);
+            fail("The response should be closed");
+        } catch (RequestCancelledException e) {
+            //--> Expected
+        }
+    }
+
+    @Test
+    public void closingWaitsForAWriteInProgress() throws Exception {
+        AsyncRequestGuard guard = new AsyncRequestGuard(new StubServletRequest(), new BlockingResponse(), token,
+                null);
+        Thread worker = write(guard);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    //--> Unblocked anyway
+                }
+                unblock.countDown();
+            }
+        }.start();
+        assertTrue(guard.close(5000));
+        assertEquals(0, unblock.getCount());
+        worker.join(5000);
+    }
+
+    @Test
+    public void closingGivesUpOnABlockedWriteAfterTheTimeout() throws Exception {
+        AsyncRequestGuard guard = new AsyncRequestGuard(new StubServletRequest(), new BlockingResponse(), token,
+                null);
+        Thread worker = write(guard);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        long start = System.currentTimeMillis();
+        assertFalse(guard.close(200));
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        unblock.countDown();
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+    }
+
+    private Thread write(final AsyncRequestGuard guard) {
+        Thread worker = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    guard.getResponse().getOutputStream().write(new byte[16], 0, 16);
+                } catch (IOException e) {
+                    //--> Not expected, the test fails on the assertions
+                }
+            }
+        };
+        worker.start();
+        return worker;
+    }
+
+    /**
+     * Response whose writes block until the test releases them (a client not reading)
+     */
+    private final class BlockingResponse extends StubServletResponse {
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+
+                @Override
+                public void write(int b) {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    writing.countDown();
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.servletlibraryneo4j.cache.GraphVersion;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.lib.communication.xml.Response;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the batch requests of {@link BasicServletNeo4j} (see {@link BatchRequestExecutor})
+ */
+public class BatchRequestExecutorTest {
+
+    private File folder;
+    private CountingServletNeo4j servlet;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("batch-servlet-test", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        if (servlet != null) {
+            servlet.destroy();
+        }
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void theResponsesOfABatchFollowItsRequests() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).batch(false).start("batch-sequential");
+
+        List<?> responses = batch("first", "second", "third");
+
+        assertEquals(3, responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            Element response = (Element) responses.get(i);
+            assertEquals(Integer.toString(i), response.getAttributeValue("id"));
+            assertEquals(Response.SUCCESSFUL_RESPONSE, response.getAttributeValue("status"));
+        }
+        assertEquals(3, servlet.runs.get());
+    }
+
+    @Test
+    public void aFailureRollsBackTheWholeSequentialBatch() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).batch(false).start("batch-rollback");
+        int nodes = countNodes();
+
+        List<?> responses = batch(CountingServletNeo4j.CREATE_METHOD, CountingServletNeo4j.CREATE_METHOD,
+                CountingServletNeo4j.FAIL_METHOD, "other");
+
+        assertError(BatchRequestExecutor.ROLLED_BACK_MESSAGE, responses.get(0));
+        assertError(BatchRequestExecutor.ROLLED_BACK_MESSAGE, responses.get(1));
+        assertError(BasicServletNeo4j.INTERNAL_ERROR_MESSAGE, responses.get(2));
+        assertError(BatchRequestExecutor.NOT_EXECUTED_MESSAGE, responses.get(3));
+        assertEquals(nodes, countNodes());
+    }
+
+    @Test
+    public void successfulSequentialBatchesAreCommitted() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).batch(false).start("batch-commit");
+        int nodes = countNodes();
+
+        batch(CountingServletNeo4j.CREATE_METHOD, CountingServletNeo4j.CREATE_METHOD);
+
+        assertEquals(nodes + 2, countNodes());
+    }
+
+    @Test
+    public void aFailureOnlyAffectsItsOwnRequestInParallelBatches() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).readOnly("search").batch(true).start("batch-parallel");
+
+        List<?> responses = batch("search", CountingServletNeo4j.FAIL_METHOD, "search", "search", "search");
+
+        assertEquals(5, responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            if (i == 1) {
+                assertError(BasicServletNeo4j.INTERNAL_ERROR_MESSAGE, responses.get(i));
+            } else {
+                assertEquals(Response.SUCCESSFUL_RESPONSE, ((Element) responses.get(i)).getAttributeValue("status"));
+            }
+        }
+        assertEquals(4, servlet.runs.get());
+    }
+
+    @Test
+    public void readOnlyBatchesRunWithoutATransaction() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).readOnly("search").batch(false).start("batch-read-only");
+
+        List<?> responses = batch("search", "search", "search");
+
+        assertEquals(3, responses.size());
+        assertEquals(3, servlet.runs.get());
+    }
+
+    @Test
+    public void batchesWithMutatingRequestsModifyTheGraph() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).readOnly("search").mutating("save")
+                .batch(false).start("batch-mutating");
+        String version = GraphVersion.get(folder.getPath());
+
+        batch("search");
+        assertEquals(version, GraphVersion.get(folder.getPath()));
+
+        batch("search", "save");
+        assertFalse(version.equals(GraphVersion.get(folder.getPath())));
+    }
+
+    @Test
+    public void batchesAboveTheMaximumSizeAreRejected() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).batch(false).start("batch-too-large");
+        String[] methods = new String[BasicServletNeo4j.MAX_BATCH_SIZE + 1];
+        Arrays.fill(methods, "other");
+
+        Element response = call(methods);
+
+        assertError(BatchRequestExecutor.BATCH_TOO_LARGE_MESSAGE, response);
+        assertEquals(0, servlet.runs.get());
+    }
+
+    /**
+     * @return The responses of the requests of the batch
+     */
+    private List<?> batch(String... methods) throws Exception {
+        Element response = call(methods);
+        assertEquals(Response.SUCCESSFUL_RESPONSE, response.getAttributeValue("status"));
+        return response.getChildren(Response.TAG_NAME);
+    }
+
+    private Element call(String... methods) throws Exception {
+        StringBuilder xml = new StringBuilder("<request id=\"batch\" method=\"" + BasicServletNeo4j.BATCH_METHOD
+                + "\"><parameters>");
+        for (int i = 0; i < methods.length; i++) {
+            xml.append("<request id=\"").append(i).append("\" method=\"").append(methods[i])
+                    .append("\"><parameters/></request>");
+        }
+        xml.append("</parameters></request>");
+        String body = servlet.call(new StubServletRequest(xml.toString())).getBodyText();
+        return new SAXBuilder().build(new StringReader(body)).getRootElement();
+    }
+
+    private static void assertError(String message, Object response) {
+        Element element = (Element) response;
+        assertEquals(Response.ERROR_RESPONSE, element.getAttributeValue("status"));
+        assertTrue(new XMLOutputter().outputString(element).contains(message));
+    }
+
+    private int countNodes() {
+        int nodes = 0;
+        for (Object node : Bio4jManagerRegistry.getManager(folder.getPath()).getGraphService().getAllNodes()) {
+            nodes++;
+        }
+        return nodes;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,197 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import org.jdom.Element;
+
+/**
+ * Servlet without sessions, permissions nor logging whose responses carry the number of times its
+ * logic has run (so that tests can tell computed responses from cached ones).
+ * <br>The method {@link #FAIL_METHOD} throws an exception and {@link #CREATE_METHOD} creates a node
+ * (it must run in a transaction, as the sequential batches do).
+ */
+public class CountingServletNeo4j extends BasicServletNeo4j {
+
+    public static final String FAIL_METHOD = "fail";
+    public static final String CREATE_METHOD = "create";
+
+    public final AtomicInteger runs = new AtomicInteger();
+    private final String folder;
+    private Set<String> readOnly = null;
+    private Set<String> mutating = null;
+    private Set<String> cacheable = null;
+    private boolean conditional = false;
+    private boolean batch = false;
+    private boolean batchParallel = false;
+
+    /**
+     * @param folder Neo4j database folder of the servlet
+     */
+    public CountingServletNeo4j(String folder) {
+        this.folder = folder;
+    }
+
+    public CountingServletNeo4j readOnly(String... methods) {
+        readOnly = new HashSet<String>(Arrays.asList(methods));
+        return this;
+    }
+
+    public CountingServletNeo4j mutating(String... methods) {
+        mutating = new HashSet<String>(Arrays.asList(methods));
+        return this;
+    }
+
+    public CountingServletNeo4j cacheable(String... methods) {
+        cacheable = new HashSet<String>(Arrays.asList(methods));
+        return this;
+    }
+
+    public CountingServletNeo4j conditional() {
+        conditional = true;
+        return this;
+    }
+
+    /**
+     * Accepts batch requests
+     * @param parallel Whether the requests of the batches run in parallel
+     */
+    public CountingServletNeo4j batch(boolean parallel) {
+        batch = true;
+        batchParallel = parallel;
+        return this;
+    }
+
+    /**
+     * Initializes the servlet as the container would
+     */
+    public CountingServletNeo4j start(String name) throws ServletException {
+        init(new StubServletConfig(name));
+        return this;
+    }
+
+    /**
+     * Sends a request without parameters
+     * @return The response written by the servlet
+     */
+    public StubServletResponse call(String method) throws Exception {
+        return call(new StubServletRequest("<request id=\"1\" method=\"" + method + "\"><parameters/></request>"));
+    }
+
+    public StubServletResponse call(StubServletRequest request) throws Exception {
+        StubServletResponse response = new StubServletResponse();
+        service(request, response);
+        return response;
+    }
+
+    @Override
+    protected Response processRequest(Request request, BasicSession session, Bio4jManager manager,
+            HttpServletRequest httpRequest) throws Throwable {
+        if (FAIL_METHOD.equals(request.getMethod())) {
+            throw new IllegalStateException("Failed on purpose");
+        }
+        if (CREATE_METHOD.equals(request.getMethod())) {
+            manager.getGraphService().createNode();
+        }
+        Response response = new Response();
+        response.setStatus(Response.SUCCESSFUL_RESPONSE);
+        response.getRoot().addContent(new Element("run").setText(Integer.toString(runs.incrementAndGet())));
+        return response;
+    }
+
+    @Override
+    protected void logSuccessfulOperation(Request request, Response response, Bio4jManager manager,
+            BasicSession session) {
+    }
+
+    @Override
+    protected void logErrorResponseOperation(Request request, Response response, Bio4jManager manager,
+            BasicSession session) {
+    }
+
+    @Override
+    protected void logErrorExceptionOperation(Request request, Response response, Throwable e,
+            Bio4jManager manager) {
+    }
+
+    @Override
+    protected void noSession(Request request) {
+    }
+
+    @Override
+    protected boolean checkPermissions(ArrayList<?> userPermissions, Request request) {
+        return true;
+    }
+
+    @Override
+    protected boolean defineCheckSessionFlag() {
+        return false;
+    }
+
+    @Override
+    protected boolean defineCheckPermissionsFlag() {
+        return false;
+    }
+
+    @Override
+    protected boolean defineLoggableFlag() {
+        return false;
+    }
+
+    @Override
+    protected boolean defineLoggableErrorsFlag() {
+        return false;
+    }
+
+    @Override
+    protected boolean defineUtf8CharacterEncodingRequest() {
+        return false;
+    }
+
+    @Override
+    protected String defineNeo4jDatabaseFolder() {
+        return folder;
+    }
+
+    @Override
+    protected Set<String> defineReadOnlyMethods() {
+        return readOnly;
+    }
+
+    @Override
+    protected Set<String> defineMutatingMethods() {
+        return mutating;
+    }
+
+    @Override
+    protected Set<String> defineCacheableMethods() {
+        return cacheable;
+    }
+
+    @Override
+    protected boolean defineConditionalFlag() {
+        return conditional;
+    }
+
+    @Override
+    protected boolean defineBatchFlag() {
+        return batch;
+    }
+
+    @Override
+    protected boolean defineBatchParallelFlag() {
+        return batchParallel;
+    }
+
+    @Override
+    protected void initServlet() {
+    }
+}
@@ -0,0 +1,223 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.paging.TraversalCursor;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the pages and continuation tokens of {@link PagingServletNeo4j}
+ */
+public class PagingServletTest {
+
+    private static final Pattern TOKEN = Pattern.compile("<continuation_token>([^<]*)</continuation_token>");
+
+    private File folder;
+    private ItemsServlet servlet;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = File.createTempFile("paging-servlet-test", "");
+        folder.delete();
+        folder.mkdirs();
+        servlet = new ItemsServlet(folder.getPath(), 10);
+        servlet.init(new StubServletConfig("paging-test"));
+    }
+
+    @After
+    public void tearDown() {
+        servlet.destroy();
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void theNextPagesResumeTheStoredTraversal() throws Exception {
+        String body = page(null);
+        assertTrue(body.contains("<item>0</item><item>1</item><item>2</item>"));
+        String token = getToken(body);
+        int pages = 1;
+        while (token != null) {
+            body = page(token);
+            token = getToken(body);
+            pages++;
+        }
+
+        assertEquals(4, pages);
+        assertTrue(body.contains("<item>9</item>"));
+        assertEquals(1, servlet.opened.get());
+        assertEquals(3, servlet.getCursors().getResumedCount());
+        assertEquals(0, servlet.getCursors().size());
+    }
+
+    @Test
+    public void aTraversalWhoseManagerWasReplacedIsOpenedAgain() throws Exception {
+        String token = getToken(page(null));
+        Bio4jManager first = Bio4jManagerRegistry.getManager(folder.getPath());
+        first.shutDown();
+        Bio4jManagerRegistry.reportFailure(folder.getPath());
+
+        String body = page(token);
+        assertTrue(body.contains("<item>3</item><item>4</item><item>5</item>"));
+        assertFalse(body.contains("<item>2</item>"));
+        assertEquals(2, servlet.opened.get());
+        assertNotSame(first, Bio4jManagerRegistry.getManager(folder.getPath()));
+    }
+
+    @Test
+    public void tokensBeyondTheMaximumPositionAreRejected() throws Exception {
+        String body = page("0123456789abcdef-" + (servlet.defineMaxSeekPosition() + 1));
+        assertTrue(body.contains(PagingServletNeo4j.INVALID_TOKEN_MESSAGE));
+        assertEquals(0, servlet.opened.get());
+
+        //--> Up to the maximum the traversal is opened again and moved there
+        body = page("0123456789abcdef-8");
+        assertTrue(body.contains("<item>8</item><item>9</item>"));
+        assertNull(getToken(body));
+        assertEquals(1, servlet.opened.get());
+    }
+
+    private String page(String token) throws Exception {
+        String parameters = "<page_size>3</page_size>"
+                + (token == null ? "" : "<continuation_token>" + token + "</continuation_token>");
+        StubServletResponse response = new StubServletResponse();
+        servlet.service(new StubServletRequest("<request id=\"1\" method=\"list\"><parameters>" + parameters
+                + "</parameters></request>"), response);
+        return response.getBodyText();
+    }
+
+    private static String getToken(String body) {
+        Matcher matcher = TOKEN.matcher(body);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Paging servlet listing the numbers from 0 to a size
+     */
+    private static final class ItemsServlet extends PagingServletNeo4j {
+
+        final AtomicInteger opened = new AtomicInteger();
+        private final String folder;
+        private final int size;
+
+        ItemsServlet(String folder, int size) {
+            this.folder = folder;
+            this.size = size;
+        }
+
+        @Override
+        protected TraversalCursor openCursor(Request request, BasicSession session, Bio4jManager manager,
+                HttpServletRequest httpRequest) {
+            opened.incrementAndGet();
+            return new TraversalCursor() {
+
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Element next() {
+                    return new Element("item").setText(Integer.toString(next++));
+                }
+
+                @Override
+                public long getEstimatedMemory() {
+                    return 64;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        protected long defineMaxSeekPosition() {
+            return 1000;
+        }
+
+        @Override
+        protected void logSuccessfulOperation(Request request, Response response, Bio4jManager manager,
+                BasicSession session) {
+        }
+
+        @Override
+        protected void logErrorResponseOperation(Request request, Response response, Bio4jManager manager,
+                BasicSession session) {
+        }
+
+        @Override
+        protected void logErrorExceptionOperation(Request request, Response response, Throwable e,
+                Bio4jManager manager) {
+        }
+
+        @Override
+        protected void noSession(Request request) {
+        }
+
+        @Override
+        protected boolean checkPermissions(ArrayList<?> userPermissions, Request request) {
+            return true;
+        }
+
+        @Override
+        protected boolean defineCheckSessionFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineCheckPermissionsFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineLoggableFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineLoggableErrorsFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineUtf8CharacterEncodingRequest() {
+            return false;
+        }
+
+        @Override
+        protected String defineNeo4jDatabaseFolder() {
+            return folder;
+        }
+
+        @Override
+        protected void initServlet() {
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.response.PushEventWriter;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the events and responses written by {@link PushServletNeo4j}
+ */
+public class PushServletTest {
+
+    private File folder;
+    private ProteinsServlet servlet;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("push-servlet-test", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        if (servlet != null) {
+            servlet.destroy();
+        }
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void clientsAcceptingEventsGetServerSentEvents() throws Exception {
+        start(false);
+
+        String body = call("search", 3, true).getBodyText();
+
+        assertTrue(body.startsWith("event: start\n"));
+        assertTrue(body.contains("event: result\ndata: <protein>P0</protein>\n\n"));
+        assertTrue(body.contains("event: result\ndata: <protein>P2</protein>\n\n"));
+        assertTrue(body.contains("event: progress\ndata: <progress done=\"3\" total=\"3\" />\n\n"));
+        assertTrue(body.endsWith("event: end\ndata: \n\n"));
+    }
+
+    @Test
+    public void otherClientsGetAnXmlResponse() throws Exception {
+        start(false);
+
+        StubServletResponse response = call("search", 3, false);
+        Element root = new SAXBuilder().build(new StringReader(response.getBodyText())).getRootElement();
+
+        assertEquals(Response.SUCCESSFUL_RESPONSE, root.getAttributeValue("status"));
+        assertEquals(3, root.getChildren("protein").size());
+        List<?> progress = root.getChildren("progress");
+        assertEquals(3, progress.size());
+        assertEquals("3", ((Element) progress.get(2)).getAttributeValue("done"));
+    }
+
+    @Test
+    public void errorsSetBeforePushingAreStandardErrorResponses() throws Exception {
+        start(false);
+
+        StubServletResponse response = call("missing", 0, true);
+        Element root = new SAXBuilder().build(new StringReader(response.getBodyText())).getRootElement();
+
+        assertEquals(Response.ERROR_RESPONSE, root.getAttributeValue("status"));
+        assertFalse(PushEventWriter.EVENT_STREAM_CONTENT_TYPE.equals(response.getContentType()));
+    }
+
+    @Test
+    public void failuresAfterPushingEndTheEventsWithAnErrorEvent() throws Exception {
+        start(false);
+
+        String body = call("break", 2, true).getBodyText();
+
+        assertTrue(body.contains("data: <protein>P1</protein>"));
+        assertTrue(body.endsWith("event: error\ndata: <error>Failed on purpose</error>\n\n"));
+        assertFalse(body.contains("event: end"));
+    }
+
+    @Test(expected = ServletException.class)
+    public void batchesCannotBeEnabled() throws Exception {
+        start(true);
+    }
+
+    private void start(boolean batch) throws ServletException {
+        servlet = new ProteinsServlet(folder.getPath(), batch);
+        servlet.init(new StubServletConfig("push-test"));
+    }
+
+    private StubServletResponse call(String method, int results, boolean events) throws Exception {
+        StubServletRequest request = new StubServletRequest("<request id=\"1\" method=\"" + method
+                + "\"><parameters><results>" + results + "</results></parameters></request>");
+        if (events) {
+            request.setHeader("Accept", PushEventWriter.EVENT_STREAM_CONTENT_TYPE);
+        }
+        StubServletResponse response = new StubServletResponse();
+        servlet.service(request, response);
+        return response;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Push servlet pushing the number of results requested and its progress. The method
+     * <code>missing</code> answers with an error and <code>break</code> fails after pushing the results.
+     */
+    private static final class ProteinsServlet extends PushServletNeo4j {
+
+        private final String folder;
+        private final boolean batch;
+
+        ProteinsServlet(String folder, boolean batch) {
+            this.folder = folder;
+            this.batch = batch;
+        }
+
+        @Override
+        protected void processPushRequest(Request request, BasicSession session, Bio4jManager manager,
+                HttpServletRequest httpRequest, PushEventWriter writer) throws Throwable {
+            if (request.getMethod().equals("missing")) {
+                writer.setError("Nothing found");
+                return;
+            }
+            int results = Integer.parseInt(request.getParameters().getChildText("results"));
+            for (int i = 0; i < results; i++) {
+                writer.writeResult(new Element("protein").setText("P" + i));
+                writer.progress(i + 1, results, null);
+            }
+            if (request.getMethod().equals("break")) {
+                throw new IllegalStateException("Failed on purpose");
+            }
+        }
+
+        @Override
+        protected long defineProgressInterval() {
+            return 0;
+        }
+
+        @Override
+        protected long defineHeartbeatInterval() {
+            return 0;
+        }
+
+        @Override
+        protected void logSuccessfulOperation(Request request, Response response, Bio4jManager manager,
+                BasicSession session) {
+        }
+
+        @Override
+        protected void logErrorResponseOperation(Request request, Response response, Bio4jManager manager,
+                BasicSession session) {
+        }
+
+        @Override
+        protected void logErrorExceptionOperation(Request request, Response response, Throwable e,
+                Bio4jManager manager) {
+        }
+
+        @Override
+        protected void noSession(Request request) {
+        }
+
+        @Override
+        protected boolean checkPermissions(ArrayList<?> userPermissions, Request request) {
+            return true;
+        }
+
+        @Override
+        protected boolean defineCheckSessionFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineCheckPermissionsFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineLoggableFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineLoggableErrorsFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineUtf8CharacterEncodingRequest() {
+            return false;
+        }
+
+        @Override
+        protected String defineNeo4jDatabaseFolder() {
+            return folder;
+        }
+
+        @Override
+        protected boolean defineBatchFlag() {
+            return batch;
+        }
+
+        @Override
+        protected void initServlet() {
+        }
+    }
+}
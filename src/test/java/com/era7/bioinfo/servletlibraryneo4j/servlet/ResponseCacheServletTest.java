@@ -0,0 +1,104 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import java.io.File;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the response cache and conditional responses of {@link BasicServletNeo4j}
+ */
+public class ResponseCacheServletTest {
+
+    private File folder;
+    private CountingServletNeo4j servlet;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("cache-servlet-test", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        if (servlet != null) {
+            servlet.destroy();
+        }
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void cachedResponsesAreServedWithTheDefaultConfiguration() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).readOnly("search").cacheable("search")
+                .start("cache-default");
+
+        String first = servlet.call("search").getBodyText();
+        //--> Methods that are not declared mutating leave the cached responses valid
+        servlet.call("other");
+        String second = servlet.call("search").getBodyText();
+
+        assertEquals(first, second);
+        assertEquals(2, servlet.runs.get());
+    }
+
+    @Test
+    public void mutatingMethodsInvalidateTheCachedResponses() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).readOnly("search").mutating("save")
+                .cacheable("search").start("cache-mutating");
+
+        String first = servlet.call("search").getBodyText();
+        servlet.call("save");
+        String second = servlet.call("search").getBodyText();
+
+        assertFalse(first.equals(second));
+        assertEquals(3, servlet.runs.get());
+    }
+
+    @Test
+    public void conditionalRequestsMatchUntilTheGraphIsModified() throws Exception {
+        servlet = new CountingServletNeo4j(folder.getPath()).readOnly("search").mutating("save")
+                .conditional().start("cache-conditional");
+
+        String etag = servlet.call("search").getHeader("ETag");
+        assertNotNull(etag);
+        servlet.call("other");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, conditionalCall("search", etag).getStatus());
+
+        servlet.call("save");
+        assertEquals(HttpServletResponse.SC_OK, conditionalCall("search", etag).getStatus());
+    }
+
+    @Test(expected = ServletException.class)
+    public void cacheableMethodsMustBeReadOnly() throws Exception {
+        new CountingServletNeo4j(folder.getPath()).cacheable("search").start("cache-invalid");
+    }
+
+    @Test(expected = ServletException.class)
+    public void methodsCannotBeBothReadOnlyAndMutating() throws Exception {
+        new CountingServletNeo4j(folder.getPath()).readOnly("save").mutating("save").start("cache-invalid");
+    }
+
+    private StubServletResponse conditionalCall(String method, String etag) throws Exception {
+        StubServletRequest request = new StubServletRequest("<request id=\"1\" method=\"" + method
+                + "\"><parameters/></request>");
+        request.setHeader("If-None-Match", etag);
+        return servlet.call(request);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,213 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import com.era7.bioinfo.bio4jmodel.util.Bio4jManager;
+import com.era7.bioinfo.servletlibraryneo4j.manager.Bio4jManagerRegistry;
+import com.era7.bioinfo.servletlibraryneo4j.response.ResponseStreamWriter;
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.xml.Request;
+import com.era7.lib.communication.xml.Response;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the responses written by {@link StreamingServletNeo4j}
+ */
+public class StreamingServletTest {
+
+    private File folder;
+    private ItemsServlet servlet;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("streaming-servlet-test", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        if (servlet != null) {
+            servlet.destroy();
+        }
+        Bio4jManagerRegistry.close(folder.getPath());
+        delete(folder);
+    }
+
+    @Test
+    public void elementsAreStreamedInsideTheEnvelope() throws Exception {
+        start(false);
+        int items = ResponseStreamWriter.FLUSH_INTERVAL * 2 + 10;
+
+        Element response = call("list", items);
+
+        assertEquals(Response.SUCCESSFUL_RESPONSE, response.getAttributeValue("status"));
+        assertEquals("1", response.getAttributeValue("id"));
+        assertEquals("list", response.getAttributeValue("method"));
+        List<?> children = response.getChildren("item");
+        assertEquals(items, children.size());
+        assertEquals(Integer.toString(items - 1), ((Element) children.get(items - 1)).getText());
+    }
+
+    @Test
+    public void emptyResultsStillGetTheEnvelope() throws Exception {
+        start(false);
+
+        Element response = call("list", 0);
+
+        assertEquals(Response.SUCCESSFUL_RESPONSE, response.getAttributeValue("status"));
+        assertTrue(response.getChildren().isEmpty());
+    }
+
+    @Test
+    public void errorsSetBeforeWritingAreStandardErrorResponses() throws Exception {
+        start(false);
+
+        Element response = call("missing", 0);
+
+        assertEquals(Response.ERROR_RESPONSE, response.getAttributeValue("status"));
+        assertTrue(response.getChildren("item").isEmpty());
+    }
+
+    @Test
+    public void failuresAfterWritingEndTheResponseWithAnErrorElement() throws Exception {
+        start(false);
+
+        Element response = call("break", 3);
+
+        assertEquals(3, response.getChildren("item").size());
+        List<?> children = response.getChildren();
+        assertEquals("error", ((Element) children.get(children.size() - 1)).getName());
+    }
+
+    @Test(expected = ServletException.class)
+    public void batchesCannotBeEnabled() throws Exception {
+        start(true);
+    }
+
+    private void start(boolean batch) throws ServletException {
+        servlet = new ItemsServlet(folder.getPath(), batch);
+        servlet.init(new StubServletConfig("streaming-test"));
+    }
+
+    private Element call(String method, int items) throws Exception {
+        StubServletResponse response = new StubServletResponse();
+        servlet.service(new StubServletRequest("<request id=\"1\" method=\"" + method + "\"><parameters><items>"
+                + items + "</items></parameters></request>"), response);
+        return new SAXBuilder().build(new StringReader(response.getBodyText())).getRootElement();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Streaming servlet writing the number of items requested. The method <code>missing</code> answers
+     * with an error and <code>break</code> fails after writing the items.
+     */
+    private static final class ItemsServlet extends StreamingServletNeo4j {
+
+        private final String folder;
+        private final boolean batch;
+
+        ItemsServlet(String folder, boolean batch) {
+            this.folder = folder;
+            this.batch = batch;
+        }
+
+        @Override
+        protected void processStreamingRequest(Request request, BasicSession session, Bio4jManager manager,
+                HttpServletRequest httpRequest, ResponseStreamWriter writer) throws Throwable {
+            if (request.getMethod().equals("missing")) {
+                writer.setError("Nothing found");
+                return;
+            }
+            int items = Integer.parseInt(request.getParameters().getChildText("items"));
+            for (int i = 0; i < items; i++) {
+                writer.writeElement(new Element("item").setText(Integer.toString(i)));
+            }
+            if (request.getMethod().equals("break")) {
+                throw new IllegalStateException("Failed on purpose");
+            }
+        }
+
+        @Override
+        protected void logSuccessfulOperation(Request request, Response response, Bio4jManager manager,
+                BasicSession session) {
+        }
+
+        @Override
+        protected void logErrorResponseOperation(Request request, Response response, Bio4jManager manager,
+                BasicSession session) {
+        }
+
+        @Override
+        protected void logErrorExceptionOperation(Request request, Response response, Throwable e,
+                Bio4jManager manager) {
+        }
+
+        @Override
+        protected void noSession(Request request) {
+        }
+
+        @Override
+        protected boolean checkPermissions(ArrayList<?> userPermissions, Request request) {
+            return true;
+        }
+
+        @Override
+        protected boolean defineCheckSessionFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineCheckPermissionsFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineLoggableFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineLoggableErrorsFlag() {
+            return false;
+        }
+
+        @Override
+        protected boolean defineUtf8CharacterEncodingRequest() {
+            return false;
+        }
+
+        @Override
+        protected String defineNeo4jDatabaseFolder() {
+            return folder;
+        }
+
+        @Override
+        protected boolean defineBatchFlag() {
+            return batch;
+        }
+
+        @Override
+        protected void initServlet() {
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.era7.bioinfo.servletlibraryneo4j.servlet;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * Configuration of a servlet initialized outside of a container (no init parameters)
+ */
+public class StubServletConfig implements ServletConfig {
+
+    private final String servletName;
+
+    public StubServletConfig(String servletName) {
+        this.servletName = servletName;
+    }
+
+    @Override
+    public String getServletName() {
+        return servletName;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return null;
+    }
+
+    @Override
+    public String getInitParameter(String name) {
+        return null;
+    }
+
+    @Override
+    public Enumeration<String> getInitParameterNames() {
+        return Collections.enumeration(Collections.<String>emptyList());
+    }
+}
@@ -0,0 +1,106 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the files written and read by {@link FileSessionStore}
+ */
+public class FileSessionStoreTest {
+
+    private File folder;
+    private FileSessionStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("session-store-test", "");
+        folder.delete();
+        store = new FileSessionStore(folder);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void savedSessionsAreLoaded() throws IOException {
+        store.save(session("abc-1", 5, "value"));
+
+        StoredSession loaded = store.load("abc-1");
+        assertEquals("abc-1", loaded.getSessionId());
+        assertEquals(5, loaded.getVersion());
+        assertEquals("value", loaded.getAttributes().get("attribute"));
+        assertEquals(5, store.getVersion("abc-1"));
+        assertEquals("value", loaded.toSession().getAttribute("attribute"));
+    }
+
+    @Test
+    public void savingAgainReplacesTheSession() throws IOException {
+        store.save(session("abc-1", 5, "old"));
+        store.save(session("abc-1", 6, "new"));
+
+        assertEquals(6, store.getVersion("abc-1"));
+        assertEquals("new", store.load("abc-1").getAttributes().get("attribute"));
+        //--> Only the session file is left in the folder
+        assertEquals(1, folder.listFiles().length);
+    }
+
+    @Test
+    public void missingSessionsAreReported() throws IOException {
+        assertNull(store.load("missing"));
+        assertEquals(-1, store.getVersion("missing"));
+        assertEquals(-1, store.getLastAccess("missing"));
+
+        store.save(session("abc-1", 1, "value"));
+        store.remove("abc-1");
+        assertNull(store.load("abc-1"));
+        assertEquals(-1, store.getVersion("abc-1"));
+    }
+
+    @Test
+    public void idsThatAreNotFileNamesAreRejected() throws IOException {
+        assertNull(store.load("../abc"));
+        assertEquals(-1, store.getVersion("a/b"));
+        assertEquals(-1, store.getLastAccess(""));
+        store.remove("..");
+        try {
+            store.save(session("../abc", 1, "value"));
+            fail("Invalid ids must not be saved");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void idleSessionsArePurged() throws IOException {
+        store.save(session("idle", 1, "value"));
+        store.save(session("active", 1, "value"));
+        long past = System.currentTimeMillis() - 3600000;
+        new File(folder, "idle.session").setLastModified(past);
+        new File(folder, "active.session").setLastModified(past);
+        store.touch("active");
+
+        assertTrue(store.getLastAccess("active") > past);
+        assertEquals(1, store.purgeExpired(60000));
+        assertNull(store.load("idle"));
+        assertNotNull(store.load("active"));
+    }
+
+    private static StoredSession session(String sessionId, long version, String value) {
+        HashMap<String, Serializable> attributes = new HashMap<String, Serializable>();
+        attributes.put("attribute", value);
+        return new StoredSession(sessionId, version, attributes);
+    }
+}
@@ -0,0 +1,79 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link SessionExpiryWheel} (the wheel is advanced by hand, it is never started)
+ */
+public class SessionExpiryWheelTest {
+
+    private static final long TIMEOUT = 1000;
+    private static final long TICK = 10;
+
+    private final List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+    private final SessionExpiryWheel wheel = new SessionExpiryWheel(TIMEOUT, TICK, new SessionExpiryListener() {
+
+        @Override
+        public void sessionExpired(String sessionId) {
+            expired.add(sessionId);
+        }
+    });
+
+    @Test
+    public void expiresIdleSessionsAfterTheTimeout() {
+        wheel.touch("a");
+        long touched = System.currentTimeMillis();
+        assertEquals(1, wheel.size());
+
+        wheel.advance(touched + TIMEOUT / 2);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(touched + TIMEOUT + TICK);
+        assertEquals(Collections.singletonList("a"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void touchedSessionsAreRescheduled() throws InterruptedException {
+        wheel.touch("a");
+        long firstTouch = System.currentTimeMillis();
+        Thread.sleep(100);
+        wheel.touch("a");
+
+        //--> The first deadline has passed but the session was touched again meanwhile
+        wheel.advance(firstTouch + TIMEOUT + 2 * TICK);
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(System.currentTimeMillis() + TIMEOUT + TICK);
+        assertEquals(Collections.singletonList("a"), expired);
+    }
+
+    @Test
+    public void removedSessionsNeverExpire() {
+        wheel.touch("a");
+        wheel.touch("b");
+        wheel.remove("a");
+        assertEquals(1, wheel.size());
+
+        wheel.advance(System.currentTimeMillis() + TIMEOUT + TICK);
+        assertEquals(Collections.singletonList("b"), expired);
+    }
+
+    @Test
+    public void sessionsExpireAfterALongPause() {
+        wheel.touch("a");
+        //--> Several turns of the wheel without ticks
+        wheel.advance(System.currentTimeMillis() + 10 * TIMEOUT);
+        assertEquals(Collections.singletonList("a"), expired);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveTicks() {
+        new SessionExpiryWheel(TIMEOUT, 0, null);
+    }
+}
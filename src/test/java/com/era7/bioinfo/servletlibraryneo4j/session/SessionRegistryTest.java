@@ -0,0 +1,129 @@
+package com.era7.bioinfo.servletlibraryneo4j.session;
+
+import com.era7.lib.communication.model.BasicSession;
+import com.era7.lib.communication.util.SessionAttributes;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the sessions of {@link SessionRegistry}, on its own and as a near-cache of a
+ * {@link SessionStore}
+ */
+public class SessionRegistryTest {
+
+    private InProcessSessionStore store;
+
+    @Before
+    public void setUp() {
+        SessionRegistry.setStore(null, SessionRegistry.DEFAULT_VALIDATION_INTERVAL);
+        SessionRegistry.init();
+        store = new InProcessSessionStore();
+    }
+
+    @After
+    public void tearDown() {
+        SessionRegistry.setStore(null, SessionRegistry.DEFAULT_VALIDATION_INTERVAL);
+        SessionRegistry.init();
+    }
+
+    @Test
+    public void newSessionsHaveUniqueRandomIds() {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            BasicSession session = SessionRegistry.createNewSession();
+            assertTrue(session.getSessionId().matches("[0-9a-f]{32}"));
+            assertTrue(ids.add(session.getSessionId()));
+            assertSame(session, SessionRegistry.getSession(session.getSessionId()));
+        }
+        assertEquals(1000, SessionRegistry.size());
+    }
+
+    @Test
+    public void removedSessionsAreNoLongerActive() {
+        BasicSession session = SessionRegistry.createNewSession();
+
+        assertSame(session, SessionRegistry.removeSession(session.getSessionId()));
+        assertNull(SessionRegistry.getSession(session.getSessionId()));
+        assertNull(SessionRegistry.removeSession(session.getSessionId()));
+        assertNull(SessionRegistry.getSession(null));
+        assertEquals(0, SessionRegistry.size());
+    }
+
+    @Test
+    public void savedSessionsAreLoadedByOtherNodes() throws Exception {
+        SessionRegistry.setStore(store, SessionRegistry.DEFAULT_VALIDATION_INTERVAL);
+        BasicSession session = createSavedSession();
+
+        //--> Another node does not know the session yet
+        SessionRegistry.init();
+        BasicSession loaded = SessionRegistry.getSession(session.getSessionId());
+
+        assertNotNull(loaded);
+        assertEquals(session.getSessionId(), loaded.getAttribute(SessionAttributes.SESSION_ID_ATTRIBUTE));
+        assertEquals(session.getAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE),
+                loaded.getAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE));
+        assertEquals("value", loaded.getAttribute("stored"));
+        assertNull(loaded.getAttribute("not_stored"));
+        assertSame(loaded, SessionRegistry.getSession(session.getSessionId()));
+    }
+
+    @Test
+    public void sessionsRemovedFromTheStoreAreDroppedOnValidation() throws Exception {
+        SessionRegistry.setStore(store, 0);
+        BasicSession session = createSavedSession();
+        assertSame(session, SessionRegistry.getSession(session.getSessionId()));
+
+        //--> Logged out in another node
+        store.remove(session.getSessionId());
+
+        assertNull(SessionRegistry.getSession(session.getSessionId()));
+        assertEquals(0, SessionRegistry.size());
+    }
+
+    @Test
+    public void sessionsSavedByAnotherNodeAreReloaded() throws Exception {
+        SessionRegistry.setStore(store, 0);
+        BasicSession session = createSavedSession();
+        HashMap<String, Serializable> attributes = new HashMap<String, Serializable>(
+                store.load(session.getSessionId()).getAttributes());
+        attributes.put("stored", "changed");
+        store.save(new StoredSession(session.getSessionId(), store.getVersion(session.getSessionId()) + 1, attributes));
+
+        BasicSession reloaded = SessionRegistry.getSession(session.getSessionId());
+
+        assertNotSame(session, reloaded);
+        assertEquals("changed", reloaded.getAttribute("stored"));
+    }
+
+    @Test
+    public void expiredSessionsStayInTheStoreWhileOtherNodesUseThem() throws Exception {
+        SessionRegistry.setStore(store, SessionRegistry.DEFAULT_VALIDATION_INTERVAL);
+        BasicSession session = createSavedSession();
+        store.touch(session.getSessionId());
+
+        SessionRegistry.expireSession(session.getSessionId(), 60000);
+        assertEquals(0, SessionRegistry.size());
+        assertNotNull(store.load(session.getSessionId()));
+
+        SessionRegistry.expireSession(session.getSessionId(), 0);
+        assertNull(store.load(session.getSessionId()));
+    }
+
+    private static BasicSession createSavedSession() throws Exception {
+        BasicSession session = SessionRegistry.createNewSession();
+        session.setAttribute(SessionAttributes.SESSION_ID_ATTRIBUTE, session.getSessionId());
+        session.setAttribute(SessionAttributes.PERMISSIONS_ATTRIBUTE, new ArrayList<String>(Arrays.asList("search")));
+        session.setAttribute("stored", "value");
+        session.setAttribute("not_stored", "value");
+        SessionRegistry.saveSession(session, new String[]{"stored"});
+        return session;
+    }
+}